@@ -4,10 +4,20 @@ package inkball;
 import processing.core.PApplet;
 import processing.core.PVector;
 import processing.core.PImage;
+import processing.core.PGraphics;
 import processing.data.JSONObject; // For reading JSON configs
 import processing.data.JSONArray; // For reading JSON arrays
+import processing.event.KeyEvent;
 import processing.event.MouseEvent;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
@@ -16,90 +26,258 @@ import java.util.*;
 
 interface Drawable {
     /**
-     * Draws the object on the screen.
+     * Draws the object onto the given graphics.
+     * @param g The graphics to draw onto (the window, or an offscreen buffer).
      */
-    void draw();
+    void draw(PGraphics g);
 }
 
 
 /**
  * Represents a line drawn by the user in the game.
- * A Line object is a collection of points (PVector) that form a sequence.
+ * A Line object is a sequence of points stored as a packed coordinate array
+ * (x0, y0, x1, y1, ...) together with a cached bounding box, so collision and
+ * rendering can scan the points linearly without touching a PVector per point.
  */
 
 class Line implements Drawable {
-    // List of points that form the line.
-    List<PVector> points = new ArrayList<>();
+    // Packed point coordinates, interleaved as x0, y0, x1, y1, ...
+    float[] coords = new float[16];
+    // Number of points currently stored in coords.
+    int pointCount = 0;
+
+    // Bounding box of all points in the line, updated as points are added.
+    float minX = Float.MAX_VALUE;
+    float minY = Float.MAX_VALUE;
+    float maxX = -Float.MAX_VALUE;
+    float maxY = -Float.MAX_VALUE;
+    // Length of the longest segment, which bounds how far from the line a collision can reach.
+    float maxSegmentLength = 0;
+    int netId = 0;  // Id of the stroke on the game server, assigned when it is first sent
+    long finishedNanos = 0;  // When the input that finished the stroke arrived, until its first collision check
+    long hitStep = 0;  // Simulation step in which a ball hit the stroke, which erases it at the end of the step
 
     /**
      * Adds a point to the line.
      * @param point the PVector point to be added to the line.
      */
     public void addPoint(PVector point) {
-        points.add(point);
+        addPoint(point.x, point.y);
+    }
+
+    /**
+     * Adds a point to the line, growing the packed coordinate array when needed.
+     * @param x the x-coordinate of the point.
+     * @param y the y-coordinate of the point.
+     */
+    public void addPoint(float x, float y) {
+        if (pointCount * 2 + 2 > coords.length) {
+            coords = Arrays.copyOf(coords, coords.length * 2);
+        }
+        if (pointCount > 0) {
+            float segmentLength = PApplet.dist(coords[pointCount * 2 - 2], coords[pointCount * 2 - 1], x, y);
+            maxSegmentLength = Math.max(maxSegmentLength, segmentLength);
+        }
+        coords[pointCount * 2] = x;
+        coords[pointCount * 2 + 1] = y;
+        pointCount++;
+
+        // Keep the cached bounding box up to date
+        if (x < minX) minX = x;
+        if (x > maxX) maxX = x;
+        if (y < minY) minY = y;
+        if (y > maxY) maxY = y;
+    }
+
+    /**
+     * Gets the number of points in this line.
+     * @return the number of points.
+     */
+    public int size() {
+        return pointCount;
+    }
+
+    /**
+     * Gets the x-coordinate of the point at the given index.
+     * @param index the index of the point.
+     * @return the x-coordinate of the point.
+     */
+    public float getX(int index) {
+        return coords[index * 2];
+    }
+
+    /**
+     * Gets the y-coordinate of the point at the given index.
+     * @param index the index of the point.
+     * @return the y-coordinate of the point.
+     */
+    public float getY(int index) {
+        return coords[index * 2 + 1];
     }
 
     /**
      * Gets all points that form this line.
+     * The points are copied out of the packed array, so this is meant for callers
+     * outside the game loop; collision and rendering read the packed form directly.
      * @return a List of PVectors representing the points of the line.
      */
     public List<PVector> getPoints() {
+        List<PVector> points = new ArrayList<>(pointCount);
+        for (int i = 0; i < pointCount; i++) {
+            points.add(new PVector(coords[i * 2], coords[i * 2 + 1]));
+        }
         return points;
     }
 
+    /**
+     * Checks if the bounding box of this line, grown by a margin, contains the given point.
+     * @param x the x-coordinate to check.
+     * @param y the y-coordinate to check.
+     * @param margin the distance by which the bounding box is grown on every side.
+     * @return true if the point lies inside the grown bounding box, false otherwise.
+     */
+    public boolean boundsContain(float x, float y, float margin) {
+        return x >= minX - margin && x <= maxX + margin && y >= minY - margin && y <= maxY + margin;
+    }
+
+    /**
+     * Calculates how far a point is outside the bounding box of this line along either axis,
+     * which is the smallest margin for which boundsContain() would be true.
+     * @param x the x-coordinate of the point.
+     * @param y the y-coordinate of the point.
+     * @return the distance, or a negative number if the point is inside the box.
+     */
+    public float boundsDistance(float x, float y) {
+        return Math.max(Math.max(minX - x, x - maxX), Math.max(minY - y, y - maxY));
+    }
+
+    /**
+     * Calculates how far outside the bounding box a ball of the given radius can be
+     * and still collide with this line. A segment collides when the distances from the
+     * ball to both ends add up to at most the segment length plus the radius, which is
+     * an ellipse around the segment whose half-width grows with the segment length.
+     * 
+     * @param radius the radius of the ball.
+     * @return the margin to grow the bounding box by before testing the segments.
+     */
+    public float contactReach(float radius) {
+        return 0.5f * (float) Math.sqrt((2 * maxSegmentLength + radius) * radius);
+    }
+
     /**
      * Checks if a given position (point) is close to any segment of this line.
      * @param position the PVector position to check.
      * @return true if the position is within a certain distance to the line, false otherwise.
      */
     public boolean contains(PVector position) {
-        for (int i = 1; i < points.size(); i++) {
-            PVector p1 = points.get(i - 1);
-            PVector p2 = points.get(i);
-
-            if (distToSegment(position, p1, p2) < App.LINE_THICKNESS) {
+        if (!boundsContain(position.x, position.y, App.LINE_THICKNESS)) {
+            return false;  // Too far from every point of the line
+        }
+        for (int i = 1; i < pointCount; i++) {
+            if (distToSegment(position.x, position.y,
+                    coords[i * 2 - 2], coords[i * 2 - 1], coords[i * 2], coords[i * 2 + 1]) < App.LINE_THICKNESS) {
                 return true;
             }
         }
         return false;
-    
-
     }
 
-    
-
+    /**
+     * Checks if any point of this line lies within the given distance of a position.
+     * @param x the x-coordinate of the position.
+     * @param y the y-coordinate of the position.
+     * @param distance the maximum distance from a point of the line.
+     * @return true if a point of the line is closer than the given distance, false otherwise.
+     */
+    public boolean hasPointNear(float x, float y, float distance) {
+        if (!boundsContain(x, y, distance)) {
+            return false;
+        }
+        float distanceSquared = distance * distance;
+        for (int i = 0; i < pointCount; i++) {
+            float dx = coords[i * 2] - x;
+            float dy = coords[i * 2 + 1] - y;
+            if (dx * dx + dy * dy < distanceSquared) {
+                return true;
+            }
+        }
+        return false;
+    }
 
     /**
      * Calculates the shortest distance from point p to the line segment between points v and w.
      * This uses projection math to find the closest point on the segment and then calculates the distance.
      * 
-     * @param p the point for which to calculate the distance.
-     * @param v the start of the line segment.
-     * @param w the end of the line segment.
+     * @param px the x-coordinate of the point for which to calculate the distance.
+     * @param py the y-coordinate of the point for which to calculate the distance.
+     * @param vx the x-coordinate of the start of the line segment.
+     * @param vy the y-coordinate of the start of the line segment.
+     * @param wx the x-coordinate of the end of the line segment.
+     * @param wy the y-coordinate of the end of the line segment.
      * @return the shortest distance from p to the line segment.
      */
-    private float distToSegment(PVector p, PVector v, PVector w) {
-        float l2 = PVector.dist(v, w) * PVector.dist(v, w);  
-        if (l2 == 0.0) return PVector.dist(p, v);  
-        float t = PVector.sub(p, v).dot(PVector.sub(w, v)) / l2;
+    private float distToSegment(float px, float py, float vx, float vy, float wx, float wy) {
+        float segX = wx - vx;
+        float segY = wy - vy;
+        float l2 = segX * segX + segY * segY;
+        if (l2 == 0.0) return PApplet.dist(px, py, vx, vy);
+        float t = ((px - vx) * segX + (py - vy) * segY) / l2;
         t = Math.max(0, Math.min(1, t));
-        PVector projection = PVector.add(v, PVector.mult(PVector.sub(w, v), t));
-        return PVector.dist(p, projection);
+        return PApplet.dist(px, py, vx + segX * t, vy + segY * t);
     }
 
     /**
-     * Draws the line on the screen.
+     * Encodes the points of this line as 16-bit integers, rounded to whole pixels.
+     * The first point is stored as absolute coordinates and every following point
+     * as the difference from the previous one, which keeps a stroke compact for storage.
+     * 
+     * @return the delta-encoded coordinates, interleaved as x0, y0, dx1, dy1, ...
+     */
+    public short[] toDeltaEncoded() {
+        short[] encoded = new short[pointCount * 2];
+        int prevX = 0;
+        int prevY = 0;
+        for (int i = 0; i < pointCount; i++) {
+            int x = Math.round(coords[i * 2]);
+            int y = Math.round(coords[i * 2 + 1]);
+            encoded[i * 2] = (short) (x - prevX);
+            encoded[i * 2 + 1] = (short) (y - prevY);
+            prevX = x;
+            prevY = y;
+        }
+        return encoded;
+    }
+
+    /**
+     * Builds a line from coordinates produced by {@link #toDeltaEncoded()}.
+     * 
+     * @param encoded the delta-encoded coordinates.
+     * @return a new Line holding the decoded points.
+     */
+    public static Line fromDeltaEncoded(short[] encoded) {
+        Line line = new Line();
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i + 1 < encoded.length; i += 2) {
+            x += encoded[i];
+            y += encoded[i + 1];
+            line.addPoint(x, y);
+        }
+        return line;
+    }
+
+    /**
+     * Draws the line onto the given graphics.
      * Uses the stroke and line methods from Processing to render the line segments.
+     * @param g The graphics to draw onto.
      */
     @Override
-    public void draw() {
-        if (points.size() > 1) {
-            for (int i = 1; i < points.size(); i++) {
-                PVector p1 = points.get(i - 1);
-                PVector p2 = points.get(i);
-                App.instance.stroke(0);   // Set stroke color to black
-                App.instance.strokeWeight(App.LINE_THICKNESS); // Set line thickness
-                App.instance.line(p1.x, p1.y, p2.x, p2.y); // Draw the line
+    public void draw(PGraphics g) {
+        if (pointCount > 1) {
+            g.stroke(0);   // Set stroke color to black
+            g.strokeWeight(App.LINE_THICKNESS); // Set line thickness
+            for (int i = 1; i < pointCount; i++) {
+                g.line(coords[i * 2 - 2], coords[i * 2 - 1], coords[i * 2], coords[i * 2 + 1]); // Draw the line
             }
         }
     }
@@ -110,7 +288,7 @@ class Line implements Drawable {
  * interact with walls, acceleration zones, and holes on the game board.
  */
 
-class Ball implements Drawable {
+class Ball implements Drawable, TimerWheel.Task {
     PApplet parent; // Reference to the Processing applet
     App app; // Reference to the main game application
     PVector position;  // Ball's current position
@@ -126,6 +304,18 @@ class Ball implements Drawable {
     public float vx, vy;
     public boolean captured = false;
     public float distanceToHole = Float.MAX_VALUE; // Variable to store distance to the nearest hole
+    boolean simulated = false; // True for copies used to predict a path; they never change the score
+    int clockOffset = 0;       // Milliseconds this ball's clock runs ahead of the game (used by predictions)
+    int netId = 0;             // Id of the ball on the game server, assigned when it is first sent
+    int spawnTick;             // Tick the ball entered the board on
+    float spawnX, spawnY;      // Where the ball entered the board
+    int bounces = 0;           // Walls and strokes the ball bounced off
+    int recolours = 0;         // Times a coloured wall changed the ball's colour
+    int fx, fy, fvx, fvy;      // Position and velocity in fixed point during a FixedPhysics update
+    int cullSlot;              // Row of the game's skipped stroke pairs that belongs to this ball...
+    int cullEpoch = -1;        // ...in this collisionEpoch of the game, see App.checkBallLineCollisions
+    float cullSpeed;           // Most the ball may move per tick for its skipped pairs to hold
+    private static final float[] POSSIBLE_SPEEDS = {-2, 2};  // Initial speeds along each axis
 
     /**
      * Creates a new Ball object with a given position and color index.
@@ -142,15 +332,65 @@ class Ball implements Drawable {
         this.app = app;
         this.position = new PVector(x, y); // Initialize position
         this.colorIndex = colorIndex; // Assign the ball's color
+        this.spawnTick = app.tickCount;
+        this.spawnX = x;
+        this.spawnY = y;
 
         // Set random initial velocity for the ball (-2 or 2 for both x and y)
-        float[] possibleSpeeds = {-2, 2};
-        float vx = possibleSpeeds[(int) (Math.random() * 2)];  // Using Math.random()
-        float vy = possibleSpeeds[(int) (Math.random() * 2)];  // Using Math.random()
+        float vx = POSSIBLE_SPEEDS[app.random.nextInt(2)];  // Using the game's random generator
+        float vy = POSSIBLE_SPEEDS[app.random.nextInt(2)];  // so that simulations can be replayed
         this.velocity = new PVector(vx, vy);
         
     }
 
+    /**
+     * Creates a simulated copy of a ball, used to predict where the ball is going.
+     * The copy moves like the original but never changes the score or the spawn queue.
+     * 
+     * @param source The ball to copy.
+     */
+    Ball(Ball source) {
+        this.parent = source.parent;
+        this.app = source.app;
+        this.position = new PVector();
+        this.velocity = new PVector();
+        this.simulated = true;
+        copyStateFrom(source);
+    }
+
+    /**
+     * Copies the physics state (position, velocity, colour, acceleration and capture state) of another ball.
+     * 
+     * @param source The ball to copy from.
+     */
+    void copyStateFrom(Ball source) {
+        position.set(source.position);
+        velocity.set(source.velocity);
+        colorIndex = source.colorIndex;
+        radius = source.radius;
+        isCaptured = source.isCaptured;
+        accelerationFactor = source.accelerationFactor;
+        accelerationStartTime = source.accelerationStartTime;
+        accelerationDuration = source.accelerationDuration;
+        scale = source.scale;
+        inGame = source.inGame;
+        distanceToHole = source.distanceToHole;
+        spawnTick = source.spawnTick;
+        spawnX = source.spawnX;
+        spawnY = source.spawnY;
+        bounces = source.bounces;
+        recolours = source.recolours;
+    }
+
+    /**
+     * Gets the time on this ball's clock: the game time, plus the offset for simulated copies.
+     * 
+     * @return The time in milliseconds.
+     */
+    long now() {
+        return app.gameMillis() + clockOffset;
+    }
+
     /**
      * Gets the current position of the ball.
      * 
@@ -193,75 +433,89 @@ class Ball implements Drawable {
      * collisions with walls, boundaries, and holes.
      */
     public void update() {
+        if (app.fixedPoint) {
+            FixedPhysics.update(this);  // The same physics in integer arithmetic
+            return;
+        }
         if (!isCaptured) {
-            // Check for acceleration time
-            if (parent.millis() - accelerationStartTime > accelerationDuration) {
+            // Check for acceleration time; the game's own balls are timed by its timer wheel
+            if (simulated && now() - accelerationStartTime > accelerationDuration) {
                 accelerationFactor = 1.0f; // Reset to normal speed after duration ends
             }
 
             // Move the ball by applying its velocity and acceleration factor
-            position.add(PVector.mult(velocity, accelerationFactor));
-
-            int xIndex = (int) (position.x / app.CELLSIZE);
-            int yIndex = (int) ((position.y - app.TOPBAR) / app.CELLSIZE);
+            float startX = position.x;
+            float startY = position.y;
+            position.x += velocity.x * accelerationFactor;
+            position.y += velocity.y * accelerationFactor;
 
-            if (xIndex >= 0 && xIndex < app.BOARD_WIDTH && yIndex >= 0 && yIndex < app.BOARD_HEIGHT) {
-                char cell = app.board[yIndex][xIndex];
+            if (handleCell(startX, startY)) {
+                return;  // Captured; the ball is not moved further
+            }
 
-                // Calculate distanceToHole with all holes and get the nearest hole
-                distanceToHole = Float.MAX_VALUE;  // Reset to maximum value
-                PVector closestHolePosition = null;
+            // Handle boundary collisions
+            handleBoundaryCollisions();
+        }
+    }
 
-                for (PVector holePosition : app.holeTypesMap.keySet()) {
-                    // Retrieve the hole type, or skip if it's not a valid hole type
-                    Integer holeType = app.holeTypesMap.get(holePosition);
-                    if (holeType == null || holeType < 0 || holeType > 4) {
-                        continue; // Skip invalid or unknown hole types
-                    }
+    /**
+     * Applies the board cell the ball has just moved into: the pull of the nearest hole, force
+     * tiles and walls. Called by update() between moving the ball and keeping it on the board.
+     * @param startX The x coordinate before the move.
+     * @param startY The y coordinate before the move.
+     * @return True if the ball was captured by a hole.
+     */
+    boolean handleCell(float startX, float startY) {
+        int xIndex = (int) (position.x / app.CELLSIZE);
+        int yIndex = (int) ((position.y - app.TOPBAR) / app.CELLSIZE);
 
-                    float holeCenterX = (holePosition.x + 1) * app.CELLSIZE;
-                    float holeCenterY = app.TOPBAR + (holePosition.y + 1) * app.CELLSIZE;
-                    PVector holeCenter = new PVector(holeCenterX, holeCenterY);
+        if (xIndex >= 0 && xIndex < app.boardWidth && yIndex >= 0 && yIndex < app.boardHeight) {
+            char cell = app.board[yIndex][xIndex];
 
-                    float currentDistanceToHole = PVector.dist(position, holeCenter);
+            // Calculate distanceToHole with all holes and get the nearest hole
+            distanceToHole = Float.MAX_VALUE;  // Reset to maximum value
+            int closestHole = -1;
 
-                    // Update closest hole if this one is closer
-                    if (currentDistanceToHole < distanceToHole) {
-                        distanceToHole = currentDistanceToHole;
-                        closestHolePosition = holePosition;
-                    }
+            float[] holes = app.holeCenters();
+            for (int h = 0; h < holes.length; h += App.HOLE_FLOATS) {
+                // Skip holes that are not a valid hole type
+                if (holes[h + 4] < 0 || holes[h + 4] > 4) {
+                    continue;
                 }
 
-                // Call attractToHole if there is a nearest hole and within the attraction zone
-                if (closestHolePosition != null && distanceToHole <= 32) {
-                    if (attractToHole((int) closestHolePosition.x, (int) closestHolePosition.y)) {
-                        // If the ball is attracted into the hole, stop further updates for this ball
-                        return;
-                    }
-                }
+                float currentDistanceToHole = PApplet.dist(position.x, position.y, holes[h], holes[h + 1]);
 
-                // Handle acceleration zones ('A') with directions ('U' or 'D')
-                if (cell == 'A') {
-                    if (app.board[yIndex][xIndex + 1] == 'U') {
-                        applyAcceleration(new PVector(0, -1)); // Up acceleration
-                    } else if (app.board[yIndex][xIndex + 1] == 'D') {
-                        applyAcceleration(new PVector(0, 1)); // Down acceleration
-                    }
+                // Update closest hole if this one is closer
+                if (currentDistanceToHole < distanceToHole) {
+                    distanceToHole = currentDistanceToHole;
+                    closestHole = h;
                 }
+            }
 
-                // Handle colored wall collisions ('1', '2', '3', '4')
-                if (cell >= '1' && cell <= '4') {
-                    handleWallCollision(xIndex, yIndex);  // Change color and reflect on colored wall collision
-                }
-                // Handle gray wall collisions ('X')
-                else if (cell == 'X') {
-                    handleWallCollision(xIndex, yIndex);  // Reflect on gray wall collision without color change
+            // Call attractToHole if there is a nearest hole and within the attraction zone
+            if (closestHole >= 0 && distanceToHole <= 32) {
+                if (attractToHole((int) holes[closestHole + 2], (int) holes[closestHole + 3])) {
+                    // If the ball is attracted into the hole, stop further updates for this ball
+                    return true;
                 }
             }
 
-            // Handle boundary collisions
-            handleBoundaryCollisions();
+            // Handle accelerators and other force tiles, compiled per cell when the level was loaded
+            int forceCell = yIndex * app.boardWidth + xIndex;
+            if (app.forces.kinds[forceCell] != 0) {
+                applyForces(app.forces, forceCell, startX, startY);
+            }
+
+            // Handle colored wall collisions ('1', '2', '3', '4')
+            if (cell >= '1' && cell <= '4') {
+                handleWallCollision(xIndex, yIndex);  // Change color and reflect on colored wall collision
+            }
+            // Handle gray wall collisions ('X')
+            else if (cell == 'X') {
+                handleWallCollision(xIndex, yIndex);  // Reflect on gray wall collision without color change
+            }
         }
+        return false;
     }
 
     
@@ -279,16 +533,22 @@ class Ball implements Drawable {
         // Get the center position of the hole
         float holeCenterX = (xIndex + 1) * app.CELLSIZE;
         float holeCenterY = app.TOPBAR + (yIndex + 1) * app.CELLSIZE;
-        PVector holeCenter = new PVector(holeCenterX, holeCenterY);
 
         // If the ball is within the attraction range (32 units)
         if (distanceToHole <= 32) {
             // Calculate the attraction force and the direction to the hole
-            PVector directionToHole = PVector.sub(holeCenter, position).normalize();
+            float directionX = holeCenterX - position.x;
+            float directionY = holeCenterY - position.y;
+            float length = (float) Math.sqrt(directionX * directionX + directionY * directionY);
+            if (length != 0 && length != 1) {
+                directionX /= length;  // Normalize
+                directionY /= length;
+            }
             float forceAttraction = PApplet.map(distanceToHole, 32, 0, 0.01f, 0.1f);  // Increase attraction force
 
             // Cập nhật vận tốc bóng dựa trên lực hút
-            velocity.add(directionToHole.mult(forceAttraction));
+            velocity.x += directionX * forceAttraction;
+            velocity.y += directionY * forceAttraction;
 
             // Shrink the ball as it approaches the hole
             this.scale = PApplet.map(distanceToHole, 32, 0, 1.0f, 0.0f);   // Gradually shrink the ball
@@ -301,7 +561,9 @@ class Ball implements Drawable {
                 this.vy = 0;
 
                 // Check if the ball's color matches the hole's color
-                checkColorMatch(xIndex, yIndex);
+                if (!simulated) {
+                    checkColorMatch(xIndex, yIndex);
+                }
                 return true;  // Return true if the ball is captured by the hole
             }
         } else {
@@ -317,39 +579,27 @@ class Ball implements Drawable {
 
 
     /**
-     * Checks if the ball's color matches the hole's color and adjusts the score accordingly.
+     * Captures the ball in a hole and publishes the capture, so that the score is adjusted
+     * by whether the ball's color matches the hole's color.
      * 
      * @param xIndex The x-coordinate index of the hole.
      * @param yIndex The y-coordinate index of the hole.
      */
     public void checkColorMatch(int xIndex, int yIndex) {
-        PVector holePosition = new PVector(xIndex, yIndex); // Get the hole's position
-        Integer holeColorIndex = app.holeTypesMap.get(holePosition); // Get the colour of the hole
+        int holeColorIndex = app.getHoleType(xIndex, yIndex); // Get the colour of the hole
 
-        if (holeColorIndex == null) {
+        if (holeColorIndex < 0) {
             holeColorIndex = 0;  // Default is grey
         }
 
-        String holeColor = getColorName(holeColorIndex);
-        String ballColor = getColorName(colorIndex);
-
         isCaptured = true;
-
-        int scoreIncrease = app.scoreIncreaseMap.getOrDefault(ballColor, 0);
-        int scoreDecrease = app.scoreDecreaseMap.getOrDefault(ballColor, 0);
-
-        
-        if (ballColor.equals("grey") || ballColor.equals(holeColor) || holeColor.equals("grey")) {
-            /**
-            Score is increased in terms of the config file if ball's colour is grey or 
-            ball's colour matches with hole's colour or hole's colour is grey  
-            */ 
-            app.score += scoreIncrease * app.scoreIncreaseModifier;
-        } else {
-            // Else, the score is decreased
-            app.score -= scoreDecrease * app.scoreDecreaseModifier;
-            app.ballsToSpawn.add(ballColor.toLowerCase());
+        if (FlightEvents.captures && !simulated) {
+            FlightEvents.capture(this, holeColorIndex, xIndex, yIndex);
         }
+
+        // The score is changed by the game's event listener, see App.scoreCapture
+        app.events.publish(GameEvents.CAPTURE, this, null, colorIndex, holeColorIndex,
+                (xIndex + 1) * App.CELLSIZE, App.TOPBAR + (yIndex + 1) * App.CELLSIZE);
     }
 
     /**
@@ -376,12 +626,13 @@ class Ball implements Drawable {
      * @param yIndex The y-coordinate index of the wall.
      */
     public void handleWallCollision(int xIndex, int yIndex) {
+        bounces++;
+
         // Define wall bounds
-        PVector wallPos = new PVector(xIndex * app.CELLSIZE, app.TOPBAR + yIndex * app.CELLSIZE);
-        float wallLeft = wallPos.x;
-        float wallRight = wallPos.x + app.CELLSIZE;
-        float wallTop = wallPos.y;
-        float wallBottom = wallPos.y + app.CELLSIZE;
+        float wallLeft = xIndex * app.CELLSIZE;
+        float wallRight = wallLeft + app.CELLSIZE;
+        float wallTop = app.TOPBAR + yIndex * app.CELLSIZE;
+        float wallBottom = wallTop + app.CELLSIZE;
 
         // Calculate distances to the walls
         float distToLeft = position.x - wallLeft;
@@ -399,7 +650,7 @@ class Ball implements Drawable {
         if ((xIndex - 1 >= 0 && app.isWall(xIndex - 1, yIndex)) && (yIndex - 1 >= 0 && app.isWall(xIndex, yIndex - 1))) {
             // This is a corner where two walls meet
             isTwoWallCorner = true;
-        } else if ((xIndex + 1 < app.BOARD_WIDTH && app.isWall(xIndex + 1, yIndex)) && (yIndex + 1 < app.BOARD_HEIGHT && app.isWall(xIndex, yIndex + 1))) {
+        } else if ((xIndex + 1 < app.boardWidth && app.isWall(xIndex + 1, yIndex)) && (yIndex + 1 < app.boardHeight && app.isWall(xIndex, yIndex + 1))) {
             // Another corner check for adjacent walls
             isTwoWallCorner = true;
         }
@@ -409,13 +660,9 @@ class Ball implements Drawable {
             // Reflect velocity based on collision with two walls
             // Use the normal reflection logic you applied in line segment collisions
 
-            // Calculate normals for the two walls and reflect the ball
-            PVector normalX = new PVector(1, 0);  // Normal vector for horizontal wall
-            PVector normalY = new PVector(0, 1);  // Normal vector for vertical wall
-
-            // Reflect the velocity along both normals
-            velocity = calculateNewVelocity(velocity, normalX);
-            velocity = calculateNewVelocity(velocity, normalY);
+            // Reflect the velocity along both wall normals, (1, 0) and (0, 1)
+            velocity.x = -velocity.x;
+            velocity.y = -velocity.y;
 
             return;  // Stop further processing, as we have handled the corner collision
         }
@@ -450,10 +697,24 @@ class Ball implements Drawable {
             velocity.y *= -1;  // Reflect vertically
         }
 
-        // If the wall is colored (1-4), change the ball color
+        takeWallColor(xIndex, yIndex);
+    }
+
+    /**
+     * Changes the ball's color to the color of a wall it hit, if the wall is colored (1-4).
+     * 
+     * @param xIndex The x index of the wall cell.
+     * @param yIndex The y index of the wall cell.
+     */
+    void takeWallColor(int xIndex, int yIndex) {
         char cell = app.board[yIndex][xIndex];
         if (cell >= '1' && cell <= '4') { 
             int wallColorIndex = Character.getNumericValue(cell);
+            if (wallColorIndex != colorIndex && !simulated) {
+                recolours++;
+                app.events.publish(GameEvents.RECOLOUR, this, null, wallColorIndex, colorIndex,
+                        xIndex * App.CELLSIZE + App.CELLSIZE / 2f, App.TOPBAR + yIndex * App.CELLSIZE + App.CELLSIZE / 2f);
+            }
             this.colorIndex = wallColorIndex;  // Change ball color to match wall
         }
     }
@@ -467,6 +728,21 @@ class Ball implements Drawable {
      * @return true if the ball collides with the line segment, false otherwise.
      */
     public boolean collideWithLineSegment(float[] p1, float[] p2) {
+        return collideWithLineSegment(p1[0], p1[1], p2[0], p2[1]);
+    }
+
+    /**
+     * Checks if the ball collides with the line segment between (x1, y1) and (x2, y2)
+     * and reflects its velocity if it does. Works on primitive coordinates so that
+     * strokes can be tested straight from their packed storage.
+     * 
+     * @param x1 The x-coordinate of the starting point of the line segment.
+     * @param y1 The y-coordinate of the starting point of the line segment.
+     * @param x2 The x-coordinate of the ending point of the line segment.
+     * @param y2 The y-coordinate of the ending point of the line segment.
+     * @return true if the ball collides with the line segment, false otherwise.
+     */
+    public boolean collideWithLineSegment(float x1, float y1, float x2, float y2) {
         float collisionBuffer = 0.1f;
 
         // Future position based on current velocity
@@ -474,37 +750,35 @@ class Ball implements Drawable {
         float futureY = position.y + velocity.y;
 
         // Calculate distances between the ball and the line segment
-        float distanceP1ToBall = PVector.dist(new PVector(p1[0], p1[1]), new PVector(futureX, futureY));
-        float distanceP2ToBall = PVector.dist(new PVector(p2[0], p2[1]), new PVector(futureX, futureY));
-        float distanceP1ToP2 = PVector.dist(new PVector(p1[0], p1[1]), new PVector(p2[0], p2[1]));
+        float distanceP1ToBall = PApplet.dist(x1, y1, futureX, futureY);
+        float distanceP2ToBall = PApplet.dist(x2, y2, futureX, futureY);
+        float distanceP1ToP2 = PApplet.dist(x1, y1, x2, y2);
 
         // Check if the ball collides with the line segment
         if (distanceP1ToBall + distanceP2ToBall <= distanceP1ToP2 + radius - collisionBuffer) {
             // Calculate the direction vectors
-            float dx = p2[0] - p1[0];
-            float dy = p2[1] - p1[1];
+            float dx = x2 - x1;
+            float dy = y2 - y1;
 
-            // Normal vectors for the line segment
-            PVector n1 = new PVector(dy, -dx).normalize();
-            PVector n2 = new PVector(-dy, dx).normalize();
+            // Normal vectors for the line segment (n2 is the opposite of n1)
+            float length = (float) Math.sqrt(dx * dx + dy * dy);
+            float n1x = length == 0 ? 0 : dy / length;
+            float n1y = length == 0 ? 0 : -dx / length;
 
             // Calculate mid-point of the line segment
-            float midX = (p1[0] + p2[0]) / 2;
-            float midY = (p1[1] + p2[1]) / 2;
-
-            // Calculate the points along the normals
-            PVector pointN1 = new PVector(midX + n1.x, midY + n1.y);
-            PVector pointN2 = new PVector(midX + n2.x, midY + n2.y);
+            float midX = (x1 + x2) / 2;
+            float midY = (y1 + y2) / 2;
 
             // Choose the correct normal based on the ball's position
-            float distanceToN1 = PVector.dist(pointN1, position);
-            float distanceToN2 = PVector.dist(pointN2, position);
-            PVector chosenNormal = (distanceToN1 < distanceToN2) ? n1 : n2;
+            float distanceToN1 = PApplet.dist(midX + n1x, midY + n1y, position.x, position.y);
+            float distanceToN2 = PApplet.dist(midX - n1x, midY - n1y, position.x, position.y);
+            float normalX = (distanceToN1 < distanceToN2) ? n1x : -n1x;
+            float normalY = (distanceToN1 < distanceToN2) ? n1y : -n1y;
 
             // Reflect the ball's velocity using the chosen normal
-            float dotProduct = velocity.dot(chosenNormal);
-            velocity.x -= 2 * dotProduct * chosenNormal.x;
-            velocity.y -= 2 * dotProduct * chosenNormal.y;
+            float dotProduct = velocity.x * normalX + velocity.y * normalY;
+            velocity.x -= 2 * dotProduct * normalX;
+            velocity.y -= 2 * dotProduct * normalY;
 
             return true;
         }
@@ -512,6 +786,34 @@ class Ball implements Drawable {
     }
 
 
+    /**
+     * Checks if the ball collides with any segment of a stroke, reflecting its velocity off the first
+     * segment it hits. Strokes whose bounding box is out of reach are skipped without testing segments.
+     * 
+     * @param line The stroke to check against.
+     * @return true if the ball collides with the stroke, false otherwise.
+     */
+    public boolean collideWithStroke(Line line) {
+        if (app.fixedPoint) {
+            return FixedPhysics.collideWithStroke(this, line);
+        }
+
+        // The collision test looks one step ahead, so allow for the ball's movement
+        float step = Math.abs(velocity.x) + Math.abs(velocity.y);
+        if (!line.boundsContain(position.x, position.y, line.contactReach(radius) + step)) {
+            return false;  // Too far away to collide with
+        }
+
+        // Check for collision between the ball and each line segment
+        float[] coords = line.coords;
+        for (int j = 1; j < line.pointCount; j++) {
+            if (collideWithLineSegment(coords[j * 2 - 2], coords[j * 2 - 1], coords[j * 2], coords[j * 2 + 1])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Reflects the ball's velocity when it hits a surface.
      * 
@@ -533,20 +835,49 @@ class Ball implements Drawable {
             position.x = radius;
             velocity.x *= -1; // Reflect horizontally
         }
-        if (position.x + radius > app.WIDTH) {
-            position.x = app.WIDTH - radius;
+        if (position.x + radius > app.boardWidth * App.CELLSIZE) {
+            position.x = app.boardWidth * App.CELLSIZE - radius;
             velocity.x *= -1; // Reflect horizontally
         }
         if (position.y - radius < app.TOPBAR) {
             position.y = app.TOPBAR + radius;
             velocity.y *= -1; // Reflect vertically
         }
-        if (position.y + radius > app.HEIGHT) {
-            position.y = app.HEIGHT - radius;
+        if (position.y + radius > App.TOPBAR + app.boardHeight * App.CELLSIZE) {
+            position.y = App.TOPBAR + app.boardHeight * App.CELLSIZE - radius;
             velocity.y *= -1; // Reflect vertically
         }
     }
 
+    /**
+     * Applies the forces of a cell of a force field to the ball. An accelerator only acts when
+     * the ball enters its cell; pushes and friction act on every tick the ball is in the cell.
+     *
+     * @param field The compiled force field of the level.
+     * @param cell The index of the cell the ball is in.
+     * @param startX The x coordinate of the ball before it moved this tick.
+     * @param startY The y coordinate of the ball before it moved this tick.
+     */
+    void applyForces(ForceField field, int cell, float startX, float startY) {
+        byte kind = field.kinds[cell];
+        float[] forces = field.cells;
+        int base = cell * ForceField.FLOATS;
+        if ((kind & ForceField.REDIRECT) != 0 && field.cellAt(startX, startY) != cell) {
+            applyAcceleration(forces[base], forces[base + 1]);
+        }
+        if ((kind & ForceField.PUSH) != 0) {
+            velocity.x += forces[base + 2];
+            velocity.y += forces[base + 3];
+            velocity.limit(ForceField.MAX_SPEED);
+        }
+        if ((kind & ForceField.DRAG) != 0) {
+            float speed = velocity.mag();
+            if (speed > ForceField.MIN_SPEED) {
+                velocity.mult(Math.max(forces[base + 4], ForceField.MIN_SPEED / speed));
+            }
+        }
+    }
+
     /**
      * Applies acceleration to the ball, changing its speed and direction.
      * 
@@ -554,21 +885,64 @@ class Ball implements Drawable {
      */
 
     public void applyAcceleration(PVector direction) {
+        applyAcceleration(direction.x, direction.y);
+    }
+
+    /**
+     * Applies acceleration to the ball in the direction (directionX, directionY).
+     * 
+     * @param directionX The x component of the direction.
+     * @param directionY The y component of the direction.
+     */
+    public void applyAcceleration(float directionX, float directionY) {
         // Set the acceleration factor and modify velocity direction
         accelerationFactor = 1.5f; // Speed boost
-        accelerationStartTime = parent.millis(); // Start timer
-        velocity.set(direction.mult(velocity.mag())); // Update velocity in the new direction
+        accelerationStartTime = now(); // Start timer
+        scheduleBoostEnd();
+        float speed = velocity.mag();
+        velocity.set(directionX * speed, directionY * speed); // Update velocity in the new direction
     }
 
+    /**
+     * Sets a timer on the game's timer wheel for the end of the speed boost that started at
+     * accelerationStartTime. Simulated copies keep their own clock and check it as they move.
+     */
+    void scheduleBoostEnd() {
+        if (!simulated) {
+            app.timers.schedule(this, accelerationStartTime + accelerationDuration + 1);
+        }
+    }
 
     /**
-     * Draws the ball onto the screen if it is not captured.
+     * Ends the speed boost when its timer fires, unless the boost was renewed since the timer
+     * was set.
+     * @param now The game time.
      */
     @Override
-    public void draw() {
+    public void expire(long now) {
+        if (now - accelerationStartTime > accelerationDuration) {
+            accelerationFactor = 1.0f; // Reset to normal speed after duration ends
+        }
+    }
+
+
+    /**
+     * Draws the ball onto the given graphics if it is not captured.
+     * @param g The graphics to draw onto.
+     */
+    @Override
+    public void draw(PGraphics g) {
         if (!isCaptured) {
             float adjustedRadius = radius * scale;  // Use scale to adjust ball's size
-            App.instance.image(App.instance.ballImages[colorIndex], 
+            if (app.sprites != null && adjustedRadius * 2 <= SpriteCache.BALL_DIAMETER) {
+                // Copy the pre-sized sprite nearest the ball's size; a ball under half a pixel is not drawn
+                PImage sprite = app.sprites.ball(colorIndex, adjustedRadius * 2);
+                if (sprite != null) {
+                    g.image(sprite, position.x - sprite.width / 2f, position.y - sprite.height / 2f);
+                }
+                return;
+            }
+            g.image(app.ballImages[colorIndex], 
                 position.x - adjustedRadius, 
                 position.y - adjustedRadius, 
                 adjustedRadius * 2, 
@@ -586,16 +960,18 @@ class Ball implements Drawable {
  */
 public class App extends PApplet {
 
-    public static App instance;  // Singleton instance of the App
     public static final int CELLSIZE = 32;  // Size of each cell on the board
     public static final int TOPBAR = 64;    // Height of the top bar area
     public static int WIDTH = CELLSIZE * 18;  // Total width of the game window
     public static int HEIGHT = TOPBAR + CELLSIZE * 18;  // Total height of the game window
-    public static final int BOARD_WIDTH = WIDTH / CELLSIZE;  // Width of the game board in cells
-    public static final int BOARD_HEIGHT = (HEIGHT - TOPBAR) / CELLSIZE;  // Height of the game board in cells
-    public static char[][] board;  // 2D array representing the game board layout
+    public static final int BOARD_WIDTH = WIDTH / CELLSIZE;  // Default width of the game board in cells
+    public static final int BOARD_HEIGHT = (HEIGHT - TOPBAR) / CELLSIZE;  // Default height of the game board in cells
     public static final int FPS = 30;  // Frames per second for the game loop
-    public static Random random = new Random();  // Random number generator for game events
+    static final String[] COLOR_NAMES = {"grey", "orange", "blue", "green", "yellow"};  // Names of the color indices
+    public char[][] board;  // 2D array representing this game's board layout
+    public int boardWidth = BOARD_WIDTH, boardHeight = BOARD_HEIGHT;  // Size of the current level's board in cells
+    ForceField forces = new ForceField(BOARD_WIDTH, BOARD_HEIGHT);  // Forces of the board's force tiles, per cell
+    public GameRandom random = new GameRandom();  // Random number generator for this game's events
     
 
     // Variables for tracking yellow tile positions and movements
@@ -610,6 +986,62 @@ public class App extends PApplet {
     public boolean postLevelInProgress = false; // To track if the level has ended
     public boolean gameEnded = false;  // To track if the game has ended
     public int currentLevel = 0;       // Track current level
+    public boolean timeUp = false;     // To track if the time has run out and the game loop has stopped
+
+    // Variables for running the simulation without a window
+    public boolean headless = false;   // True when the game is driven by tick() alone, on its own clock
+    GameAssets assets;                 // Shared configuration, layouts and images, if the game was built from them
+    public int tickCount = 0;          // Number of simulation ticks run so far
+    public boolean fixedPoint = false; // True to move balls with FixedPhysics, bit-exact on any machine
+    public boolean vectorKernel = false; // True to move balls with a BallKernel, in SIMD lanes when the JVM allows
+    BallKernel kernel;                 // Created the first time the kernel is used
+    boolean[] boardRowShared;          // Rows of the board that are shared with a snapshot and must be copied before writing
+    boolean layoutShared = false;      // True while holeTypesMap and entrypoints are shared with a snapshot
+    public int boardVersion = 0;       // Incremented whenever a board cell changes
+
+    // Variables for loading the next level in the background
+    private static ExecutorService preloader;  // Shared by all games, one thread per core; created on the first preload
+    private Future<LevelLayout> preloadedLayout;  // The next level's layout, compiled while the last one plays out
+    private int preloadedLevel = -1;           // The level it was compiled for
+    private JSONObject preloadedConfig;        // The configuration it was read from
+    public int preloadsUsed = 0;               // Levels started from a preloaded layout
+
+    // Variables for skipping ball and stroke pairs that cannot touch yet
+    static final float CULL_SPEED_HEADROOM = 1.5f;  // Room for the ball to speed up, e.g. on an accelerator
+    int collisionEpoch = 0;            // Incremented when balls may have jumped, e.g. by restoring a snapshot
+    private Line[] cullLines = new Line[0];  // Per ball row and stroke index, a stroke the ball cannot reach before...
+    private int[] cullUntil = new int[0];    // ...this tick
+    private int cullStride = 0;        // Strokes per row
+    private int cullRows = 0;          // Rows in the arrays
+    private int cullRowsUsed = 0;      // Rows handed out in the current epoch
+    private int cullRowsEpoch = 0;     // The epoch the rows were handed out in
+    public long strokePairsTested = 0; // Ball and stroke pairs tested for a collision
+    public long strokePairsSkipped = 0; // Pairs skipped because the ball could not reach the stroke yet
+
+    // Variables for the trajectory overlay
+    public boolean showTrajectories = false;  // Toggled with 't'
+    TrajectoryPredictor trajectoryPredictor;  // Created the first time the overlay is shown
+    public GameClient remote;  // Set when the game is played on a server; the window then only draws it
+
+    // What the last frame showed, so that only changes are drawn
+    boolean frameDirty = true;         // The whole frame must be drawn again, e.g. after input
+    int renderedBoardVersion = -1;
+    int renderedScore, renderedTimeLeft, renderedCountdown, renderedQueueSize, renderedHudFlags;
+    public long framesDrawn = 0;       // Whole frames drawn
+    public long hudFramesDrawn = 0;    // Frames where only the top bar was drawn
+    public HotReloader reloader;  // Set when the configuration and layouts are watched for edits
+    public final GameEvents events = new GameEvents();  // Captures, recolours, stroke hits, spawns and level ends
+    public Telemetry telemetry;  // Set when gameplay records are written for analysis
+    public Leaderboard leaderboard;  // Set when the scores of finished levels and games are kept
+    public final Particles particles = new Particles();  // Capture bursts, recolour sparks and ink fragments
+    public final InputLatency latency = new InputLatency();  // How long input takes to be drawn and strokes to collide
+    public final TimerWheel timers = new TimerWheel();  // Ends of the balls' speed boosts
+    boolean timersStale = false;  // Set when balls are put back by a restore; their timers are set again before they move
+
+    // Saving and resuming
+    public SaveGame saves;            // Save slot used by 's', 'l' and autosaves
+    public int autosaveInterval = 0;  // Milliseconds between autosaves; 0 turns autosave off
+    public int lastAutosaveTime = 0;  // Time of the last autosave
 
     
     // Declare variables for ball spawner
@@ -630,6 +1062,7 @@ public class App extends PApplet {
     PImage[] wallImages;  // Array of images for walls
     PImage upAccelerationImage;  // Image for upward acceleration tiles
     PImage downAccelerationImage;  // Image for downward acceleration tiles
+    SpriteCache sprites;  // The images above, pre-sized to every size they are drawn at
 
     // Declare variables for drawing lines
     List<Ball> balls = new ArrayList<>(); // List of balls currently in play
@@ -640,6 +1073,7 @@ public class App extends PApplet {
     // Declare variables for config section
     public int totalLevels;  // Total number of levels in the game
     public int score = 0; // The player's inititalised score
+    public int levelStartScore = 0;  // Score when the current level started, so the level's own points can be recorded
     public int timeLeft; // Time left in the current level (in seconds)
     public String configPath; // Path to the configuration file (JSON format)
     public JSONObject config;  // To store the configuration data
@@ -653,6 +1087,11 @@ public class App extends PApplet {
     public Map<String, Integer> scoreIncreaseMap = new HashMap<>();  // Map to store score increases by ball color
     public Map<String, Integer> scoreDecreaseMap = new HashMap<>();  // Map to store score decreases by ball color
     public Map<PVector, Integer> holeTypesMap = new HashMap<>();  // Maps hole positions to their types
+    static final int HOLE_FLOATS = 5;  // Centre x, centre y, cell x, cell y and type of each hole in holeCenters
+    private float[] holeCenters = new float[0];  // Flat copy of holeTypesMap, read by the balls every frame
+    private int[] fixedHoleCenters = new int[0];  // The same in FixedPhysics position units
+    private Map<PVector, Integer> holeCentersSource;  // Map the copy was built from
+    private int holeCentersSize = -1;                 // Size of that map when the copy was built
     public float scoreIncreaseModifier;  // Modifier for score increases
     public float scoreDecreaseModifier;  // Modifier for score decreases
     
@@ -662,6 +1101,9 @@ public class App extends PApplet {
     public App() {
         this.configPath = "config.json"; // JSON config file path
         this.ballsToSpawn = new LinkedList<>(); // Initialize ballsToSpawn here
+        events.subscribe(this::applyEvents);  // The game's own effects come first, before any other listener
+        events.subscribe(particles);
+        sketchPath();  // Resolve relative file paths from the working directory, even without a window
     }
 
     /**
@@ -678,20 +1120,158 @@ public class App extends PApplet {
      */
     @Override
     public void setup() {
-        instance = this;
         frameRate(FPS);  // Set frame rate to 30 frames per second
-        lastFrameTime = millis() / 1000.0f; // Initialize last frame time
 
-        board = new char[BOARD_HEIGHT][BOARD_WIDTH];  // Create the game board
+        // Load images for tiles, walls, holes and balls
+        loadImages();
+
+        initGame();
+
+        // Started with "--connect host:port": draw a game that runs on a server
+        if (args != null && args.length >= 2 && args[0].equals("--connect")) {
+            String[] address = args[1].split(":");
+            try {
+                remote = GameClient.connect(address[0], Integer.parseInt(address[1]));
+            } catch (IOException e) {
+                System.err.println("Could not connect to " + args[1] + ": " + e);
+                exit();
+            }
+        }
+
+        // Started with "--watch": apply edits to the configuration and layouts while playing
+        if (args != null && Arrays.asList(args).contains("--watch")) {
+            try {
+                HotReloader.watch(this);
+            } catch (IOException e) {
+                System.err.println("Could not watch the game's files: " + e);
+            }
+        }
+
+        // Started with "--fixed-point": integer physics, e.g. to compare replays across machines
+        if (args != null && Arrays.asList(args).contains("--fixed-point")) {
+            fixedPoint = true;
+        }
+
+        // Started with "--vector": move balls with the SIMD kernel, if the JVM has the Vector API
+        if (args != null && Arrays.asList(args).contains("--vector")) {
+            vectorKernel = true;
+        }
+
+        // Started with "--telemetry dir": write ball and level records to compressed files in dir
+        int telemetryArg = args == null ? -1 : Arrays.asList(args).indexOf("--telemetry");
+        if (telemetryArg >= 0 && telemetryArg + 1 < args.length) {
+            Telemetry.start(this, new File(args[telemetryArg + 1]));
+        }
+
+        // Best scores of each level and of whole games, kept between runs for each configuration
+        try {
+            Leaderboard scores = Leaderboard.open(Paths.get(sketchPath("leaderboard"), leaderboardKey()));
+            leaderboard = scores;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    scores.close();  // Compacted, so the next start reads only the index
+                } catch (IOException e) {
+                    System.err.println("Could not close the leaderboard: " + e);
+                }
+            }, "inkball-leaderboard-exit"));
+        } catch (IOException e) {
+            System.err.println("Could not open the leaderboard: " + e);
+        }
+
+        // Started with "--latency": print the input latency histograms when the game exits
+        if (args != null && Arrays.asList(args).contains("--latency")) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.print(latency.report()), "inkball-latency"));
+        }
+    }
+
+    /**
+     * Creates a game that runs without a window. The game is advanced by calling tick(),
+     * and its timers follow the number of ticks instead of the wall clock.
+     * @param configPath Path to the configuration file.
+     * @return The headless game, with the first level loaded.
+     */
+    public static App createHeadless(String configPath) {
+        return createHeadless(configPath, System.nanoTime());
+    }
+
+    /**
+     * Creates a game that runs without a window, with a seeded random generator so that
+     * the same inputs always play out the same way.
+     * @param configPath Path to the configuration file.
+     * @param seed Seed for the game's random generator.
+     * @return The headless game, with the first level loaded.
+     */
+    public static App createHeadless(String configPath, long seed) {
+        App app = new App();
+        app.configPath = configPath;
+        app.headless = true;
+        app.particles.enabled = false;  // Nobody watches the effects of a headless game
+        app.random.setSeed(seed);
+        app.initGame();
+        return app;
+    }
+
+    /**
+     * Creates a game that runs without a window from assets that were loaded once and are shared,
+     * so that no file is read or decoded again. If the assets include the images, the game gets an
+     * offscreen renderer and draw() can be called as in a window.
+     * @param assets The shared configuration, layouts and images.
+     * @param seed Seed for the game's random generator.
+     * @return The headless game, with the first level loaded.
+     */
+    public static App createHeadless(GameAssets assets, long seed) {
+        App app = new App();
+        app.assets = assets;
+        app.configPath = assets.configPath;
+        app.headless = true;
+        app.particles.enabled = false;  // Nobody watches the effects of a headless game
+        app.random.setSeed(seed);
+        if (assets.hasImages()) {
+            assets.shareImagesWith(app);
+            app.g = OffscreenGraphics.create(app, WIDTH, HEIGHT);
+            app.g.beginDraw();
+        }
+        app.initGame();
+        return app;
+    }
+
+    /**
+     * Initializes the game state: the board, configuration, score rules and the first level.
+     */
+    public void initGame() {
+        lastFrameTime = gameMillis() / 1000.0f; // Initialize last frame time
+
+        board = new char[boardHeight][boardWidth];  // Create the game board
+        boardRowShared = new boolean[boardHeight];
 
         // Load configuration and score rules
         loadConfig(configPath);
         loadScoreRules();
 
         // Set spawner location to the middle of the board
-        spawnerX = BOARD_WIDTH / 2 * CELLSIZE;
-        spawnerY = TOPBAR + (BOARD_HEIGHT / 2) * CELLSIZE;
+        spawnerX = boardWidth / 2 * CELLSIZE;
+        spawnerY = TOPBAR + (boardHeight / 2) * CELLSIZE;
+
+        // Initialize the yellow tiles
+        yellowTile1X = 0;
+        yellowTile1Y = 0;
+        yellowTile2X = boardWidth - 1;
+        yellowTile2Y = boardHeight - 1;
+        totalLevels = config.getJSONArray("levels").size(); // Get the number of levels
+
+        // Save slot, and autosave if the configuration asks for it
+        saves = new SaveGame(Paths.get(sketchPath("save.bin")));
+        autosaveInterval = config.getInt("autosave_seconds", 0) * 1000;
+
+        // Load the first level layout from config
+        loadLevel(0);
+    }
 
+    /**
+     * Loads the images used to draw the board and the balls.
+     * Kept separate from setup() so that boards can be rendered without opening a window.
+     */
+    public void loadImages() {
         // Load images for walls, entry points, and background tile
         wallImage = loadImage("src/main/resources/inkball/wall0.png");
         entrypointImage = loadImage("src/main/resources/inkball/entrypoint.png");
@@ -715,19 +1295,12 @@ public class App extends PApplet {
             ballImages[i] = loadImage("src/main/resources/inkball/ball" + i + ".png");
         }
 
-        // Initialize the yellow tiles
-        yellowTile1X = 0;
-        yellowTile1Y = 0;
-        yellowTile2X = BOARD_WIDTH - 1;
-        yellowTile2Y = BOARD_HEIGHT - 1;
-        totalLevels = config.getJSONArray("levels").size(); // Get the number of levels
-
         // Load images for acceleration zones
         upAccelerationImage = loadImage("src/main/resources/inkball/up_acceleration.png");
         downAccelerationImage = loadImage("src/main/resources/inkball/down_acceleration.png");
 
-        // Load the first level layout from config
-        loadLevel(0);    
+        // Resample the sprites once, rather than on every draw
+        sprites = SpriteCache.build(this);
     }
 
     /**
@@ -736,19 +1309,32 @@ public class App extends PApplet {
      */
     public void loadLevel(int levelIndex) {
         if (levelIndex >= totalLevels) return; // Ensure we don't exceed the number of levels
-        
+        FlightEvents.LevelLoadEvent traced = FlightEvents.beginLevelLoad();  // Null unless a recording asks for level loads
         levelEnded = false; // Reset level end flag
         gameEnded = false;  // Reset game end flag
+        timeUp = false;     // Reset the time's up flag
+        levelStartScore = score;
 
         JSONObject level = config.getJSONArray("levels").getJSONObject(levelIndex);  // Get level config
         drawnLines.clear();  // Clear all drawn lines when starting a new level
+        particles.clear();
         timeLeft = level.getInt("time");  // Set level time
         spawnInterval = level.getInt("spawn_interval");  // Set spawn interval
         spawnIntervalLeft = spawnInterval;  // Initialize countdown for ball spawning
         scoreIncreaseModifier = (float) level.getDouble("score_increase_from_hole_capture_modifier");  // Set score modifiers
         scoreDecreaseModifier = (float) level.getDouble("score_decrease_from_wrong_hole_modifier");
 
-        loadLayout(level.getString("layout"));  // Load the level layout
+        long layoutStart = traced != null ? System.nanoTime() : 0;
+        LevelLayout preloaded = takePreloadedLayout(levelIndex);
+        if (preloaded != null) {
+            applyLayout(preloaded);  // Compiled in the background while the last level played out
+        } else {
+            loadLayout(level.getString("layout"), getLevelWidth(levelIndex), getLevelHeight(levelIndex));  // Load the level layout
+        }
+        if (traced != null) {
+            traced.layoutLoad = System.nanoTime() - layoutStart;
+            traced.preloaded = preloaded != null;
+        }
         ballsToSpawn.clear();  // Clear the ball spawn queue
 
         // Add the specified balls to spawn for the level
@@ -758,15 +1344,42 @@ public class App extends PApplet {
         }
 
         spawnBall();  // Spawn the first ball immediately
+        if (traced != null) {
+            traced.level = levelIndex;
+            traced.layout = level.getString("layout");
+            traced.commit();
+        }
     }
 
 
 
+    /**
+     * Gets the width of a level's board, which is the default unless the level sets "width".
+     * @param levelIndex The index of the level in the configuration.
+     * @return The width of the board in cells.
+     */
+    public int getLevelWidth(int levelIndex) {
+        return config.getJSONArray("levels").getJSONObject(levelIndex).getInt("width", BOARD_WIDTH);
+    }
+
+    /**
+     * Gets the height of a level's board, which is the default unless the level sets "height".
+     * @param levelIndex The index of the level in the configuration.
+     * @return The height of the board in cells.
+     */
+    public int getLevelHeight(int levelIndex) {
+        return config.getJSONArray("levels").getJSONObject(levelIndex).getInt("height", BOARD_HEIGHT);
+    }
+
     /**
      * Loads the game configuration from a JSON file.
      * @param path The file path to the configuration file.
      */
     public void loadConfig(String path) {
+        if (assets != null && path.equals(assets.configPath)) {
+            config = assets.config;  // Already loaded and shared
+            return;
+        }
         // Load the config.json file
         config = loadJSONObject(path);
     }
@@ -797,78 +1410,208 @@ public class App extends PApplet {
      * @param layoutFile The file path of the layout file.
      */
     public void loadLayout(String layoutFile) {
-        String[] lines = loadStrings(layoutFile);
-        for (int y = 0; y < lines.length && y < BOARD_HEIGHT; y++) {
-            String line = lines[y];
-
-            for (int x = 0; x < line.length() && x < BOARD_WIDTH; x++) {
-                board[y][x] = line.charAt(x); // Assign characters to the board
-
-                switch (line.charAt(x)) {
-                    case 'B': // Balls with color index
-                        // Ensure there's a color index after 'B' (look ahead)
-                        if (x + 1 < line.length()) {
-                            char nextChar = line.charAt(x + 1);
-                            if (Character.isDigit(nextChar)) {
-                                int ballColorIndex = Character.getNumericValue(nextChar);
-                                if (ballColorIndex >= 0 && ballColorIndex < ballImages.length) {
-                                    // Add the ball to the game board at its position
-                                    balls.add(new Ball(this, x * CELLSIZE, TOPBAR + y * CELLSIZE, ballColorIndex)); // Add ball to the game
-                                }
-
-                                x++; // Skip the color number after B (so that it's not processed again)
-                            }
-                        }
-                        break;
-
-                    case 'S': // Entry points
-                        entrypoints.add(new PVector(x * CELLSIZE, TOPBAR + y * CELLSIZE)); // Add entry points to the game
-                        break;
-
-                    case 'H': // Holes
-                        if (x + 1 < line.length() && y + 1 < lines.length) { 
-                            char nextChar = line.charAt(x + 1); // Look at the character after 'H'
-                            if (nextChar >= '0' && nextChar <= '4') { 
-                                int holeType = nextChar - '0'; // Get the hole index
-
-                                // Save hole position and type
-                                holeTypesMap.put(new PVector(x, y), holeType);
-
-                                // Mark the 2x2 area for the hole
-                                board[y][x] = 'H';         // Top-left
-                                board[y][x + 1] = 'H';     // Top-right
-                                board[y + 1][x] = 'H';     // Bottom-left
-                                board[y + 1][x + 1] = 'H'; // Bottom-right
+        loadLayout(layoutFile, BOARD_WIDTH, BOARD_HEIGHT);
+    }
 
-                                x++; // Skip the next character (part of the hole)
-                            }
-                        
-                        }
-                        break;
+    /**
+     * Loads the game board layout from a specified file, for a board of the given size.
+     * @param layoutFile The file path of the layout file.
+     * @param width The width of the board in cells.
+     * @param height The height of the board in cells.
+     */
+    public void loadLayout(String layoutFile, int width, int height) {
+        applyLayout(compileLayout(layoutFile, width, height));
+    }
 
-                    case 'A': // Acceleration detection
-                        if (x + 1 < line.length()) {
-                            char nextChar = line.charAt(x + 1);
-                            if (nextChar == 'U') {
-                                board[y][x] = 'A'; // Up acceleration
-                                board[y][x + 1] = 'U';
-                                x++; // Skip the next character
-                            } else if (nextChar == 'D') {
-                                board[y][x] = 'A'; // Down acceleration
-                                board[y][x + 1] = 'D';
-                                x++; // Skip the next character
-                            }
-                        }
-                        break;
-                    }
+    /**
+     * Reads and compiles a layout file, or gets it from the shared assets. Safe to call from
+     * any thread, as it does not touch the game's state.
+     * @param layoutFile The file path of the layout file.
+     * @param width The width of the board in cells.
+     * @param height The height of the board in cells.
+     * @return The compiled layout.
+     */
+    LevelLayout compileLayout(String layoutFile, int width, int height) {
+        if (assets != null) {
+            return assets.layout(layoutFile, width, height);  // Compiled once and shared
+        }
+        return LevelLayout.compile(loadStrings(layoutFile), width, height);
+    }
+
+    /**
+     * Starts compiling a level's layout on a background thread, so that loading the level
+     * later only has to apply it. Called when a level ends, while the time bonus and the
+     * yellow tiles play out.
+     * @param levelIndex The index of the level to prepare.
+     */
+    public void preloadLevel(int levelIndex) {
+        if (levelIndex >= totalLevels) return;
+        discardPreloadedLevel();
+        String layoutFile = config.getJSONArray("levels").getJSONObject(levelIndex).getString("layout");
+        int width = getLevelWidth(levelIndex);
+        int height = getLevelHeight(levelIndex);
+        synchronized (App.class) {
+            if (preloader == null) {
+                preloader = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+                    Thread thread = new Thread(runnable, "inkball-preload");
+                    thread.setDaemon(true);
+                    return thread;
+                });
             }
         }
+        preloadedLevel = levelIndex;
+        preloadedConfig = config;
+        preloadedLayout = preloader.submit(() -> compileLayout(layoutFile, width, height));
     }
 
     /**
-     * Converts a string color name to its corresponding index.
-     * @param color The color name as a string.
-     * @return The index representing the color, or 0 (grey) if unknown.
+     * Compiles the preloaded level again, e.g. after its layout file was edited.
+     */
+    void refreshPreloadedLevel() {
+        if (preloadedLayout != null) {
+            preloadLevel(preloadedLevel);
+        }
+    }
+
+    /**
+     * Forgets the preloaded level, if any.
+     */
+    void discardPreloadedLevel() {
+        if (preloadedLayout != null) {
+            preloadedLayout.cancel(false);
+        }
+        preloadedLayout = null;
+        preloadedLevel = -1;
+        preloadedConfig = null;
+    }
+
+    /**
+     * Checks if the preloaded level has finished compiling, or failed to.
+     * @return True if a preload was started and is done.
+     */
+    boolean isPreloadDone() {
+        return preloadedLayout != null && preloadedLayout.isDone();
+    }
+
+    /**
+     * Takes the layout preloaded for a level, if it has been compiled. The game thread never
+     * waits for a preload, which may be queued behind those of other games in the process.
+     * @param levelIndex The index of the level being loaded.
+     * @return The layout, or null if this level was not preloaded from the current configuration,
+     *         is still being compiled or could not be; it is then loaded on the game thread as usual.
+     */
+    private LevelLayout takePreloadedLayout(int levelIndex) {
+        Future<LevelLayout> future = preloadedLayout;
+        boolean matches = future != null && preloadedLevel == levelIndex && preloadedConfig == config
+                && future.isDone();
+        if (!matches) {
+            discardPreloadedLevel();
+            return null;
+        }
+        preloadedLayout = null;
+        preloadedLevel = -1;
+        preloadedConfig = null;
+        try {
+            LevelLayout layout = future.get();
+            preloadsUsed++;
+            return layout;
+        } catch (ExecutionException e) {
+            return null;  // Loading it again on the game thread reports the error as before
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Applies a compiled layout to the game: copies its cells onto the board and adds
+     * its holes, entry points and balls. The board takes the size of the layout.
+     * @param layout The compiled layout to apply.
+     */
+    public void applyLayout(LevelLayout layout) {
+        if (layout.getWidth() != boardWidth || layout.getHeight() != boardHeight) {
+            resizeBoard(layout.getWidth(), layout.getHeight());
+        }
+        for (int y = 0; y < boardHeight; y++) {
+            char[] row = board[y].clone();  // Fresh row, so rows shared with a snapshot are left alone
+            System.arraycopy(layout.cells[y], 0, row, 0, boardWidth);
+            board[y] = row;
+            boardRowShared[y] = false;
+        }
+        boardVersion++;
+        forces = layout.forces;
+        unshareLayout();
+        holeTypesMap.putAll(layout.holeTypes);  // Save hole positions and types
+        holeCentersSource = null;  // Rebuild the flat copy of the holes
+        for (PVector entrypoint : layout.entrypoints) {
+            entrypoints.add(entrypoint.copy());  // Add entry points to the game
+        }
+        for (int[] ball : layout.balls) {
+            // Add the ball to the game board at its position
+            balls.add(new Ball(this, ball[0] * CELLSIZE, TOPBAR + ball[1] * CELLSIZE, ball[2]));
+        }
+    }
+
+    /**
+     * Replaces the board of the running level with a recompiled layout. Only the rows that
+     * changed are replaced; the holes and entry points are taken from the new layout, and the
+     * balls, strokes, score and timers are kept.
+     * @param layout The recompiled layout of the current level.
+     * @return The number of rows that changed.
+     */
+    public int reloadLayout(LevelLayout layout) {
+        if (layout.getWidth() != boardWidth || layout.getHeight() != boardHeight) {
+            resizeBoard(layout.getWidth(), layout.getHeight());
+        }
+        int changed = 0;
+        for (int y = 0; y < boardHeight; y++) {
+            if (!Arrays.equals(board[y], layout.cells[y])) {
+                board[y] = layout.cells[y].clone();
+                boardRowShared[y] = false;
+                changed++;
+            }
+        }
+        if (changed > 0) {
+            boardVersion++;
+        }
+        forces = layout.forces;
+        unshareLayout();
+        holeTypesMap.clear();
+        holeTypesMap.putAll(layout.holeTypes);
+        holeCentersSource = null;  // Rebuild the flat copy of the holes
+        entrypoints.clear();
+        for (PVector entrypoint : layout.entrypoints) {
+            entrypoints.add(entrypoint.copy());
+        }
+        return changed;
+    }
+
+    /**
+     * Replaces the board with an empty one of another size, and puts the yellow tiles back
+     * in the corners of the new board.
+     * @param width The width of the board in cells.
+     * @param height The height of the board in cells.
+     */
+    void resizeBoard(int width, int height) {
+        boardWidth = width;
+        boardHeight = height;
+        board = new char[height][width];
+        for (char[] row : board) {
+            Arrays.fill(row, ' ');
+        }
+        boardRowShared = new boolean[height];
+        forces = new ForceField(width, height);
+        boardVersion++;
+        yellowTile1X = 0;
+        yellowTile1Y = 0;
+        yellowTile2X = width - 1;
+        yellowTile2Y = height - 1;
+    }
+
+    /**
+     * Converts a string color name to its corresponding index.
+     * @param color The color name as a string.
+     * @return The index representing the color, or 0 (grey) if unknown.
      */
     public int getColorIndex(String color) {
         switch (color.toLowerCase()) {
@@ -891,45 +1634,59 @@ public class App extends PApplet {
      * Draws the game board, including tiles, walls, entry points, holes, and accelerators.
      */
     public void drawBoard() {
+        drawBoard(g, board, holeTypesMap);
+    }
+
+    /**
+     * Draws a board onto the given graphics, including tiles, walls, entry points, holes, and accelerators.
+     * Only reads the loaded images, so it can draw layouts into offscreen buffers from any thread.
+     * @param pg The graphics to draw onto.
+     * @param board The board cells to draw, indexed [y][x].
+     * @param holeTypes The hole positions (top-left cell) and their types.
+     */
+    public void drawBoard(PGraphics pg, char[][] board, Map<PVector, Integer> holeTypes) {
+        int boardHeight = board.length;
+        int boardWidth = boardHeight == 0 ? 0 : board[0].length;
+
         // Draw the background tiles
-        for (int y = 0; y < BOARD_HEIGHT; y++) {
-            for (int x = 0; x < BOARD_WIDTH; x++) {
-                image(tileImage, x * CELLSIZE, TOPBAR + y * CELLSIZE); 
+        for (int y = 0; y < boardHeight; y++) {
+            for (int x = 0; x < boardWidth; x++) {
+                pg.image(tileImage, x * CELLSIZE, TOPBAR + y * CELLSIZE); 
             }
         }
 
         // Draw board elements (walls, holes, entry points, accelerators)
-        for (int y = 0; y < BOARD_HEIGHT; y++) {
-            for (int x = 0; x < BOARD_WIDTH; x++) {
+        for (int y = 0; y < boardHeight; y++) {
+            for (int x = 0; x < boardWidth; x++) {
                 char cell = board[y][x];
 
                 switch (cell) {
                     case 'X': // Grey walls
-                        image(wallImages[0], x * CELLSIZE, TOPBAR + y * CELLSIZE);
+                        pg.image(wallImages[0], x * CELLSIZE, TOPBAR + y * CELLSIZE);
                         break;
                     case '1': // Orange walls
-                        image(wallImages[1], x * CELLSIZE, TOPBAR + y * CELLSIZE);
+                        pg.image(wallImages[1], x * CELLSIZE, TOPBAR + y * CELLSIZE);
                         break;
                     case '2': // Blue walls
-                        image(wallImages[2], x * CELLSIZE, TOPBAR + y * CELLSIZE);
+                        pg.image(wallImages[2], x * CELLSIZE, TOPBAR + y * CELLSIZE);
                         break;
                     case '3': // Green walls
-                        image(wallImages[3], x * CELLSIZE, TOPBAR + y * CELLSIZE);
+                        pg.image(wallImages[3], x * CELLSIZE, TOPBAR + y * CELLSIZE);
                         break;
                     case '4': // Yellow walls
-                        image(wallImages[4], x * CELLSIZE, TOPBAR + y * CELLSIZE);
+                        pg.image(wallImages[4], x * CELLSIZE, TOPBAR + y * CELLSIZE);
                         break;
 
                     case 'S': // Entry points
-                        image(entrypointImage, x * CELLSIZE, TOPBAR + y * CELLSIZE);
+                        pg.image(entrypointImage, x * CELLSIZE, TOPBAR + y * CELLSIZE);
                         break;
                     
                     case 'H':  // Holes
                         PVector pos = new PVector(x, y);
-                        if (holeTypesMap.containsKey(pos)) {
-                            int holeType = holeTypesMap.get(pos); // Fetch the hole type
+                        if (holeTypes.containsKey(pos)) {
+                            int holeType = holeTypes.get(pos); // Fetch the hole type
                             if (holeType >= 0 && holeType < holeImages.length) {
-                                image(holeImages[holeType], x * CELLSIZE, TOPBAR + y * CELLSIZE, CELLSIZE * 2, CELLSIZE * 2); // Draw the hole (2x2 size)
+                                pg.image(sprites.holes[holeType], x * CELLSIZE, TOPBAR + y * CELLSIZE); // Draw the hole (2x2 size)
                             }
 
                             x++;  // Skip the next cell, as the hole covers two columns
@@ -937,22 +1694,58 @@ public class App extends PApplet {
                         break;
                     
                     case 'A': // Acceleration tiles
-                        if (board[y][x + 1] == 'U') {
-                            image(upAccelerationImage, x * CELLSIZE, TOPBAR + y * CELLSIZE, CELLSIZE, CELLSIZE);
-                        } else if (board[y][x + 1] == 'D') {
-                            image(downAccelerationImage, x * CELLSIZE, TOPBAR + y * CELLSIZE, CELLSIZE, CELLSIZE);
+                        if (x + 1 < boardWidth && ForceField.isTile(cell, board[y][x + 1])) {
+                            pg.image(sprites.accelerator(board[y][x + 1]), x * CELLSIZE, TOPBAR + y * CELLSIZE);
+                        }
+
+                        x++; // Skip the next character, the direction
+                        break;
+
+                    case 'F': // Attractors, repulsors and rough patches
+                        if (x + 1 < boardWidth && ForceField.isTile(cell, board[y][x + 1])) {
+                            drawForceTile(pg, x, y, board[y][x + 1]);
                         }
 
-                        x++; // Skip the next character 'U' or 'D'
+                        x++; // Skip the next character, the kind of force
                         break;
                 }
             }
         }
     }
 
+    /**
+     * Draws an attractor ('I'), repulsor ('O') or rough patch ('R') in a board cell.
+     * @param pg The graphics to draw onto.
+     * @param x The x index of the cell.
+     * @param y The y index of the cell.
+     * @param kind The kind of force tile.
+     */
+    void drawForceTile(PGraphics pg, int x, int y, char kind) {
+        float cx = x * CELLSIZE + CELLSIZE / 2f;
+        float cy = TOPBAR + y * CELLSIZE + CELLSIZE / 2f;
+        pg.pushStyle();
+        pg.noFill();
+        pg.strokeWeight(2);
+        if (kind == 'R') {
+            pg.stroke(130, 100, 70);  // Brown hatching across the cell
+            float left = x * CELLSIZE + 4;
+            float top = TOPBAR + y * CELLSIZE + 4;
+            float size = CELLSIZE - 8;
+            for (float i = 3; i < size * 2; i += 7) {
+                pg.line(left + min(i, size), top + max(0, i - size), left + max(0, i - size), top + min(i, size));
+            }
+        } else {
+            pg.stroke(kind == 'I' ? pg.color(60, 80, 200) : pg.color(200, 70, 60));  // Blue pulls in, red pushes out
+            for (int r = 8; r < CELLSIZE; r += 9) {
+                pg.ellipse(cx, cy, r, r);
+            }
+        }
+        pg.popStyle();
+    }
+
     /**
      * Updates the list of balls by removing those that have been captured.
-     * Also updates and draws the remaining balls.
+     * Also updates the remaining balls.
      */
     public void updateBalls() {
         // Remove balls that have been captured
@@ -962,14 +1755,41 @@ public class App extends PApplet {
             }
             return false;
         });
+        expireTimers();
 
-        // Update and draw the remaining balls
-        for (Ball ball : balls) {
-            ball.update();  // Update the ball's state
-            ball.draw();    // Draw the ball
+        // Move all the balls at once in packed arrays; fixed-point physics has no kernel
+        if (vectorKernel && !fixedPoint) {
+            if (kernel == null) {
+                kernel = BallKernel.create();
+            }
+            kernel.update(this);
+            return;
+        }
+
+        // Update the remaining balls (indexed, so that no iterator is allocated every frame)
+        for (int i = 0; i < balls.size(); i++) {
+            balls.get(i).update();  // Update the ball's state
         }
     }
 
+    /**
+     * Fires the timers that are due before the balls move, which ends the speed boosts that
+     * have run out. After a restore, the timers of the balls' boosts are set again first.
+     */
+    void expireTimers() {
+        if (timersStale) {
+            timers.clear();
+            for (int i = 0; i < balls.size(); i++) {
+                Ball ball = balls.get(i);
+                if (ball.accelerationFactor != 1.0f) {
+                    ball.scheduleBoostEnd();
+                }
+            }
+            timersStale = false;
+        }
+        timers.advance(gameMillis());
+    }
+
     /**
      * Spawns a new ball at a random entry point, using the next color in the spawn queue.
      */
@@ -989,6 +1809,10 @@ public class App extends PApplet {
             // Create and add the new ball to the game
             Ball newBall = new Ball(this, ballX, ballY, colorIndex);
             balls.add(newBall);
+            events.publish(GameEvents.SPAWN, newBall, null, colorIndex, 0, ballX, ballY);
+            if (FlightEvents.spawns) {
+                FlightEvents.spawn(colorIndex, ballX, ballY, ballsToSpawn.size());
+            }
         }
     }
 
@@ -999,7 +1823,7 @@ public class App extends PApplet {
      */
     public void drawNextBalls() {
         // Define the background size and position for the netball
-        int ballSize = 32; // Size of each ball to be displayed
+        int ballSize = SpriteCache.QUEUE_BALL_SIZE; // Size of each ball to be displayed
         int backgroundWidth = ballSize * 5 + 30;
         int backgroundHeight = ballSize + 20;
         int offsetX = 10;  // X position for the background
@@ -1016,7 +1840,7 @@ public class App extends PApplet {
         for (int i = 0; i < displayCount && queueIterator.hasNext(); i++) {
             String color = queueIterator.next();
             int colorIndex = getColorIndex(color);
-            image(ballImages[colorIndex], offsetX + i * (ballSize + 5), offsetY, ballSize, ballSize); // Display ball
+            image(sprites.queueBalls[colorIndex], offsetX + i * (ballSize + 5), offsetY); // Display ball
         }
     }
 
@@ -1026,43 +1850,44 @@ public class App extends PApplet {
      */
     public void handleTimeAndSpawning() {
         // Decrease the time left for the current level every second
-        if (frameCount % FPS == 0 && timeLeft > 0) {
+        if (gameFrame() % FPS == 0 && timeLeft > 0) {
             timeLeft--;  // Decrease time
         }
 
         // Check if time has run out
         if (timeLeft <= 0) {
             timeLeft = 0;
+            timeUp = true;
             noLoop();  // Stop the game loop
-            fill(0);  // Set text color to black
-            textSize(20);  // Set text size
-            textAlign(LEFT, TOP);  // Align text to top left
-            text("=== TIME'S UP ===", 250, 15);  // Display the message "TIME'S UP"
         } 
     }  
 
-
     /**
-     * Draws the countdown timer until the next ball is spawned.
+     * Updates the countdown until the next ball is spawned, and spawns it when the countdown reaches 0.
      */
-    public void drawSpawnIntervalCountdown() {
-        fill(0);  // Set text color to black
-        textSize(24);  // Set text size
-        textAlign(LEFT, TOP);  // Align text to top left
-        text(nf(spawnIntervalLeft, 1, 1), 200, 10);  // Display time left with 1 decimal point
-    
+    public void updateSpawnIntervalCountdown() {
         // Update the spawn interval countdown
-        float timePassedSinceLastSpawn = (millis() - lastSpawnTime) / 1000.0f;  // Time passed in seconds
+        float timePassedSinceLastSpawn = (gameMillis() - lastSpawnTime) / 1000.0f;  // Time passed in seconds
         spawnIntervalLeft = spawnInterval - timePassedSinceLastSpawn;  // Update the spawn countdown
 
         // Spawn a new ball if the countdown reaches 0
         if (spawnIntervalLeft <= 0) {
             spawnBall();  // Spawn a new ball
-            lastSpawnTime = millis();  // Reset the spawn timer
+            lastSpawnTime = gameMillis();  // Reset the spawn timer
             spawnIntervalLeft = spawnInterval;  // Reset the spawn interval countdown
         }
     }
 
+    /**
+     * Draws the countdown timer until the next ball is spawned.
+     */
+    public void drawSpawnIntervalCountdown() {
+        fill(0);  // Set text color to black
+        textSize(24);  // Set text size
+        textAlign(LEFT, TOP);  // Align text to top left
+        text(nf(spawnIntervalLeft, 1, 1), 200, 10);  // Display time left with 1 decimal point
+    }
+
     /**
      * Displays the current score and the remaining time.
      */
@@ -1076,56 +1901,178 @@ public class App extends PApplet {
 
 
     /**
-     * Main game draw loop. Handles rendering of the game board, balls, 
-     * time, score, and collisions. Also manages the end of levels and the game.
+     * Main game draw loop. Advances the game by one tick and then draws what changed.
+     * When playing on a server, the newest state from the server is drawn instead.
+     * While the game is idle, the loop stops until input arrives.
      */
     @Override
     public void draw() {
-        background(200);  // Clear the background
-        drawBoard();      // Draw the game board
+        FlightEvents.FrameEvent frame = FlightEvents.beginFrame();  // Null unless a recording asks for frames
+        if (remote != null) {
+            try {
+                remote.poll();
+            } catch (IOException e) {
+                System.err.println("Lost connection to the server: " + e);
+                remote = null;
+                noLoop();
+                return;
+            }
+            remote.applyTo(this);
+        } else {
+            tick();
+            autosave();
+        }
+        if (frame != null) {
+            frame.simulated();
+        }
+        long wholeFrames = framesDrawn;
+        renderChanges();
+        if (frame != null) {
+            frame.rendered(this, framesDrawn != wholeFrames);
+        }
+
+        // Stop drawing frames until there is input; requestFrame() starts again
+        if (isIdle() && !headless) {
+            noLoop();
+        }
+    }
+
+    /**
+     * Saves the game in the background when the autosave interval has passed.
+     * Only the snapshot is taken during the frame; the file is written on another thread.
+     */
+    public void autosave() {
+        if (autosaveInterval > 0 && gameMillis() - lastAutosaveTime >= autosaveInterval) {
+            saves.saveInBackground(this);
+            lastAutosaveTime = gameMillis();
+        }
+    }
+
+    /**
+     * Advances the game by one frame without drawing anything: moves the balls, handles time,
+     * spawning and collisions, and manages the end of levels and the game.
+     * Once the time has run out the game stays frozen, as the window's loop does.
+     */
+    public void tick() {
+        if (reloader != null) {
+            reloader.applyPending();  // Edited files are applied between ticks
+        }
+        if (timeUp) {
+            return;  // The game loop has stopped
+        }
+        tickCount++;
+        FlightEvents.TickEvent traced = FlightEvents.beginTick();  // Null unless a recording asks for ticks
+
+        // Events of the simulation step are handled together at its end
+        events.hold();
 
         // If the game is not paused, update balls and handle spawning
         if (!isPaused) {
             updateBalls();  // Update ball positions
+            if (traced != null) {
+                traced.ballUpdate = traced.lap();
+            }
             handleTimeAndSpawning();  // Handle spawning and time
         }
 
+        // Update the spawn interval countdown if there are balls left to spawn
+        if (!ballsToSpawn.isEmpty() && !isPaused) {
+            updateSpawnIntervalCountdown();
+        }
+        if (traced != null) {
+            traced.spawning = traced.lap();
+        }
+
+        // Check for ball collisions with lines if the game is not paused
+        if (!isPaused) {
+            checkBallLineCollisions();
+        }
+        if (traced != null) {
+            traced.collisions = traced.lap();
+        }
+        events.dispatch();
+        if (traced != null) {
+            traced.dispatch = traced.lap();
+        }
+
+        // Move the effects on, unless the game is paused
+        if (!isPaused) {
+            particles.update();
+        }
+        if (traced != null) {
+            traced.effects = traced.lap();
+        }
+
+        // Handle the end of the level or game; a finished game is not ended again, so that its
+        // last level and the game are recorded once however long the end screen stays up
+        if (levelEnded && postLevelInProgress) {
+            handlePostLevelLogic();  // Handle post-level activities
+        } else if (ballsToSpawn.isEmpty() && balls.isEmpty() && !postLevelInProgress && !gameEnded) {
+            endLevel();  // End the level when there are no more balls
+        }
+        if (traced != null) {
+            traced.end(this);
+        }
+    }
+
+    /**
+     * Renders the game board, balls, lines, time and score, and the pause and end messages.
+     */
+    public void render() {
+        background(200);  // Clear the background
+        drawBoard();      // Draw the game board
+
         // Always draw the balls, even if the game is paused
         for (Ball ball : balls) {
-            ball.draw();  // Draw each ball
+            ball.draw(g);  // Draw each ball
         }
 
-        // Display the score and time
-        displayScoreAndTime();
-        drawNextBalls();  // Draw the upcoming balls in the queue
-        
-        // Display the spawn interval countdown if there are balls left to spawn
-        if (!ballsToSpawn.isEmpty()) {
-            drawSpawnIntervalCountdown();
+        drawLines();
+        particles.draw(g);
+
+        // Display the predicted paths of the balls if the overlay is on
+        if (showTrajectories) {
+            if (trajectoryPredictor == null) {
+                trajectoryPredictor = new TrajectoryPredictor(this, 3 * FPS);
+            }
+            trajectoryPredictor.update();
+            trajectoryPredictor.draw(g);
+        }
+
+        // Draw the yellow tiles if the level has ended
+        if (levelEnded) {
+            drawYellowTiles();
         }
 
-        // Draw the lines
-        stroke(0);  // Set stroke color to black
-        strokeWeight(LINE_THICKNESS);  // Set line thickness
+        renderHud();
+    }
+
+    /**
+     * Draws the finished strokes and the stroke being drawn.
+     */
+    public void drawLines() {
         for (Line line : drawnLines) {
-            List<PVector> points = line.getPoints();
-            for (int i = 1; i < points.size(); i++) {
-                PVector p1 = points.get(i - 1);
-                PVector p2 = points.get(i);
-                line(p1.x, p1.y, p2.x, p2.y);  // Draw each segment of the line
-            }
+            line.draw(g);  // Draw each segment of the line
         }
 
         // If a new line is being drawn, display it
         if (currentLine != null) {
-            stroke(0);
-            strokeWeight(LINE_THICKNESS);
-            List<PVector> points = currentLine.getPoints();
-            for (int i = 1; i < points.size(); i++) {
-                PVector p1 = points.get(i - 1);
-                PVector p2 = points.get(i);
-                line(p1.x, p1.y, p2.x, p2.y);
-            }
+            currentLine.draw(g);
+        }
+    }
+
+    /**
+     * Draws the top bar: the ball queue, the spawn countdown, the score and time, and the
+     * pause and end messages.
+     */
+    public void renderHud() {
+        // Display the score and time
+        displayScoreAndTime();
+        drawNextBalls();  // Draw the upcoming balls in the queue
+
+        // Display the spawn interval countdown if there are balls left to spawn
+        if (!ballsToSpawn.isEmpty()) {
+            drawSpawnIntervalCountdown();
         }
 
         // Display a "PAUSED" message if the game is paused
@@ -1136,59 +2083,254 @@ public class App extends PApplet {
             text("*** PAUSED ***", 250, 15);  // Display the paused message
         }
 
-
-        // Check for ball collisions with lines if the game is not paused
-        if (!isPaused) {
-            checkBallLineCollisions();
-        }
-
-        // Handle the end of the level or game
-        if (levelEnded && postLevelInProgress) {
-            handlePostLevelLogic();  // Handle post-level activities
-        } else if (ballsToSpawn.isEmpty() && balls.isEmpty() && !postLevelInProgress) {
-            endLevel();  // End the level when there are no more balls
+        // Display the message "TIME'S UP" once the time has run out
+        if (timeUp) {
+            fill(0);  // Set text color to black
+            textSize(20);  // Set text size
+            textAlign(LEFT, TOP);  // Align text to top left
+            text("=== TIME'S UP ===", 250, 15);
         }
 
         // Display the end game message if the game has ended
         if (gameEnded) {
             displayEndGameMessage();  // Show the "ENDED" message
         }
+    }
 
-        // Draw the yellow tiles if the level has ended
-        if (levelEnded) {
-            drawYellowTiles();
+    /**
+     * Redraws only the top bar, over the last frame. Strokes reaching into the bar are drawn
+     * again within it.
+     */
+    void renderHudOnly() {
+        clip(0, 0, WIDTH, TOPBAR);
+        pushStyle();
+        noStroke();
+        fill(200);
+        rect(0, 0, WIDTH, TOPBAR);
+        popStyle();
+        drawLines();
+        renderHud();
+        noClip();
+    }
+
+    /**
+     * Draws what has changed since the last frame: the whole frame, only the top bar, or
+     * nothing at all.
+     */
+    public void renderChanges() {
+        boolean ballsMoving = !balls.isEmpty() && !isPaused && !timeUp;
+        boolean effectsMoving = particles.isActive() && !isPaused && !timeUp;
+        if (frameDirty || ballsMoving || effectsMoving || boardVersion != renderedBoardVersion || showTrajectories
+                || currentLine != null || remote != null) {
+            render();
+            framesDrawn++;
+            latency.frameDrawn();  // The first frame that can show the input handled since the last one
+        } else if (hudChanged()) {
+            renderHudOnly();
+            hudFramesDrawn++;
+        } else {
+            return;  // Nothing has changed
+        }
+        frameDirty = false;
+        renderedBoardVersion = boardVersion;
+        hudChanged();  // Remember what the top bar shows now
+    }
+
+    /**
+     * Checks if anything shown in the top bar differs from the last time this was called.
+     * @return True if the top bar needs to be drawn again.
+     */
+    boolean hudChanged() {
+        int countdown = (int) (spawnIntervalLeft * 10);  // Shown with one decimal
+        int flags = (isPaused ? 1 : 0) | (timeUp ? 2 : 0) | (gameEnded ? 4 : 0);
+        boolean changed = score != renderedScore || timeLeft != renderedTimeLeft || countdown != renderedCountdown
+                || ballsToSpawn.size() != renderedQueueSize || flags != renderedHudFlags;
+        renderedScore = score;
+        renderedTimeLeft = timeLeft;
+        renderedCountdown = countdown;
+        renderedQueueSize = ballsToSpawn.size();
+        renderedHudFlags = flags;
+        return changed;
+    }
+
+    /**
+     * Checks if the game stands still until the player does something: it is paused, the
+     * time is up or the game has ended. Games played on a server never stand still.
+     * @return True if no frame needs to be drawn without input.
+     */
+    public boolean isIdle() {
+        return remote == null && (isPaused || timeUp || gameEnded);
+    }
+
+    /**
+     * Makes sure the whole frame is drawn again after input, waking the draw loop if the
+     * game is idle.
+     */
+    public void requestFrame() {
+        frameDirty = true;
+        if (!headless && !isLooping()) {
+            if (isIdle()) {
+                redraw();  // Draw one frame, then stay idle
+            } else {
+                loop();
+            }
         }
     }
 
     /**
      * Handles the collision checks between the balls and the drawn lines.
-     * If a collision is detected, it reflects the ball and removes the line.
+     * If a collision is detected, it reflects the ball and publishes the hit; the line is
+     * removed when the hit is handled, and is not hit again in the meantime.
      */
     public void checkBallLineCollisions() {
-        for (Ball ball : balls) {
+        if (latency.hasStrokesWaiting()) {
+            latency.strokesChecked(drawnLines);  // Strokes the player just finished take part from now on
+        }
+        if (drawnLines.size() > cullStride) {
+            // More strokes than the rows hold: start again with wider rows
+            cullStride = Math.max(8, drawnLines.size() * 2);
+            cullLines = new Line[cullRows * cullStride];
+            cullUntil = new int[cullRows * cullStride];
+            collisionEpoch++;
+        }
+        for (int b = 0; b < balls.size(); b++) {
+            Ball ball = balls.get(b);
+            int row = cullRow(ball);
+
             // Loop through all the drawn lines
             for (int i = drawnLines.size() - 1; i >= 0; i--) {
                 Line line = drawnLines.get(i);
-                List<PVector> points = line.getPoints();
-
-                // Check for collision between the ball and each line segment
-                for (int j = 1; j < points.size(); j++) {
-                    PVector p1 = points.get(j - 1);
-                    PVector p2 = points.get(j);
+                if (cullLines[row + i] == line && tickCount < cullUntil[row + i]) {
+                    strokePairsSkipped++;
+                    continue;  // Out of reach until then
+                }
+                strokePairsTested++;
+                if (!events.isStrokeHitPending(line) && ball.collideWithStroke(line)) {
+                    ball.bounces++;
+                    events.publish(GameEvents.STROKE_HIT, ball, line, ball.colorIndex, 0, ball.position.x, ball.position.y);
+                    if (FlightEvents.strokeHits) {
+                        FlightEvents.strokeHit(ball, line);
+                    }
+                } else {
+                    cullStrokePair(ball, line, row + i);
+                }
+            }
+        }
 
-                    // Convert PVector points to float arrays
-                    float[] p1Array = new float[]{p1.x, p1.y};
-                    float[] p2Array = new float[]{p2.x, p2.y};
+    }
 
-                    // Call the collision method from the Ball class
-                    if (ball.collideWithLineSegment(p1Array, p2Array)) {
-                        drawnLines.remove(i); // Remove the line segment after a collision
-                        break;
-                    }
+    /**
+     * Gets the start of a ball's row of skipped stroke pairs, clearing it if the ball is faster
+     * than the row allowed for or has no row in the current epoch yet. Rows are kept by the game
+     * rather than the balls, so that balls entering the board do not allocate; rows of balls that
+     * have left are handed out again when the epoch moves on.
+     * @param ball The ball.
+     * @return The index of the ball's first pair in cullLines and cullUntil.
+     */
+    private int cullRow(Ball ball) {
+        float speed = ball.velocity.mag() * Math.max(1, ball.accelerationFactor);  // Bounds the next move and look-ahead
+        if (ball.cullEpoch == collisionEpoch && speed <= ball.cullSpeed) {
+            return ball.cullSlot * cullStride;
+        }
+        if (ball.cullEpoch != collisionEpoch) {
+            if (cullRowsEpoch != collisionEpoch) {
+                cullRowsEpoch = collisionEpoch;
+                cullRowsUsed = 0;
+            }
+            if (cullRowsUsed == cullRows) {
+                if (cullRowsUsed > 2 * balls.size()) {
+                    collisionEpoch++;  // Most rows belong to balls that have left; the others are filled again
+                    cullRowsEpoch = collisionEpoch;
+                    cullRowsUsed = 0;
+                } else {
+                    cullRows = Math.max(16, cullRows * 2);
+                    cullLines = Arrays.copyOf(cullLines, cullRows * cullStride);
+                    cullUntil = Arrays.copyOf(cullUntil, cullRows * cullStride);
                 }
             }
+            ball.cullSlot = cullRowsUsed++;
+            ball.cullEpoch = collisionEpoch;
         }
+        // Faster than the skipped ticks allowed for, or new: test every pair again
+        ball.cullSpeed = Math.max(speed * CULL_SPEED_HEADROOM, 0.5f);
+        int row = ball.cullSlot * cullStride;
+        Arrays.fill(cullLines, row, row + cullStride, null);
+        return row;
+    }
+
+    /**
+     * Works out the earliest tick a ball could touch a stroke and remembers it for the pair.
+     * The ball moves at most cullSpeed per tick, so it gets no closer to the stroke's bounding
+     * box than that each tick, and the collision test reaches contactReach() plus one step of
+     * at most cullSpeed times the square root of two beyond the box.
+     * @param ball The ball.
+     * @param line The stroke.
+     * @param pair The index of the pair in cullLines and cullUntil.
+     */
+    private void cullStrokePair(Ball ball, Line line, int pair) {
+        float reach = fixedPoint
+                ? 0.5f * (line.maxSegmentLength + ball.radius)  // The wider reach FixedPhysics tests with
+                : line.contactReach(ball.radius);
+        float gap = line.boundsDistance(ball.position.x, ball.position.y) - reach - 1;  // A pixel for rounding
+        float ticks = gap / ball.cullSpeed - 1.5f;
+        if (ticks >= 2) {
+            cullLines[pair] = line;
+            cullUntil[pair] = tickCount + (int) Math.min(ticks, 1 << 20);
+        } else {
+            cullLines[pair] = null;  // Close enough to test on every tick
+        }
+    }
 
+    /**
+     * Applies the effects of a batch of game events to this game: the score of captures,
+     * and erasing the strokes that were hit.
+     * @param events The batch of events.
+     */
+    void applyEvents(GameEvents events) {
+        for (int i = 0; i < events.size(); i++) {
+            switch (events.kind(i)) {
+                case GameEvents.CAPTURE:
+                    scoreCapture(events.color(i), events.detail(i));
+                    break;
+                case GameEvents.STROKE_HIT:
+                    drawnLines.remove(events.stroke(i));  // Remove the line segment after a collision
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Checks if a ball scores in a hole: grey balls and grey holes match every color.
+     * @param ballColorIndex The color of the ball.
+     * @param holeColorIndex The color of the hole.
+     * @return True if the ball scores, false if it is requeued.
+     */
+    public static boolean colorsMatch(int ballColorIndex, int holeColorIndex) {
+        return ballColorIndex == 0 || holeColorIndex == 0 || ballColorIndex == holeColorIndex;
+    }
+
+    /**
+     * Adjusts the score for a ball falling into a hole, and requeues a ball of the wrong color.
+     * @param ballColorIndex The color of the ball.
+     * @param holeColorIndex The color of the hole.
+     */
+    public void scoreCapture(int ballColorIndex, int holeColorIndex) {
+        String ballColor = COLOR_NAMES[ballColorIndex];
+
+        int scoreIncrease = scoreIncreaseMap.getOrDefault(ballColor, 0);
+        int scoreDecrease = scoreDecreaseMap.getOrDefault(ballColor, 0);
+
+        if (colorsMatch(ballColorIndex, holeColorIndex)) {
+            /**
+            Score is increased in terms of the config file if ball's colour is grey or 
+            ball's colour matches with hole's colour or hole's colour is grey  
+            */ 
+            score += scoreIncrease * scoreIncreaseModifier;
+        } else {
+            // Else, the score is decreased
+            score -= scoreDecrease * scoreDecreaseModifier;
+            ballsToSpawn.add(ballColor);
+        }
     }
 
     /**
@@ -1197,8 +2339,8 @@ public class App extends PApplet {
     public void drawYellowTiles() {
         if (levelEnded) {  // Only draw if the level has ended
             // Draw yellow tiles
-            image(wallImages[4], yellowTile1X * CELLSIZE, TOPBAR + yellowTile1Y * CELLSIZE, CELLSIZE, CELLSIZE);
-            image(wallImages[4], yellowTile2X * CELLSIZE, TOPBAR + yellowTile2Y * CELLSIZE, CELLSIZE, CELLSIZE);
+            image(wallImages[4], yellowTile1X * CELLSIZE, TOPBAR + yellowTile1Y * CELLSIZE);
+            image(wallImages[4], yellowTile2X * CELLSIZE, TOPBAR + yellowTile2Y * CELLSIZE);
         }
     }
 
@@ -1208,10 +2350,10 @@ public class App extends PApplet {
      */
     public void addRemainingTimeToScore() {
         float timeIncrementRate = 0.067f * 1000;  // Every 0.067 seconds adds 1 to the score
-        if (timeLeft > 0 && millis() - lastSpawnTime > timeIncrementRate) {
+        if (timeLeft > 0 && gameMillis() - lastSpawnTime > timeIncrementRate) {
             score++;  // Increment score by 1
             timeLeft--;  // Decrement the remaining time
-            lastSpawnTime = millis();  // Update the time for the next increment
+            lastSpawnTime = gameMillis();  // Update the time for the next increment
         } else if (timeLeft == 0 && currentLevel == totalLevels - 1) {
             gameEnded = true;  // End the game if this is the final level
         }
@@ -1223,28 +2365,28 @@ public class App extends PApplet {
      */
     public void moveYellowTiles() {
         int movementRate = 67;  // Move 1 tile every 0.067 seconds
-        if (millis() - lastFrameTime > movementRate) {
+        if (gameMillis() - lastFrameTime > movementRate) {
             // Restore previous yellow tile positions back to grey
-            board[yellowTile1Y][yellowTile1X] = 'X';  // Tile 1
-            board[yellowTile2Y][yellowTile2X] = 'X';  // Tile 2
+            setCell(yellowTile1X, yellowTile1Y, 'X');  // Tile 1
+            setCell(yellowTile2X, yellowTile2Y, 'X');  // Tile 2
 
             // Move yellow tile 1 in a clockwise pattern
-            if (yellowTile1Y == 0 && yellowTile1X < BOARD_WIDTH - 1) yellowTile1X++;
-            else if (yellowTile1X == BOARD_WIDTH - 1 && yellowTile1Y < BOARD_HEIGHT - 1) yellowTile1Y++;
-            else if (yellowTile1Y == BOARD_HEIGHT - 1 && yellowTile1X > 0) yellowTile1X--;
+            if (yellowTile1Y == 0 && yellowTile1X < boardWidth - 1) yellowTile1X++;
+            else if (yellowTile1X == boardWidth - 1 && yellowTile1Y < boardHeight - 1) yellowTile1Y++;
+            else if (yellowTile1Y == boardHeight - 1 && yellowTile1X > 0) yellowTile1X--;
             else if (yellowTile1X == 0 && yellowTile1Y > 0) yellowTile1Y--;
 
             // Move yellow tile 2 in the opposite direction (counterclockwise)
-            if (yellowTile2Y == BOARD_HEIGHT - 1 && yellowTile2X > 0) yellowTile2X--;
+            if (yellowTile2Y == boardHeight - 1 && yellowTile2X > 0) yellowTile2X--;
             else if (yellowTile2X == 0 && yellowTile2Y > 0) yellowTile2Y--;
-            else if (yellowTile2Y == 0 && yellowTile2X < BOARD_WIDTH - 1) yellowTile2X++;
-            else if (yellowTile2X == BOARD_WIDTH - 1 && yellowTile2Y < BOARD_HEIGHT - 1) yellowTile2Y++;
+            else if (yellowTile2Y == 0 && yellowTile2X < boardWidth - 1) yellowTile2X++;
+            else if (yellowTile2X == boardWidth - 1 && yellowTile2Y < boardHeight - 1) yellowTile2Y++;
 
             // Set the new positions to yellow ('4')
-            board[yellowTile1Y][yellowTile1X] = '4';
-            board[yellowTile2Y][yellowTile2X] = '4';
+            setCell(yellowTile1X, yellowTile1Y, '4');
+            setCell(yellowTile2X, yellowTile2Y, '4');
 
-            lastFrameTime = millis();  // Update the last frame time for the next move
+            lastFrameTime = gameMillis();  // Update the last frame time for the next move
         }
     }
 
@@ -1252,9 +2394,12 @@ public class App extends PApplet {
      * Ends the current level and initiates the post-level logic.
      */
     public void endLevel() {
+        events.publish(GameEvents.LEVEL_END, null, null, -1, currentLevel, 0, 0);
         levelEnded = true;
         postLevelInProgress = true;  // Activate postLevel progress
-        lastSpawnTime = millis();   // Record the current time to manage post-level timing
+        lastSpawnTime = gameMillis();   // Record the current time to manage post-level timing
+        lastFrameTime = Float.NEGATIVE_INFINITY;  // The yellow tiles make their first move straight away
+        preloadLevel(currentLevel + 1);  // Ready by the time the post-level animation is over
     }
     
 
@@ -1269,6 +2414,10 @@ public class App extends PApplet {
         // Check if the level's post-level activities are completed (i.e., time is up)
         if (timeLeft <= 0) {
             postLevelInProgress = false;  // Mark post-level as completed
+            if (telemetry != null) {
+                telemetry.levelFinished();  // Summarise the level, time bonus included
+            }
+            recordScore(currentLevel, score - levelStartScore);
 
             // Move to the next level if available, otherwise end the game
             if (currentLevel < totalLevels - 1) {
@@ -1277,20 +2426,65 @@ public class App extends PApplet {
                 levelEnded = false;  // Reset the level-ended flag
             } else {
                 gameEnded = true;  // Mark the game as ended if it's the last level
+                recordScore(Leaderboard.CAMPAIGN, score);
+            }
+        }
+    }
+
+    /**
+     * Names the leaderboard of the game's configuration by the hash of the configuration file and
+     * of every level's layout, as the thumbnail cache names thumbnails. Games started from another
+     * config.json, e.g. a generated stress level, keep boards of their own, and so does a level
+     * whose layout was edited.
+     * @return The first 16 hex digits of the SHA-256 hash.
+     */
+    String leaderboardKey() {
+        ByteArrayOutputStream identity = new ByteArrayOutputStream();
+        byte[] content = loadBytes(configPath);
+        if (content != null) {
+            identity.writeBytes(content);
+        }
+        JSONArray levels = config.getJSONArray("levels");
+        for (int i = 0; i < levels.size(); i++) {
+            content = loadBytes(levels.getJSONObject(i).getString("layout"));
+            if (content != null) {
+                identity.writeBytes(content);
             }
         }
+        return ThumbnailRenderer.contentHash(identity.toByteArray()).substring(0, 16);
+    }
+
+    /**
+     * Records a finished level or game on the leaderboard, if there is one.
+     * @param board The level index, or Leaderboard.CAMPAIGN for the whole game.
+     * @param points The score of the level or game.
+     */
+    void recordScore(int board, int points) {
+        if (leaderboard == null) {
+            return;
+        }
+        try {
+            leaderboard.record(board, points);
+            leaderboard.flush();
+        } catch (IOException e) {
+            System.err.println("Could not record the score: " + e);
+        }
     }
 
 
     /**
      * Displays the end-game message.
-     * Shows "=== ENDED ===" when the game is finished.
+     * Shows "=== ENDED ===" when the game is finished, and the best score of a whole game on the
+     * leaderboard.
      */
     public void displayEndGameMessage() {
         fill(0);  // Set text color to black
         textSize(20);  // Set the font size
         textAlign(LEFT, TOP);  // Align text to the top-left
         text("=== ENDED ===", 250, 15);  // Display the end game message
+        if (leaderboard != null && leaderboard.runs(Leaderboard.CAMPAIGN) > 0) {
+            text("Best: " + leaderboard.best(Leaderboard.CAMPAIGN), 250, 40);  // Includes this game
+        }
     }
 
     /**
@@ -1303,18 +2497,13 @@ public class App extends PApplet {
         // Reset time and score
         timeLeft = level.getInt("time");  // Reset the time for the level
         score = 0;  // Reset the score
+        levelStartScore = 0;
         balls.clear();  // Clear all existing balls
         drawnLines.clear();  // Clear all drawn lines
         ballsToSpawn.clear();  // Clear the ball spawn queue
         levelEnded = false;  // Reset the level end status
         gameEnded = false;  // Reset the game end status
 
-        // Reset the position of the yellow tiles
-        yellowTile1X = 0;
-        yellowTile1Y = 0;
-        yellowTile2X = BOARD_WIDTH - 1;
-        yellowTile2Y = BOARD_HEIGHT - 1;
-
         // Reset remaining time bonus
         remainingTimeBonus = 0;  // Reset time bonus
 
@@ -1328,30 +2517,74 @@ public class App extends PApplet {
         spawnInterval = level.getInt("spawn_interval");  // Reset spawn interval to level 1 value
         spawnIntervalLeft = spawnInterval;  // Reinitialize the countdown for ball spawning
 
-        loadLayout(level.getString("layout"));  // Load the layout for the level
+        loadLayout(level.getString("layout"), getLevelWidth(0), getLevelHeight(0));  // At the level's own board size
+
+        // Reset the position of the yellow tiles, in the corners of the board just loaded
+        yellowTile1X = 0;
+        yellowTile1Y = 0;
+        yellowTile2X = boardWidth - 1;
+        yellowTile2Y = boardHeight - 1;
+
         spawnBall();  // Spawn the first ball for the level
 
+        timeUp = false;
         loop();  // Resume the game loop
 
         // Reset timers for tile movement and ball spawning
-        lastSpawnTime = millis();
-        lastYellowTileMoveTime = millis();
+        lastSpawnTime = gameMillis();
+        lastYellowTileMoveTime = gameMillis();
     }
 
     
+    /**
+     * Times a key press, then handles it.
+     * @param event The key event, with the time the window received it.
+     */
+    @Override
+    public void keyPressed(KeyEvent event) {
+        latency.inputHandled(event.getMillis());
+        keyPressed();
+    }
+
     /**
      * Handles key press events in the game.
      * - 'r' key: Resets the current level.
      * - Spacebar: Toggles pause/unpause of the game.
+     * - 't' key: Toggles the predicted ball paths overlay.
+     * - 's' key: Saves the game.
+     * - 'l' key: Resumes the saved game.
      */
     @Override
     public void keyPressed() {
+        if (key == 't') {
+            showTrajectories = !showTrajectories;  // Show or hide the predicted ball paths
+        }
+        if (remote != null) {
+            requestFrame();
+            return;  // Only strokes and erases are sent to the server
+        }
         if (key == 'r') {
             resetLevel();  // Reset the current level
         }
         if (key == ' ') {
             togglePause();  // Pause or unpause the game
         }
+        if (key == 's') {
+            try {
+                saves.save(this);  // Save the game
+            } catch (IOException e) {
+                System.err.println("Could not save the game: " + e);
+            }
+        }
+        if (key == 'l' && saves.exists()) {
+            try {
+                saves.load(this);  // Resume the saved game
+                loop();  // The loop may have stopped when the time ran out
+            } catch (IOException e) {
+                System.err.println("Could not resume the game: " + e);
+            }
+        }
+        requestFrame();
     }
 
 
@@ -1360,6 +2593,16 @@ public class App extends PApplet {
      */
     public void togglePause() {
         isPaused = !isPaused;  // Invert the pause status
+        if (!isPaused) {
+            resumeSpawnCountdown();
+        }
+    }
+
+    /**
+     * Continues the spawn countdown from where it stood when the game was paused.
+     */
+    void resumeSpawnCountdown() {
+        lastSpawnTime = gameMillis() - Math.round((spawnInterval - spawnIntervalLeft) * 1000);
     }
 
 
@@ -1370,13 +2613,17 @@ public class App extends PApplet {
     */
     @Override
     public void mousePressed(MouseEvent e) {
+        latency.inputHandled(e.getMillis());
         if (e.getButton() == LEFT) {
             currentLine = new Line();  // Start a new line
         } else if (e.getButton() == RIGHT) {
-            // Remove a line if a point is near the clicked position
-            PVector clickPos = new PVector(e.getX(), e.getY());
-            drawnLines.removeIf(line -> line.getPoints().stream().anyMatch(p -> PVector.dist(p, clickPos) < LINE_THICKNESS));
+            if (remote != null) {
+                sendToServer(() -> remote.sendErase(e.getX(), e.getY()));
+            } else {
+                eraseLinesNear(e.getX(), e.getY());  // Remove a line if a point is near the clicked position
+            }
         }
+        requestFrame();
     }
 
     /**
@@ -1385,7 +2632,9 @@ public class App extends PApplet {
     @Override
     public void mouseDragged(MouseEvent e) {
         if (currentLine != null) {
-            currentLine.addPoint(new PVector(e.getX(), e.getY()));  // Add a point to the line
+            latency.inputHandled(e.getMillis());
+            currentLine.addPoint(e.getX(), e.getY());  // Add a point to the line
+            requestFrame();
         }
     }
 
@@ -1395,8 +2644,37 @@ public class App extends PApplet {
     @Override
     public void mouseReleased(MouseEvent e) {
         if (currentLine != null) {
-            drawnLines.add(currentLine);  // Add the completed line to the list
+            long arrived = latency.inputHandled(e.getMillis());
+            if (remote != null) {
+                Line stroke = currentLine;
+                sendToServer(() -> remote.sendStroke(stroke));  // The server adds it to the game
+            } else {
+                drawnLines.add(currentLine);  // Add the completed line to the list
+                latency.strokeFinished(currentLine, arrived);
+            }
             currentLine = null;  // Clear the current line
+            requestFrame();
+        }
+    }
+
+    /**
+     * Input sent to the game server.
+     */
+    private interface ServerInput {
+        void send() throws IOException;
+    }
+
+    /**
+     * Sends input to the game server, stopping the game if the connection has failed.
+     * @param input The input to send.
+     */
+    private void sendToServer(ServerInput input) {
+        try {
+            input.send();
+        } catch (IOException e) {
+            System.err.println("Lost connection to the server: " + e);
+            remote = null;
+            noLoop();
         }
     }
 
@@ -1479,6 +2757,126 @@ public class App extends PApplet {
         return entrypoints;
     }
 
+    /**
+     * Gets the current game time in milliseconds. This is the sketch clock when the game runs
+     * in a window, and the number of ticks converted to time when it runs headless.
+     * @return The game time in milliseconds.
+     */
+    public int gameMillis() {
+        return headless ? (int) ((long) tickCount * 1000 / FPS) : millis();
+    }
+
+    /**
+     * Gets the current frame number: the sketch's frame count in a window, or the tick count when headless.
+     * @return The frame number.
+     */
+    public int gameFrame() {
+        return headless ? tickCount : frameCount;
+    }
+
+    /**
+     * Sets a board cell, first copying its row if the row is shared with a snapshot.
+     * @param x The x-coordinate in the board.
+     * @param y The y-coordinate in the board.
+     * @param cell The new cell character.
+     */
+    public void setCell(int x, int y, char cell) {
+        if (boardRowShared[y]) {
+            board[y] = board[y].clone();
+            boardRowShared[y] = false;
+        }
+        board[y][x] = cell;
+        boardVersion++;
+    }
+
+    /**
+     * Gives the game its own copies of the hole map and entry points if they are shared with a snapshot.
+     */
+    void unshareLayout() {
+        if (layoutShared) {
+            holeTypesMap = new HashMap<>(holeTypesMap);
+            entrypoints = new ArrayList<>(entrypoints);
+            layoutShared = false;
+        }
+    }
+
+    /**
+     * Takes a snapshot of the game state into a new snapshot object.
+     * @return The snapshot.
+     */
+    public GameSnapshot snapshot() {
+        GameSnapshot snapshot = new GameSnapshot();
+        snapshot.capture(this);
+        return snapshot;
+    }
+
+    /**
+     * Restores the game state captured in a snapshot.
+     * @param snapshot The snapshot to restore.
+     */
+    public void restore(GameSnapshot snapshot) {
+        snapshot.restore(this);
+    }
+
+    /**
+     * Gets the holes as a flat array of HOLE_FLOATS floats per hole: the centre of the hole in pixels,
+     * its top-left cell and its type. The array is rebuilt from holeTypesMap only when the map is
+     * replaced or changes size, so the balls can scan the holes every frame without allocating.
+     * @return The holes, in the map's iteration order.
+     */
+    float[] holeCenters() {
+        if (holeCentersSource != holeTypesMap || holeCentersSize != holeTypesMap.size()) {
+            float[] holes = new float[holeTypesMap.size() * HOLE_FLOATS];
+            int h = 0;
+            for (Map.Entry<PVector, Integer> hole : holeTypesMap.entrySet()) {
+                PVector cell = hole.getKey();
+                holes[h] = (cell.x + 1) * CELLSIZE;
+                holes[h + 1] = TOPBAR + (cell.y + 1) * CELLSIZE;
+                holes[h + 2] = cell.x;
+                holes[h + 3] = cell.y;
+                holes[h + 4] = hole.getValue() == null ? -1 : hole.getValue();
+                h += HOLE_FLOATS;
+            }
+            holeCenters = holes;
+            fixedHoleCenters = new int[holes.length];
+            for (int i = 0; i < holes.length; i += HOLE_FLOATS) {
+                fixedHoleCenters[i] = FixedPhysics.toPosition(holes[i]);
+                fixedHoleCenters[i + 1] = FixedPhysics.toPosition(holes[i + 1]);
+                fixedHoleCenters[i + 2] = (int) holes[i + 2];
+                fixedHoleCenters[i + 3] = (int) holes[i + 3];
+                fixedHoleCenters[i + 4] = (int) holes[i + 4];
+            }
+            holeCentersSource = holeTypesMap;
+            holeCentersSize = holeTypesMap.size();
+        }
+        return holeCenters;
+    }
+
+    /**
+     * Gets the holes like {@link #holeCenters()}, with the centres in FixedPhysics position units.
+     * @return The holes, HOLE_FLOATS ints per hole.
+     */
+    int[] fixedHoleCenters() {
+        holeCenters();  // Rebuilds both copies if the holes changed
+        return fixedHoleCenters;
+    }
+
+    /**
+     * Gets the type of the hole whose top-left cell is at the given coordinates.
+     * @param x The x-coordinate in the board.
+     * @param y The y-coordinate in the board.
+     * @return The hole type, or -1 if there is no hole there.
+     */
+    public int getHoleType(int x, int y) {
+        float[] holes = holeCenters();
+        for (int h = 0; h < holes.length; h += HOLE_FLOATS) {
+            if (holes[h + 2] == x && holes[h + 3] == y) {
+                return (int) holes[h + 4];
+            }
+        }
+        return -1;
+    }
+
     /**
      * Checks if the given coordinates represent a wall.
      * @param x The x-coordinate in the board.
@@ -1526,7 +2924,7 @@ public class App extends PApplet {
      * @return True if there is a ball at the coordinates, otherwise false.
      */
     public boolean isBall(int x, int y) {
-        if (x < 0 || x >= 18 || y < 0 || y >= 18) {
+        if (x < 0 || x >= boardWidth || y < 0 || y >= boardHeight) {
             return false; // Out of bounds check
         }
         return board[y][x] == 'B';
@@ -1615,6 +3013,7 @@ public class App extends PApplet {
     public void restart() {
         loadLevel(currentLevel);  // Reload the current level
         score = 0;  // Reset score
+        levelStartScore = 0;
         balls.clear();  // Clear all current balls
     }
 
@@ -1623,6 +3022,8 @@ public class App extends PApplet {
      */
     public void updateGame() {
         if (!isPaused) {
+            expireTimers();
+
             // Update the balls and any other game elements
             for (Ball ball : balls) {
                 ball.update();
@@ -1630,6 +3031,15 @@ public class App extends PApplet {
         }
     }
 
+    /**
+     * Removes every drawn line that has a point within a line's thickness of a position.
+     * @param x The x coordinate of the position.
+     * @param y The y coordinate of the position.
+     */
+    public void eraseLinesNear(float x, float y) {
+        drawnLines.removeIf(line -> line.hasPointNear(x, y, LINE_THICKNESS));
+    }
+
     /**
      * Removes a line near the specified position from the drawn lines.
      * @param position The position to check for nearby lines.
@@ -1648,10 +3058,11 @@ public class App extends PApplet {
 
     /**
      * The main entry point of the application. Starts the Processing PApplet.
+     * Pass "--connect host:port" to play a game that runs on a {@link GameServer}.
      * @param args The command line arguments.
      */
     public static void main(String[] args) {
-        PApplet.main("inkball.App");
+        PApplet.main("inkball.App", args);
     }
 
 }
@@ -0,0 +1,148 @@
+package inkball;
+
+import java.util.Random;
+
+
+/**
+ * Plays a headless game by looking ahead. Every so often it snapshots the game, tries a set of
+ * candidate strokes in front of the balls, simulates each one a few seconds ahead and rolls the
+ * game back, and then draws the stroke that scored best (or none, if no stroke helps).
+ * The same search backs hints: {@link #suggestStroke()} returns the best stroke without drawing it.
+ */
+public class AutoPlayer {
+    private static final float STROKE_LENGTH = 48;  // Length of a candidate stroke in pixels
+    private static final int STROKE_POINTS = 5;     // Number of points in a candidate stroke
+
+    private final App game;
+    private final GameSnapshot present = new GameSnapshot();  // Reused for every search
+    private final Random random;
+    private final int lookaheadTicks;  // How far ahead each candidate is simulated
+    private final int candidates;      // Number of candidate strokes tried per search
+
+    // Statistics about the work done by the searches
+    public long simulatedTicks = 0;
+    public long restores = 0;
+    public long searchNanos = 0;
+
+    /**
+     * Creates an auto-player for a game.
+     * @param game The headless game to play.
+     * @param lookaheadTicks How many ticks ahead to simulate each candidate stroke.
+     * @param candidates How many candidate strokes to try per search.
+     * @param seed Seed for choosing candidate strokes.
+     */
+    public AutoPlayer(App game, int lookaheadTicks, int candidates, long seed) {
+        this.game = game;
+        this.lookaheadTicks = lookaheadTicks;
+        this.candidates = candidates;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Finds the stroke that leads to the highest score within the lookahead, leaving the game as it was.
+     * @return The best stroke, or null if no candidate does better than drawing nothing.
+     */
+    public Line suggestStroke() {
+        long start = System.nanoTime();
+        present.capture(game);
+
+        int bestScore = simulate(null);  // Drawing nothing is the baseline
+        Line bestStroke = null;
+
+        for (int i = 0; i < candidates && !game.balls.isEmpty(); i++) {
+            Line stroke = candidateStroke();
+            int score = simulate(stroke);
+            if (score > bestScore) {
+                bestScore = score;
+                bestStroke = stroke;
+            }
+        }
+
+        searchNanos += System.nanoTime() - start;
+        return bestStroke;
+    }
+
+    /**
+     * Runs the game for a number of ticks, searching for a stroke every decisionInterval ticks
+     * and drawing it when one helps.
+     * @param ticks The number of ticks to play.
+     * @param decisionInterval The number of ticks between searches.
+     */
+    public void play(int ticks, int decisionInterval) {
+        for (int i = 0; i < ticks && !game.isGameEnded() && !game.timeUp; i++) {
+            if (i % decisionInterval == 0) {
+                Line stroke = suggestStroke();
+                if (stroke != null) {
+                    game.drawnLines.add(stroke);
+                }
+            }
+            game.tick();
+        }
+    }
+
+    /**
+     * Simulates the game ahead from the snapshot with an optional stroke added, then rolls it back.
+     * @param stroke The stroke to add before simulating, or null for none.
+     * @return The score reached at the end of the lookahead.
+     */
+    private int simulate(Line stroke) {
+        if (stroke != null) {
+            game.drawnLines.add(stroke);
+        }
+        for (int t = 0; t < lookaheadTicks && !game.timeUp; t++) {
+            game.tick();
+        }
+        simulatedTicks += lookaheadTicks;
+
+        int score = game.score;
+        present.restore(game);
+        restores++;
+        return score;
+    }
+
+    /**
+     * Builds a short straight stroke across the path of a random ball, some distance ahead of it.
+     * @return The candidate stroke.
+     */
+    private Line candidateStroke() {
+        Ball ball = game.balls.get(random.nextInt(game.balls.size()));
+        float ahead = 10 + random.nextInt(40);  // Ticks until the ball reaches the stroke
+        float centerX = ball.position.x + ball.velocity.x * ahead;
+        float centerY = ball.position.y + ball.velocity.y * ahead;
+        float angle = random.nextFloat() * (float) Math.PI;
+        float dx = (float) Math.cos(angle) * STROKE_LENGTH / (STROKE_POINTS - 1);
+        float dy = (float) Math.sin(angle) * STROKE_LENGTH / (STROKE_POINTS - 1);
+
+        Line stroke = new Line();
+        for (int i = 0; i < STROKE_POINTS; i++) {
+            float offset = i - (STROKE_POINTS - 1) / 2.0f;
+            stroke.addPoint(centerX + dx * offset, centerY + dy * offset);
+        }
+        return stroke;
+    }
+
+    /**
+     * Plays a full headless game with the auto-player and reports the score and the search speed.
+     * Arguments: [config path] [lookahead ticks] [candidates] [seed].
+     * @param args The command line arguments.
+     */
+    public static void main(String[] args) {
+        String configPath = args.length > 0 ? args[0] : "config.json";
+        int lookahead = args.length > 1 ? Integer.parseInt(args[1]) : 3 * App.FPS;
+        int candidates = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+
+        App game = App.createHeadless(configPath, seed);
+        AutoPlayer player = new AutoPlayer(game, lookahead, candidates, seed);
+
+        long start = System.nanoTime();
+        player.play(Integer.MAX_VALUE, App.FPS / 2);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("Finished level %d with score %d after %d ticks (%.1f s)%n",
+                game.currentLevel + 1, game.score, game.tickCount, seconds);
+        System.out.printf("Simulated %d lookahead ticks, %d restores (%.0f restores/s, %.0f ticks/s)%n",
+                player.simulatedTicks, player.restores,
+                player.restores / (player.searchNanos / 1e9), player.simulatedTicks / (player.searchNanos / 1e9));
+    }
+}
@@ -0,0 +1,184 @@
+package inkball;
+
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Moves all the balls of a game in passes over packed arrays instead of one ball at a time, so
+ * that the arithmetic that is the same for every ball can run in SIMD lanes.
+ * <p>
+ * A tick packs the positions, velocities and acceleration factors of the balls in play, moves
+ * every ball by its velocity, lets each ball handle the cell it moved into (holes, force tiles and
+ * walls, which depend on the board and stay per ball), then keeps every ball that was not captured
+ * on the board in a second pass. Each step is the same float operation as in Ball.update(), in
+ * the same order, so a game moves bit for bit the same with or without the kernel.
+ * <p>
+ * This class is the scalar version. {@link #create()} returns VectorBallKernel, built on the
+ * incubating Vector API in the vector source set, when the JVM was started with
+ * "--add-modules jdk.incubator.vector", and this class otherwise.
+ */
+class BallKernel {
+    // Packed state of the balls being moved
+    Ball[] packed = new Ball[0];
+    float[] x = new float[0];
+    float[] y = new float[0];
+    float[] vx = new float[0];
+    float[] vy = new float[0];
+    float[] factor = new float[0];
+    float[] radius = new float[0];
+
+    /**
+     * Creates the fastest kernel this JVM can run.
+     * @return A VectorBallKernel if the Vector API is available, a BallKernel otherwise.
+     */
+    static BallKernel create() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                // Loaded by name, since only the vector source set is compiled with the module
+                return (BallKernel) Class.forName("inkball.VectorBallKernel").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // The kernel is not on the class path, or the module cannot be used; fall back to the scalar loops
+            }
+        }
+        return new BallKernel();
+    }
+
+    /**
+     * Gets the name of the kernel, for benchmarks and logs.
+     * @return A short description.
+     */
+    String name() {
+        return "scalar";
+    }
+
+    /**
+     * Runs one tick of movement for every ball in play, like calling update() on each of them.
+     * @param app The game whose balls are moved.
+     */
+    void update(App app) {
+        List<Ball> balls = app.balls;
+        ensureCapacity(balls.size());
+
+        // Pack the balls in play
+        int count = 0;
+        for (int i = 0; i < balls.size(); i++) {
+            Ball ball = balls.get(i);
+            if (ball.isCaptured) {
+                continue;
+            }
+            packed[count] = ball;
+            x[count] = ball.position.x;
+            y[count] = ball.position.y;
+            vx[count] = ball.velocity.x;
+            vy[count] = ball.velocity.y;
+            factor[count] = ball.accelerationFactor;
+            count++;
+        }
+
+        integrate(count);
+
+        // Cells, one ball at a time; captured balls are dropped from the packed arrays
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            Ball ball = packed[i];
+            float startX = ball.position.x;
+            float startY = ball.position.y;
+            ball.position.x = x[i];
+            ball.position.y = y[i];
+            if (ball.handleCell(startX, startY)) {
+                continue;
+            }
+            packed[kept] = ball;
+            x[kept] = ball.position.x;
+            y[kept] = ball.position.y;
+            vx[kept] = ball.velocity.x;
+            vy[kept] = ball.velocity.y;
+            radius[kept] = ball.radius;
+            kept++;
+        }
+
+        bounce(kept, app.boardWidth * App.CELLSIZE, App.TOPBAR, App.TOPBAR + app.boardHeight * App.CELLSIZE);
+
+        // Unpack
+        for (int i = 0; i < kept; i++) {
+            Ball ball = packed[i];
+            ball.position.x = x[i];
+            ball.position.y = y[i];
+            ball.velocity.x = vx[i];
+            ball.velocity.y = vy[i];
+        }
+        Arrays.fill(packed, 0, count, null);  // Do not keep captured balls alive
+    }
+
+    /**
+     * Grows the packed arrays to hold at least the given number of balls.
+     * @param count The number of balls.
+     */
+    void ensureCapacity(int count) {
+        if (x.length < count) {
+            int capacity = Math.max(count, x.length * 2);
+            packed = new Ball[capacity];
+            x = new float[capacity];
+            y = new float[capacity];
+            vx = new float[capacity];
+            vy = new float[capacity];
+            factor = new float[capacity];
+            radius = new float[capacity];
+        }
+    }
+
+    /**
+     * Moves the first count balls by their velocity times their acceleration factor.
+     * @param count The number of packed balls.
+     */
+    void integrate(int count) {
+        integrate(0, count);
+    }
+
+    /**
+     * Keeps the first count balls inside the board, reflecting them off its edges.
+     * @param count The number of packed balls.
+     * @param maxX The right edge of the board.
+     * @param minY The top edge of the board; the left edge is 0.
+     * @param maxY The bottom edge of the board.
+     */
+    void bounce(int count, float maxX, float minY, float maxY) {
+        bounce(0, count, maxX, minY, maxY);
+    }
+
+    /**
+     * The scalar loop of integrate(), also used for the lanes left over by a vector loop.
+     */
+    final void integrate(int from, int to) {
+        for (int i = from; i < to; i++) {
+            x[i] += vx[i] * factor[i];
+            y[i] += vy[i] * factor[i];
+        }
+    }
+
+    /**
+     * The scalar loop of bounce(), in the order of Ball.handleBoundaryCollisions().
+     */
+    final void bounce(int from, int to, float maxX, float minY, float maxY) {
+        for (int i = from; i < to; i++) {
+            float r = radius[i];
+            if (x[i] - r < 0) {
+                x[i] = r;
+                vx[i] *= -1;
+            }
+            if (x[i] + r > maxX) {
+                x[i] = maxX - r;
+                vx[i] *= -1;
+            }
+            if (y[i] - r < minY) {
+                y[i] = minY + r;
+                vy[i] *= -1;
+            }
+            if (y[i] + r > maxY) {
+                y[i] = maxY - r;
+                vy[i] *= -1;
+            }
+        }
+    }
+}
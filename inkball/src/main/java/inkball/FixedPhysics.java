@@ -0,0 +1,368 @@
+package inkball;
+
+
+/**
+ * The ball physics in fixed-point integer arithmetic, used instead of the float physics when a
+ * game's {@code fixedPoint} flag is set, so that lockstep replays and runs on different machines
+ * or threads can be compared bit for bit.
+ * <p>
+ * Positions are kept in 1/256 pixel and velocities in 1/65536 pixel per tick. A float holds both
+ * exactly on any board smaller than 65536 pixels, so the ball's position and velocity vectors stay
+ * the one copy of its state: every update reads them into integers, moves the ball with integer
+ * arithmetic only and writes them back. Snapshots, saves, the network and drawing see the same
+ * state as with the float physics, and a restored game carries on exactly where it was.
+ * <p>
+ * The movement follows the float physics step by step (holes, force tiles, walls, the board's
+ * edge, and strokes), with the same constants rounded to fixed point. Square roots are integer
+ * square roots: a double estimate corrected to the exact floor, so the result never depends on how
+ * the estimate was computed. Holes further than the attraction range along either axis are skipped
+ * and the rest compared by squared distance, so at most one square root is taken per ball and tick
+ * where the float physics takes one per hole; the ball's distanceToHole is only kept for a hole in
+ * range.
+ */
+final class FixedPhysics {
+    static final int POSITION_SHIFT = 8;    // Fraction bits of positions
+    static final int VELOCITY_SHIFT = 16;   // Fraction bits of velocities, directions and factors
+    static final int POSITION_ONE = 1 << POSITION_SHIFT;
+    static final int VELOCITY_ONE = 1 << VELOCITY_SHIFT;
+    private static final int VELOCITY_TO_POSITION = VELOCITY_SHIFT - POSITION_SHIFT;
+
+    private static final int CELL = App.CELLSIZE * POSITION_ONE;
+    private static final int TOPBAR = App.TOPBAR * POSITION_ONE;
+    private static final int ATTRACTION_RANGE = 32 * POSITION_ONE;  // Balls this close to a hole are pulled in
+    private static final int CAPTURE_RANGE = 5 * POSITION_ONE;      // Balls this close to a hole fall in
+    private static final long ATTRACTION_MIN = toVelocity(0.01f);   // Pull at the edge of the range
+    private static final long ATTRACTION_MAX = toVelocity(0.1f);    // Pull at the centre of the hole
+    private static final int COLLISION_BUFFER = toPosition(0.1f);
+    private static final long MIN_SPEED = toVelocity(ForceField.MIN_SPEED);
+    private static final long MAX_SPEED = toVelocity(ForceField.MAX_SPEED);
+
+    private FixedPhysics() {
+    }
+
+    /**
+     * Converts a coordinate in pixels to fixed point, rounding towards zero.
+     * @param pixels The coordinate.
+     * @return The coordinate in 1/256 pixel.
+     */
+    static int toPosition(float pixels) {
+        return (int) (pixels * POSITION_ONE);  // Scaling by a power of two is exact
+    }
+
+    /**
+     * Converts a velocity, direction or factor to fixed point, rounding towards zero.
+     * @param value The value.
+     * @return The value in 1/65536.
+     */
+    static int toVelocity(float value) {
+        return (int) (value * VELOCITY_ONE);
+    }
+
+    /**
+     * Computes the integer square root.
+     * @param n A non-negative number below 2^62.
+     * @return The largest r with r * r &lt;= n.
+     */
+    static long sqrt(long n) {
+        long r = (long) Math.sqrt((double) n);
+        while (r * r > n) {
+            r--;
+        }
+        while ((r + 1) * (r + 1) <= n) {
+            r++;
+        }
+        return r;
+    }
+
+    /**
+     * Moves a ball by one tick, like {@link Ball#update()}.
+     * @param ball The ball to move.
+     */
+    static void update(Ball ball) {
+        if (ball.isCaptured) {
+            return;
+        }
+        App app = ball.app;
+
+        // Check for acceleration time; the game's own balls are timed by its timer wheel
+        if (ball.simulated && ball.now() - ball.accelerationStartTime > ball.accelerationDuration) {
+            ball.accelerationFactor = 1.0f;
+        }
+
+        // Move the ball by applying its velocity and acceleration factor
+        load(ball);
+        int startX = ball.fx;
+        int startY = ball.fy;
+        long factor = toVelocity(ball.accelerationFactor);
+        ball.fx += (int) ((ball.fvx * factor) >> (VELOCITY_SHIFT + VELOCITY_TO_POSITION));
+        ball.fy += (int) ((ball.fvy * factor) >> (VELOCITY_SHIFT + VELOCITY_TO_POSITION));
+
+        int xIndex = ball.fx / CELL;
+        int yIndex = (ball.fy - TOPBAR) / CELL;
+        if (xIndex >= 0 && xIndex < app.boardWidth && yIndex >= 0 && yIndex < app.boardHeight) {
+            char cell = app.board[yIndex][xIndex];
+
+            // Find the nearest hole in range by squared distance; only the one in range is ever used
+            long nearest = Long.MAX_VALUE;
+            int closestHole = -1;
+            int[] holes = app.fixedHoleCenters();
+            for (int h = 0; h < holes.length; h += App.HOLE_FLOATS) {
+                int dx = holes[h] - ball.fx;
+                int dy = holes[h + 1] - ball.fy;
+                // One unsigned comparison per axis tests -range <= d <= range, without a branch to mispredict
+                if ((Integer.compareUnsigned(dx + ATTRACTION_RANGE, 2 * ATTRACTION_RANGE) > 0)
+                        | (Integer.compareUnsigned(dy + ATTRACTION_RANGE, 2 * ATTRACTION_RANGE) > 0)) {
+                    continue;
+                }
+                if (holes[h + 4] < 0 || holes[h + 4] > 4) {
+                    continue;
+                }
+                long squared = (long) dx * dx + (long) dy * dy;
+                if (squared < nearest) {
+                    nearest = squared;
+                    closestHole = h;
+                }
+            }
+            int distance = closestHole >= 0 ? (int) sqrt(nearest) : Integer.MAX_VALUE;
+            ball.distanceToHole = closestHole >= 0 ? distance / (float) POSITION_ONE : Float.MAX_VALUE;
+
+            if (closestHole >= 0 && distance <= ATTRACTION_RANGE) {
+                if (attractToHole(ball, holes[closestHole + 2], holes[closestHole + 3], distance)) {
+                    store(ball);
+                    return;
+                }
+            }
+
+            // Handle accelerators and other force tiles
+            int forceCell = yIndex * app.boardWidth + xIndex;
+            if (app.forces.kinds[forceCell] != 0) {
+                applyForces(ball, app.forces, forceCell, startX, startY);
+            }
+
+            // Handle wall collisions, coloured or grey
+            if ((cell >= '1' && cell <= '4') || cell == 'X') {
+                handleWallCollision(ball, xIndex, yIndex);
+            }
+        }
+
+        handleBoundaryCollisions(ball);
+        store(ball);
+    }
+
+    /**
+     * Checks if a ball collides with any segment of a stroke and reflects its velocity off the
+     * first segment it hits, like {@link Ball#collideWithStroke(Line)}.
+     * @param ball The ball.
+     * @param line The stroke.
+     * @return True if the ball collides with the stroke.
+     */
+    static boolean collideWithStroke(Ball ball, Line line) {
+        load(ball);
+        int radius = toPosition(ball.radius);
+
+        // Skip strokes out of reach; (L + r) / 2 bounds the float physics' reach of sqrt((2L + r) r) / 2
+        int step = (Math.abs(ball.fvx) + Math.abs(ball.fvy)) >> VELOCITY_TO_POSITION;
+        int reach = ((toPosition(line.maxSegmentLength) + radius) >> 1) + step + 4;
+        if (ball.fx < toPosition(line.minX) - reach || ball.fx > toPosition(line.maxX) + reach
+                || ball.fy < toPosition(line.minY) - reach || ball.fy > toPosition(line.maxY) + reach) {
+            return false;
+        }
+
+        float[] coords = line.coords;
+        for (int j = 1; j < line.pointCount; j++) {
+            if (collideWithSegment(ball, radius,
+                    toPosition(coords[j * 2 - 2]), toPosition(coords[j * 2 - 1]),
+                    toPosition(coords[j * 2]), toPosition(coords[j * 2 + 1]))) {
+                store(ball);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean collideWithSegment(Ball ball, int radius, int x1, int y1, int x2, int y2) {
+        // Future position based on current velocity
+        long futureX = ball.fx + (ball.fvx >> VELOCITY_TO_POSITION);
+        long futureY = ball.fy + (ball.fvy >> VELOCITY_TO_POSITION);
+
+        long distanceP1ToBall = distance(x1 - futureX, y1 - futureY);
+        long distanceP2ToBall = distance(x2 - futureX, y2 - futureY);
+        long length = distance(x2 - x1, y2 - y1);
+        if (distanceP1ToBall + distanceP2ToBall > length + radius - COLLISION_BUFFER) {
+            return false;
+        }
+
+        // Unit normal of the segment, turned towards the ball
+        long n1x = length == 0 ? 0 : ((long) (y2 - y1) << VELOCITY_SHIFT) / length;
+        long n1y = length == 0 ? 0 : ((long) (x1 - x2) << VELOCITY_SHIFT) / length;
+        long midX = ((long) x1 + x2) >> 1;
+        long midY = ((long) y1 + y2) >> 1;
+        long ax = midX + (n1x >> VELOCITY_TO_POSITION) - ball.fx;
+        long ay = midY + (n1y >> VELOCITY_TO_POSITION) - ball.fy;
+        long bx = midX - (n1x >> VELOCITY_TO_POSITION) - ball.fx;
+        long by = midY - (n1y >> VELOCITY_TO_POSITION) - ball.fy;
+        boolean towardsN1 = ax * ax + ay * ay < bx * bx + by * by;
+        long normalX = towardsN1 ? n1x : -n1x;
+        long normalY = towardsN1 ? n1y : -n1y;
+
+        // Reflect the velocity
+        long dot = (ball.fvx * normalX + ball.fvy * normalY) >> VELOCITY_SHIFT;
+        ball.fvx -= (int) ((2 * dot * normalX) >> VELOCITY_SHIFT);
+        ball.fvy -= (int) ((2 * dot * normalY) >> VELOCITY_SHIFT);
+        return true;
+    }
+
+    /**
+     * Pulls a ball in range of a hole towards its centre, and captures it near the centre.
+     * @return True if the ball was captured.
+     */
+    private static boolean attractToHole(Ball ball, int xIndex, int yIndex, int distance) {
+        long dx = (long) (xIndex + 1) * CELL - ball.fx;
+        long dy = TOPBAR + (long) (yIndex + 1) * CELL - ball.fy;
+        long directionX = distance == 0 ? 0 : (dx << VELOCITY_SHIFT) / distance;
+        long directionY = distance == 0 ? 0 : (dy << VELOCITY_SHIFT) / distance;
+        long force = ATTRACTION_MIN + (ATTRACTION_MAX - ATTRACTION_MIN) * (ATTRACTION_RANGE - distance) / ATTRACTION_RANGE;
+        ball.fvx += (int) ((directionX * force) >> VELOCITY_SHIFT);
+        ball.fvy += (int) ((directionY * force) >> VELOCITY_SHIFT);
+
+        // Shrink the ball as it approaches the hole
+        ball.scale = (ATTRACTION_RANGE - distance) / (float) ATTRACTION_RANGE;
+
+        if (distance < CAPTURE_RANGE) {
+            ball.isCaptured = true;
+            ball.inGame = false;
+            ball.vx = 0;
+            ball.vy = 0;
+            if (!ball.simulated) {
+                ball.checkColorMatch(xIndex, yIndex);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Applies the forces of a cell of a force field, like {@link Ball#applyForces}.
+     */
+    private static void applyForces(Ball ball, ForceField field, int cell, int startX, int startY) {
+        byte kind = field.kinds[cell];
+        int[] forces = field.fixedCells;
+        int base = cell * ForceField.FLOATS;
+        if ((kind & ForceField.REDIRECT) != 0 && cellAt(field, startX, startY) != cell) {
+            ball.accelerationFactor = 1.5f;
+            ball.accelerationStartTime = ball.now();
+            ball.scheduleBoostEnd();
+            long speed = speed(ball);
+            ball.fvx = (int) ((forces[base] * speed) >> VELOCITY_SHIFT);
+            ball.fvy = (int) ((forces[base + 1] * speed) >> VELOCITY_SHIFT);
+        }
+        if ((kind & ForceField.PUSH) != 0) {
+            ball.fvx += forces[base + 2];
+            ball.fvy += forces[base + 3];
+            long speed = speed(ball);
+            if (speed > MAX_SPEED) {
+                ball.fvx = (int) (ball.fvx * MAX_SPEED / speed);
+                ball.fvy = (int) (ball.fvy * MAX_SPEED / speed);
+            }
+        }
+        if ((kind & ForceField.DRAG) != 0) {
+            long speed = speed(ball);
+            if (speed > MIN_SPEED) {
+                long factor = Math.max(forces[base + 4], (MIN_SPEED << VELOCITY_SHIFT) / speed);
+                ball.fvx = (int) ((ball.fvx * factor) >> VELOCITY_SHIFT);
+                ball.fvy = (int) ((ball.fvy * factor) >> VELOCITY_SHIFT);
+            }
+        }
+    }
+
+    /**
+     * Reflects a ball off the wall in a cell and takes the wall's colour, like {@link Ball#handleWallCollision}.
+     */
+    private static void handleWallCollision(Ball ball, int xIndex, int yIndex) {
+        App app = ball.app;
+        ball.bounces++;
+
+        int wallLeft = xIndex * CELL;
+        int wallTop = TOPBAR + yIndex * CELL;
+        int distToLeft = ball.fx - wallLeft;
+        int distToRight = wallLeft + CELL - ball.fx;
+        int distToTop = ball.fy - wallTop;
+        int distToBottom = wallTop + CELL - ball.fy;
+        int minDistToWall = Math.min(Math.min(distToLeft, distToRight), Math.min(distToTop, distToBottom));
+
+        // A corner where two walls meet reflects both ways
+        if ((xIndex - 1 >= 0 && app.isWall(xIndex - 1, yIndex) && yIndex - 1 >= 0 && app.isWall(xIndex, yIndex - 1))
+                || (xIndex + 1 < app.boardWidth && app.isWall(xIndex + 1, yIndex) && yIndex + 1 < app.boardHeight && app.isWall(xIndex, yIndex + 1))) {
+            ball.fvx = -ball.fvx;
+            ball.fvy = -ball.fvy;
+            return;
+        }
+
+        boolean hitVerticalWall = minDistToWall == distToLeft || minDistToWall == distToRight;
+        boolean hitHorizontalWall = minDistToWall == distToTop || minDistToWall == distToBottom;
+        if (hitVerticalWall && hitHorizontalWall) {
+            if (Math.abs(ball.fvx) > Math.abs(ball.fvy)) {
+                ball.fvx = -ball.fvx;
+            } else {
+                ball.fvy = -ball.fvy;
+            }
+        } else if (hitVerticalWall) {
+            ball.fvx = -ball.fvx;
+        } else if (hitHorizontalWall) {
+            ball.fvy = -ball.fvy;
+        }
+        ball.takeWallColor(xIndex, yIndex);
+    }
+
+    /**
+     * Keeps a ball inside the board, like {@link Ball#handleBoundaryCollisions()}.
+     */
+    private static void handleBoundaryCollisions(Ball ball) {
+        App app = ball.app;
+        int radius = toPosition(ball.radius);
+        int right = app.boardWidth * CELL;
+        int bottom = TOPBAR + app.boardHeight * CELL;
+        if (ball.fx - radius < 0) {
+            ball.fx = radius;
+            ball.fvx = -ball.fvx;
+        }
+        if (ball.fx + radius > right) {
+            ball.fx = right - radius;
+            ball.fvx = -ball.fvx;
+        }
+        if (ball.fy - radius < TOPBAR) {
+            ball.fy = TOPBAR + radius;
+            ball.fvy = -ball.fvy;
+        }
+        if (ball.fy + radius > bottom) {
+            ball.fy = bottom - radius;
+            ball.fvy = -ball.fvy;
+        }
+    }
+
+    private static int cellAt(ForceField field, int x, int y) {
+        int cx = x / CELL;
+        int cy = (y - TOPBAR) / CELL;
+        return x >= 0 && cx < field.width && y >= TOPBAR && cy < field.height ? cy * field.width + cx : -1;
+    }
+
+    private static long speed(Ball ball) {
+        return sqrt((long) ball.fvx * ball.fvx + (long) ball.fvy * ball.fvy);
+    }
+
+    private static long distance(long dx, long dy) {
+        return sqrt(dx * dx + dy * dy);
+    }
+
+    private static void load(Ball ball) {
+        ball.fx = toPosition(ball.position.x);
+        ball.fy = toPosition(ball.position.y);
+        ball.fvx = toVelocity(ball.velocity.x);
+        ball.fvy = toVelocity(ball.velocity.y);
+    }
+
+    private static void store(Ball ball) {
+        ball.position.set(ball.fx / (float) POSITION_ONE, ball.fy / (float) POSITION_ONE);
+        ball.velocity.set(ball.fvx / (float) VELOCITY_ONE, ball.fvy / (float) VELOCITY_ONE);
+    }
+}
@@ -0,0 +1,330 @@
+package inkball;
+
+import jdk.jfr.*;
+
+
+/**
+ * Java Flight Recorder events for the game loop and gameplay, so that a recording of a real
+ * session lines up frames, ticks, spawns, captures, stroke hits and level loads with the JVM's own
+ * garbage collection, compilation and safepoint events in JDK Mission Control.
+ * <p>
+ * Every event type is disabled by default and needs a recording that enables it, e.g.
+ * "-XX:StartFlightRecording:settings=default,settings=inkball.jfc,filename=game.jfr" with the
+ * settings file in the project directory, on top of the JDK's default events. When none is enabled
+ * the game only reads a static flag at each place an event could be emitted: no event object is
+ * created and no clock is read. The flags follow the recordings as they start and stop, also
+ * when a recording is started on a running game with "jcmd [pid] JFR.start".
+ */
+public final class FlightEvents {
+    // Whether a running recording enables each event type; read on the game's hot paths
+    static volatile boolean frames, ticks, spawns, captures, strokeHits, levelLoads;
+
+    static {
+        // Registered when the game first reads a flag
+        FlightRecorder.addListener(new FlightRecorderListener() {
+            @Override
+            public void recorderInitialized(FlightRecorder recorder) {
+                update();
+            }
+
+            @Override
+            public void recordingStateChanged(Recording recording) {
+                update();
+            }
+        });
+    }
+
+    private FlightEvents() {
+    }
+
+    /**
+     * Reads again which event types the running recordings enable.
+     */
+    static void update() {
+        frames = EventType.getEventType(FrameEvent.class).isEnabled();
+        ticks = EventType.getEventType(TickEvent.class).isEnabled();
+        spawns = EventType.getEventType(SpawnEvent.class).isEnabled();
+        captures = EventType.getEventType(CaptureEvent.class).isEnabled();
+        strokeHits = EventType.getEventType(StrokeHitEvent.class).isEnabled();
+        levelLoads = EventType.getEventType(LevelLoadEvent.class).isEnabled();
+    }
+
+    /**
+     * A frame of the window's draw loop: advancing the game, then drawing what changed.
+     */
+    @Name("inkball.Frame")
+    @Label("Frame")
+    @Category({"Inkball", "Game Loop"})
+    @Description("A frame of the draw loop, with the time spent advancing the game and drawing it")
+    @Enabled(false)
+    @StackTrace(false)
+    static class FrameEvent extends Event {
+        @Label("Simulation")
+        @Timespan(Timespan.NANOSECONDS)
+        long simulation;
+
+        @Label("Rendering")
+        @Timespan(Timespan.NANOSECONDS)
+        long rendering;
+
+        @Label("Whole Frame Drawn")
+        @Description("False if only the top bar was drawn, or nothing had changed")
+        boolean drawn;
+
+        @Label("Balls")
+        int balls;
+
+        transient long mark;
+
+        /**
+         * Ends the simulation phase of the frame.
+         */
+        void simulated() {
+            long now = System.nanoTime();
+            simulation = now - mark;
+            mark = now;
+        }
+
+        /**
+         * Ends the rendering phase and commits the frame.
+         */
+        void rendered(App game, boolean drawn) {
+            rendering = System.nanoTime() - mark;
+            this.drawn = drawn;
+            balls = game.balls.size();
+            commit();
+        }
+    }
+
+    /**
+     * A tick of the simulation, split into its phases.
+     */
+    @Name("inkball.Tick")
+    @Label("Simulation Tick")
+    @Category({"Inkball", "Game Loop"})
+    @Description("A tick of the game, with the time spent in each of its phases")
+    @Enabled(false)
+    @StackTrace(false)
+    static class TickEvent extends Event {
+        @Label("Tick")
+        int tick;
+
+        @Label("Balls")
+        int balls;
+
+        @Label("Strokes")
+        int strokes;
+
+        @Label("Paused")
+        boolean paused;
+
+        @Label("Ball Update")
+        @Timespan(Timespan.NANOSECONDS)
+        long ballUpdate;
+
+        @Label("Spawning")
+        @Description("Time, spawning and the spawn countdown")
+        @Timespan(Timespan.NANOSECONDS)
+        long spawning;
+
+        @Label("Stroke Collisions")
+        @Timespan(Timespan.NANOSECONDS)
+        long collisions;
+
+        @Label("Event Dispatch")
+        @Description("Scoring and the other listeners of the tick's game events")
+        @Timespan(Timespan.NANOSECONDS)
+        long dispatch;
+
+        @Label("Effects")
+        @Timespan(Timespan.NANOSECONDS)
+        long effects;
+
+        @Label("Level Logic")
+        @Description("The end of the level and the post-level animation, including loading the next level")
+        @Timespan(Timespan.NANOSECONDS)
+        long levelLogic;
+
+        transient long mark;
+
+        /**
+         * Gets the time since the last phase ended, and starts the next phase.
+         * @return The phase's duration in nanoseconds.
+         */
+        long lap() {
+            long now = System.nanoTime();
+            long lap = now - mark;
+            mark = now;
+            return lap;
+        }
+
+        /**
+         * Ends the last phase and commits the tick.
+         */
+        void end(App game) {
+            levelLogic = lap();
+            tick = game.tickCount;
+            balls = game.balls.size();
+            strokes = game.drawnLines.size();
+            paused = game.isPaused;
+            commit();
+        }
+    }
+
+    @Name("inkball.Spawn")
+    @Label("Ball Spawn")
+    @Category({"Inkball", "Gameplay"})
+    @Enabled(false)
+    @StackTrace(false)
+    static class SpawnEvent extends Event {
+        @Label("Colour")
+        int color;
+
+        @Label("X")
+        float x;
+
+        @Label("Y")
+        float y;
+
+        @Label("Still Queued")
+        int queued;
+    }
+
+    @Name("inkball.Capture")
+    @Label("Capture")
+    @Category({"Inkball", "Gameplay"})
+    @Description("A ball falling into a hole")
+    @Enabled(false)
+    @StackTrace(false)
+    static class CaptureEvent extends Event {
+        @Label("Ball Colour")
+        int color;
+
+        @Label("Hole Colour")
+        int holeColor;
+
+        @Label("Matched")
+        boolean matched;
+
+        @Label("Hole X")
+        int cellX;
+
+        @Label("Hole Y")
+        int cellY;
+
+        @Label("Bounces")
+        int bounces;
+    }
+
+    @Name("inkball.StrokeHit")
+    @Label("Stroke Collision")
+    @Category({"Inkball", "Gameplay"})
+    @Description("A ball hitting a drawn stroke, which removes the stroke")
+    @Enabled(false)
+    @StackTrace(false)
+    static class StrokeHitEvent extends Event {
+        @Label("Ball Colour")
+        int color;
+
+        @Label("X")
+        float x;
+
+        @Label("Y")
+        float y;
+
+        @Label("Stroke Points")
+        int points;
+    }
+
+    @Name("inkball.LevelLoad")
+    @Label("Level Load")
+    @Category({"Inkball", "Levels"})
+    @Description("Loading a level, with the time spent reading or applying its layout")
+    @Enabled(false)
+    @StackTrace(false)
+    static class LevelLoadEvent extends Event {
+        @Label("Level")
+        int level;
+
+        @Label("Layout")
+        String layout;
+
+        @Label("Preloaded")
+        @Description("True if the layout was compiled in the background while the last level played out")
+        boolean preloaded;
+
+        @Label("Layout Load")
+        @Timespan(Timespan.NANOSECONDS)
+        long layoutLoad;
+    }
+
+    /**
+     * Starts a frame event, if frames are recorded.
+     * @return The started event, or null.
+     */
+    static FrameEvent beginFrame() {
+        if (!frames) {
+            return null;
+        }
+        FrameEvent event = new FrameEvent();
+        event.begin();
+        event.mark = System.nanoTime();
+        return event;
+    }
+
+    /**
+     * Starts a tick event, if ticks are recorded.
+     * @return The started event, or null.
+     */
+    static TickEvent beginTick() {
+        if (!ticks) {
+            return null;
+        }
+        TickEvent event = new TickEvent();
+        event.begin();
+        event.mark = System.nanoTime();
+        return event;
+    }
+
+    /**
+     * Starts a level load event, if level loads are recorded.
+     * @return The started event, or null.
+     */
+    static LevelLoadEvent beginLevelLoad() {
+        if (!levelLoads) {
+            return null;
+        }
+        LevelLoadEvent event = new LevelLoadEvent();
+        event.begin();
+        return event;
+    }
+
+    static void spawn(int color, float x, float y, int queued) {
+        SpawnEvent event = new SpawnEvent();
+        event.color = color;
+        event.x = x;
+        event.y = y;
+        event.queued = queued;
+        event.commit();
+    }
+
+    static void capture(Ball ball, int holeColor, int cellX, int cellY) {
+        CaptureEvent event = new CaptureEvent();
+        event.color = ball.colorIndex;
+        event.holeColor = holeColor;
+        event.matched = App.colorsMatch(ball.colorIndex, holeColor);
+        event.cellX = cellX;
+        event.cellY = cellY;
+        event.bounces = ball.bounces;
+        event.commit();
+    }
+
+    static void strokeHit(Ball ball, Line stroke) {
+        StrokeHitEvent event = new StrokeHitEvent();
+        event.color = ball.colorIndex;
+        event.x = ball.position.x;
+        event.y = ball.position.y;
+        event.points = stroke.pointCount;
+        event.commit();
+    }
+}
@@ -0,0 +1,184 @@
+package inkball;
+
+
+/**
+ * The forces of a level's force tiles, compiled into one entry per board cell when the level
+ * is loaded, so that a ball finds every force acting on it with a single array lookup.
+ * <p>
+ * Force tiles are written as two characters in a layout, like holes:
+ * <ul>
+ *   <li>'A' and a direction is an accelerator. A ball that enters it is turned in that direction
+ *       and sped up for a while. The directions are 'U', 'D', 'L' and 'R', and the diagonals
+ *       'Q' (up-left), 'E' (up-right), 'Z' (down-left) and 'C' (down-right).</li>
+ *   <li>'F' and 'I' is an attractor and 'F' and 'O' a repulsor: every tick, they pull balls in
+ *       the cells around them in, or push them out, more strongly the closer the ball is.</li>
+ *   <li>'F' and 'R' is a rough patch: balls on it lose some speed every tick.</li>
+ * </ul>
+ * The force acts in the cell of the 'A' or 'F'; the second cell only names the kind.
+ * Any number of zones may overlap: their pushes are added up when the field is compiled.
+ * A field never changes once compiled, so games and snapshots share it.
+ */
+class ForceField {
+    // Kinds of force in a cell, as bit flags
+    static final byte REDIRECT = 1;  // Accelerator: turns the ball when it enters the cell
+    static final byte PUSH = 2;      // Attractor or repulsor: adds to the ball's velocity every tick
+    static final byte DRAG = 4;      // Rough patch: slows the ball every tick
+
+    // Floats stored per cell: redirect x, redirect y, push x, push y, drag
+    static final int FLOATS = 5;
+
+    static final int REACH = 3;               // Cells around an attractor or repulsor that it acts on
+    static final float PULL = 0.12f;          // Push per tick next to an attractor or repulsor
+    static final float FRICTION = 0.96f;      // Speed kept per tick on a rough patch
+    static final float MIN_SPEED = 1.0f;      // A rough patch never slows a ball below this speed
+    static final float MAX_SPEED = 6.0f;      // Pushes never speed a ball up beyond this, so it cannot skip a wall
+
+    final int width;
+    final int height;
+    final byte[] kinds;   // Flags per cell, indexed y * width + x
+    final float[] cells;  // FLOATS per cell; null if the level has no force tiles
+    int[] fixedCells;     // The same values in FixedPhysics velocity units, set when compiled
+
+    private ForceField(int width, int height, boolean withForces) {
+        this.width = width;
+        this.height = height;
+        this.kinds = new byte[width * height];
+        this.cells = withForces ? new float[width * height * FLOATS] : null;
+    }
+
+    /**
+     * Creates a field without forces.
+     * @param width The width of the board in cells.
+     * @param height The height of the board in cells.
+     */
+    ForceField(int width, int height) {
+        this(width, height, false);
+    }
+
+    /**
+     * Compiles the force tiles of a board into a field.
+     * @param board The board cells, indexed [y][x].
+     * @return The compiled field.
+     */
+    static ForceField compile(char[][] board) {
+        int height = board.length;
+        int width = height == 0 ? 0 : board[0].length;
+        boolean any = false;
+        for (int y = 0; y < height && !any; y++) {
+            for (int x = 0; x + 1 < width; x++) {
+                if (isTile(board[y][x], board[y][x + 1])) {
+                    any = true;
+                    break;
+                }
+            }
+        }
+        ForceField field = new ForceField(width, height, any);
+        if (!any) {
+            return field;
+        }
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x + 1 < width; x++) {
+                char cell = board[y][x];
+                char kind = board[y][x + 1];
+                if (!isTile(cell, kind)) {
+                    continue;
+                }
+                if (cell == 'A') {
+                    float dx = directionX(kind);
+                    float dy = directionY(kind);
+                    float length = (float) Math.sqrt(dx * dx + dy * dy);
+                    field.set(x, y, REDIRECT, dx / length, dy / length, 0, 0, 1);
+                } else if (kind == 'R') {
+                    field.set(x, y, DRAG, 0, 0, 0, 0, FRICTION);
+                } else {
+                    field.addZone(x, y, kind == 'I' ? PULL : -PULL);
+                }
+                x++;  // Skip the character that names the kind
+            }
+        }
+        field.fixedCells = new int[field.cells.length];
+        for (int i = 0; i < field.cells.length; i++) {
+            field.fixedCells[i] = FixedPhysics.toVelocity(field.cells[i]);
+        }
+        return field;
+    }
+
+    /**
+     * Checks if two characters of a board form a force tile.
+     * @param cell The character of the tile's cell.
+     * @param kind The character after it.
+     * @return True for an accelerator, attractor, repulsor or rough patch.
+     */
+    static boolean isTile(char cell, char kind) {
+        if (cell == 'A') {
+            return "UDLRQEZC".indexOf(kind) >= 0;
+        }
+        return cell == 'F' && (kind == 'I' || kind == 'O' || kind == 'R');
+    }
+
+    /**
+     * Gets the x component of an accelerator's direction.
+     * @param kind The direction character.
+     * @return -1, 0 or 1.
+     */
+    static float directionX(char kind) {
+        return kind == 'L' || kind == 'Q' || kind == 'Z' ? -1 : kind == 'R' || kind == 'E' || kind == 'C' ? 1 : 0;
+    }
+
+    /**
+     * Gets the y component of an accelerator's direction.
+     * @param kind The direction character.
+     * @return -1, 0 or 1.
+     */
+    static float directionY(char kind) {
+        return kind == 'U' || kind == 'Q' || kind == 'E' ? -1 : kind == 'D' || kind == 'Z' || kind == 'C' ? 1 : 0;
+    }
+
+    /**
+     * Gets the index of the cell containing a position.
+     * @param x The x coordinate in pixels.
+     * @param y The y coordinate in pixels.
+     * @return The cell index, or -1 if the position is off the board.
+     */
+    int cellAt(float x, float y) {
+        int cx = (int) (x / App.CELLSIZE);
+        int cy = (int) ((y - App.TOPBAR) / App.CELLSIZE);
+        return x >= 0 && cx < width && y >= App.TOPBAR && cy < height ? cy * width + cx : -1;
+    }
+
+    private void set(int x, int y, byte kind, float redirectX, float redirectY, float pushX, float pushY, float drag) {
+        int cell = y * width + x;
+        int base = cell * FLOATS;
+        if (kinds[cell] == 0) {
+            cells[base + 4] = 1;
+        }
+        kinds[cell] |= kind;
+        cells[base] = redirectX;
+        cells[base + 1] = redirectY;
+        cells[base + 2] += pushX;
+        cells[base + 3] += pushY;
+        cells[base + 4] *= drag;
+    }
+
+    /**
+     * Adds the pushes of an attractor (positive strength) or repulsor (negative) to the cells
+     * around it. The push points at the source and fades with distance.
+     */
+    private void addZone(int sourceX, int sourceY, float strength) {
+        for (int y = Math.max(0, sourceY - REACH); y <= Math.min(height - 1, sourceY + REACH); y++) {
+            for (int x = Math.max(0, sourceX - REACH); x <= Math.min(width - 1, sourceX + REACH); x++) {
+                float dx = sourceX - x;
+                float dy = sourceY - y;
+                float distance = (float) Math.sqrt(dx * dx + dy * dy);
+                if (distance == 0 || distance > REACH) {
+                    continue;
+                }
+                float push = strength * (REACH + 1 - distance) / REACH;
+                int cell = y * width + x;
+                int base = cell * FLOATS;
+                set(x, y, PUSH, cells[base], cells[base + 1], dx / distance * push, dy / distance * push, 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package inkball;
+
+import processing.data.JSONObject;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * The configuration, compiled level layouts and decoded images of a game, loaded once and
+ * shared by any number of games, e.g. the sessions of a server or the tests of a suite.
+ * <p>
+ * Nothing here is changed after loading: games copy the board rows and entry points out of a
+ * layout when they apply it, and only read the configuration and images. Layouts are compiled
+ * the first time a game asks for them, and may be asked for from several threads at once.
+ */
+public class GameAssets {
+    final String configPath;
+    final JSONObject config;
+    private final App loader;  // Resolves paths and decodes files; never runs a game
+    private final boolean withImages;
+    private final Map<String, LevelLayout> layouts = new ConcurrentHashMap<>();
+
+    private GameAssets(String configPath, boolean withImages) {
+        this.configPath = configPath;
+        this.withImages = withImages;
+        this.loader = new App();
+        this.config = loader.loadJSONObject(configPath);
+        if (withImages) {
+            loader.loadImages();
+        }
+    }
+
+    /**
+     * Loads the configuration and, if asked, decodes the images.
+     * @param configPath Path to the configuration file.
+     * @param withImages True to decode the images, so that games can render offscreen.
+     * @return The loaded assets.
+     */
+    public static GameAssets load(String configPath, boolean withImages) {
+        return new GameAssets(configPath, withImages);
+    }
+
+    /**
+     * Checks if the images were decoded.
+     * @return True if games built from these assets can render.
+     */
+    public boolean hasImages() {
+        return withImages;
+    }
+
+    /**
+     * Gets a compiled layout, compiling it the first time it is asked for.
+     * @param layoutFile The path of the layout file.
+     * @param width The width of the board in cells.
+     * @param height The height of the board in cells.
+     * @return The compiled layout.
+     */
+    LevelLayout layout(String layoutFile, int width, int height) {
+        return layouts.computeIfAbsent(layoutFile + "@" + width + "x" + height,
+                key -> LevelLayout.compile(loader.loadStrings(layoutFile), width, height));
+    }
+
+    /**
+     * Gives a game the shared images.
+     * @param app The game to draw with the shared images.
+     */
+    void shareImagesWith(App app) {
+        app.wallImage = loader.wallImage;
+        app.entrypointImage = loader.entrypointImage;
+        app.tileImage = loader.tileImage;
+        app.holeImages = loader.holeImages;
+        app.wallImages = loader.wallImages;
+        app.ballImages = loader.ballImages;
+        app.upAccelerationImage = loader.upAccelerationImage;
+        app.downAccelerationImage = loader.downAccelerationImage;
+        app.sprites = loader.sprites;
+    }
+}
@@ -0,0 +1,244 @@
+package inkball;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.*;
+
+
+/**
+ * Connects to a {@link GameServer} and mirrors its game for drawing.
+ * <p>
+ * The client never simulates: it sends strokes and erases to the server, and applies the state
+ * updates it receives. Each update is a delta against a state the client acknowledged earlier,
+ * so the client keeps the last few states it received. Call {@link #poll()} once per frame
+ * from the drawing thread; it never blocks.
+ */
+public class GameClient {
+    // Most points sent in one stroke message: each point takes at most 6 bytes, and the message
+    // needs a few more for its header and the point count
+    static final int MAX_STROKE_POINTS = (GameServer.MAX_MESSAGE - 16) / 6;
+
+    private final SocketChannel channel;
+    private ByteBuffer in = ByteBuffer.allocate(GameServer.MAX_MESSAGE * 4);  // Grown for larger states
+    private final ByteBuffer out = ByteBuffer.allocate(GameServer.MAX_MESSAGE);
+    private final NetState[] history = new NetState[GameServer.HISTORY];
+    private NetState state;  // The newest state received
+    private final Map<Integer, Ball> ballsById = new HashMap<>();
+
+    // Statistics
+    public long bytesReceived = 0;
+    public long updatesReceived = 0;
+
+    private GameClient(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Connects to a game server.
+     * @param host The server's host name or address.
+     * @param port The server's port.
+     * @return The connected client.
+     * @throws IOException If the connection fails.
+     */
+    public static GameClient connect(String host, int port) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        return new GameClient(channel);
+    }
+
+    /**
+     * Reads every update that has arrived, keeps the newest state and acknowledges it.
+     * @return True if a new state arrived.
+     * @throws IOException If the connection has failed or been closed.
+     */
+    public boolean poll() throws IOException {
+        int read = channel.read(in);
+        if (read < 0) {
+            throw new IOException("Connection closed by the server");
+        }
+        bytesReceived += read;
+
+        boolean received = false;
+        in.flip();
+        while (in.remaining() >= 4) {
+            int length = in.getInt(in.position());
+            if (in.remaining() < 4 + length) {
+                break;
+            }
+            in.getInt();
+            ByteBuffer message = in.slice();
+            message.limit(length);
+            in.position(in.position() + length);
+            if (message.get() == GameServer.MSG_STATE) {
+                NetState next = NetState.readDelta(message, this::stateAt);
+                if (next != null && (state == null || next.tick > state.tick)) {
+                    history[next.tick % history.length] = next;
+                    state = next;
+                    updatesReceived++;
+                    received = true;
+                }
+            }
+        }
+        if (in.remaining() >= 4 && in.getInt(in.position()) + 4 > in.capacity()) {
+            // A state larger than the buffer: grow it so that the rest can arrive
+            ByteBuffer larger = ByteBuffer.allocate(in.getInt(in.position()) + 4);
+            larger.put(in);
+            in = larger;
+        } else {
+            in.compact();
+        }
+
+        if (received) {
+            sendAck(state.tick);
+        }
+        return received;
+    }
+
+    /**
+     * Gets the newest state received.
+     * @return The state, or null if none has arrived yet.
+     */
+    public NetState getState() {
+        return state;
+    }
+
+    /**
+     * Sends a finished stroke to the server. It appears in the game with the next update.
+     * A stroke of more than {@link #MAX_STROKE_POINTS} points would not fit in a message, so it
+     * is sent as several strokes, each starting at the last point of the one before.
+     * @param stroke The stroke.
+     * @throws IOException If the connection has failed.
+     */
+    public void sendStroke(Line stroke) throws IOException {
+        for (int first = 0; first == 0 || first < stroke.size() - 1; first += MAX_STROKE_POINTS - 1) {
+            Line piece = stroke;
+            if (stroke.size() > MAX_STROKE_POINTS) {
+                piece = new Line();
+                for (int i = first; i < Math.min(stroke.size(), first + MAX_STROKE_POINTS); i++) {
+                    piece.addPoint(stroke.getX(i), stroke.getY(i));
+                }
+            }
+            beginMessage(GameServer.MSG_STROKE);
+            NetState.putStroke(out, piece);
+            endMessage();
+        }
+    }
+
+    /**
+     * Asks the server to erase the strokes near a position.
+     * @param x The x coordinate of the position.
+     * @param y The y coordinate of the position.
+     * @throws IOException If the connection has failed.
+     */
+    public void sendErase(float x, float y) throws IOException {
+        beginMessage(GameServer.MSG_ERASE);
+        NetState.putZigzag(out, Math.round(x));
+        NetState.putZigzag(out, Math.round(y));
+        endMessage();
+    }
+
+    /**
+     * Copies the newest state into a local game so that it can be rendered as usual.
+     * The level's board is loaded from the local configuration when the level changes.
+     * @param app The local game to draw with.
+     */
+    public void applyTo(App app) {
+        if (state == null) {
+            return;
+        }
+        if (state.level != app.currentLevel || app.board == null) {
+            app.loadLevel(state.level);
+            app.currentLevel = state.level;
+            app.yellowTile1X = -1;  // Force the yellow tiles to be placed below
+            ballsById.clear();
+        }
+        app.score = state.score;
+        app.timeLeft = state.timeLeft;
+        app.spawnIntervalLeft = state.spawnTenths / 10.0f;
+        app.isPaused = (state.status & NetState.PAUSED) != 0;
+        app.levelEnded = (state.status & NetState.LEVEL_ENDED) != 0;
+        app.gameEnded = (state.status & NetState.GAME_ENDED) != 0;
+        app.timeUp = (state.status & NetState.TIME_UP) != 0;
+
+        // Yellow tiles are drawn into the board once the level has ended
+        int[] tiles = state.yellowTiles;
+        if (app.levelEnded && (tiles[0] != app.yellowTile1X || tiles[1] != app.yellowTile1Y
+                || tiles[2] != app.yellowTile2X || tiles[3] != app.yellowTile2Y)) {
+            if (app.yellowTile1X >= 0) {
+                app.setCell(app.yellowTile1X, app.yellowTile1Y, 'X');
+                app.setCell(app.yellowTile2X, app.yellowTile2Y, 'X');
+            }
+            app.setCell(tiles[0], tiles[1], '4');
+            app.setCell(tiles[2], tiles[3], '4');
+        }
+        app.yellowTile1X = tiles[0];
+        app.yellowTile1Y = tiles[1];
+        app.yellowTile2X = tiles[2];
+        app.yellowTile2Y = tiles[3];
+
+        app.ballsToSpawn.clear();
+        app.ballsToSpawn.addAll(state.getQueue());
+
+        // Reuse the Ball object of every ball still in play
+        app.balls.clear();
+        for (int i = 0; i < state.ballCount; i++) {
+            Ball ball = ballsById.get(state.ballIds[i]);
+            if (ball == null) {
+                ball = new Ball(app, 0, 0, 0);
+                ballsById.put(state.ballIds[i], ball);
+            }
+            ball.position.set(state.getBallX(i), state.getBallY(i));
+            ball.colorIndex = state.ballColors[i];
+            ball.scale = (state.ballScales[i] & 0xFF) / 255.0f;
+            app.balls.add(ball);
+        }
+        if (ballsById.size() > state.ballCount) {
+            ballsById.values().retainAll(app.balls);
+        }
+
+        app.drawnLines.clear();
+        Collections.addAll(app.drawnLines, state.lines);
+    }
+
+    /**
+     * Closes the connection.
+     * @throws IOException If closing fails.
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private NetState stateAt(int tick) {
+        NetState held = history[Math.floorMod(tick, history.length)];
+        return held != null && held.tick == tick ? held : null;
+    }
+
+    private void sendAck(int tick) throws IOException {
+        beginMessage(GameServer.MSG_ACK);
+        NetState.putVarint(out, tick);
+        endMessage();
+    }
+
+    private void beginMessage(byte type) {
+        out.clear();
+        out.putInt(0);
+        out.put(type);
+    }
+
+    /**
+     * Fills in the length and sends the message. Input messages are small, so the socket
+     * takes them whole unless the server has stopped reading.
+     */
+    private void endMessage() throws IOException {
+        out.putInt(0, out.position() - 4);
+        out.flip();
+        while (out.hasRemaining()) {
+            if (channel.write(out) == 0) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+}
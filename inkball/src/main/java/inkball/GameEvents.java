@@ -0,0 +1,275 @@
+package inkball;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * The stream of things that happen in a game: balls falling into holes, taking the colour of a
+ * wall, hitting a stroke or entering the board, and levels ending.
+ * <p>
+ * The physics only records what happened; the effects (the score, requeuing a ball of the wrong
+ * colour, erasing a stroke that was hit) are applied by the game's own listener, and any other
+ * consumer, e.g. a HUD, sound, telemetry or a replay recorder, subscribes the same way. During the
+ * simulation step of a tick the events are held in a preallocated ring buffer and handed to the
+ * listeners in one batch at the end of the step, so recording an event is a few array writes.
+ * A step that publishes more events than the ring holds grows it, so that no effect is applied
+ * while the physics is still walking the balls and strokes. Events published outside a tick, e.g.
+ * a spawn when a level is loaded, are dispatched at once.
+ * <p>
+ * Events are stored as parallel arrays and read by their index in the batch. A batch is only valid
+ * while it is being handled. Used on the game thread only.
+ */
+public class GameEvents {
+    // Kinds of event, with what color, detail, x and y hold
+    public static final int CAPTURE = 0;     // Ball colour, hole colour, centre of the hole
+    public static final int RECOLOUR = 1;    // New ball colour, previous colour, centre of the wall
+    public static final int STROKE_HIT = 2;  // Ball colour, -, position of the ball; stroke() is erased
+    public static final int SPAWN = 3;       // Ball colour, -, position of the ball
+    public static final int LEVEL_END = 4;   // -, index of the level, -
+
+    static final int CAPACITY = 1024;  // Initial size of the ring, a power of two; a fuller step doubles it
+    private static final AtomicLong STEPS = new AtomicLong();  // Numbers the steps of every game
+
+    /**
+     * Receives the events of a game in batches.
+     */
+    public interface Listener {
+        /**
+         * Handles a batch of events.
+         * @param events The batch, read with the accessors by index from 0 to size() - 1.
+         */
+        void onEvents(GameEvents events);
+    }
+
+    private int[] kinds = new int[CAPACITY];
+    private int[] colors = new int[CAPACITY];
+    private int[] details = new int[CAPACITY];
+    private float[] xs = new float[CAPACITY];
+    private float[] ys = new float[CAPACITY];
+    private Ball[] balls = new Ball[CAPACITY];
+    private Line[] strokes = new Line[CAPACITY];
+    private int mask = CAPACITY - 1;
+    private final List<Listener> listeners = new ArrayList<>();
+
+    private int head = 0;        // Index of the oldest event not yet dispatched
+    private int tail = 0;        // Index the next event is written at
+    private int batchStart = 0;  // First event of the batch being dispatched
+    private int batchSize = 0;
+    private boolean holding = false;      // True during a tick's simulation step
+    private boolean dispatching = false;  // True while listeners handle a batch
+    private long step = 0;                // Number of the step being held, unique across games
+
+    // Statistics
+    public long published = 0;
+    public long batches = 0;
+
+    /**
+     * Adds a listener. Listeners are called in the order they were added.
+     * @param listener The listener.
+     */
+    public void subscribe(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener.
+     * @param listener The listener.
+     */
+    public void unsubscribe(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts holding events back, until {@link #dispatch()}.
+     */
+    void hold() {
+        holding = true;
+        step = STEPS.incrementAndGet();
+    }
+
+    /**
+     * Stops holding events back and dispatches those held in one batch.
+     */
+    void dispatch() {
+        holding = false;
+        flush();
+    }
+
+    /**
+     * Records an event.
+     * @param kind The kind of event.
+     * @param ball The ball the event is about, or null.
+     * @param stroke The stroke that was hit, or null.
+     * @param color The colour of the ball, or -1.
+     * @param detail The second value of the kind, see the kinds.
+     * @param x The x coordinate of the event in pixels.
+     * @param y The y coordinate of the event in pixels.
+     */
+    void publish(int kind, Ball ball, Line stroke, int color, int detail, float x, float y) {
+        if (tail - head == kinds.length) {
+            grow();  // Held rather than dispatched early, which would erase strokes mid-step
+        }
+        if (kind == STROKE_HIT) {
+            stroke.hitStep = step;
+        }
+        int i = tail & mask;
+        kinds[i] = kind;
+        balls[i] = ball;
+        strokes[i] = stroke;
+        colors[i] = color;
+        details[i] = detail;
+        xs[i] = x;
+        ys[i] = y;
+        tail++;
+        published++;
+        if (!holding) {
+            flush();
+        }
+    }
+
+    /**
+     * Checks if a stroke was hit during the step being held, so that a stroke is only hit once
+     * per step even though it is erased at the end. The hit marks the stroke itself, so this
+     * does not depend on the number of events pending.
+     * @param stroke The stroke.
+     * @return True if a held event hit the stroke.
+     */
+    boolean isStrokeHitPending(Line stroke) {
+        return holding && stroke.hitStep == step;
+    }
+
+    /**
+     * Doubles the ring, keeping every event at the same position in the sequence.
+     */
+    private void grow() {
+        int capacity = kinds.length * 2;
+        int newMask = capacity - 1;
+        int[] newKinds = new int[capacity];
+        int[] newColors = new int[capacity];
+        int[] newDetails = new int[capacity];
+        float[] newXs = new float[capacity];
+        float[] newYs = new float[capacity];
+        Ball[] newBalls = new Ball[capacity];
+        Line[] newStrokes = new Line[capacity];
+        for (int i = head; i != tail; i++) {
+            newKinds[i & newMask] = kinds[i & mask];
+            newColors[i & newMask] = colors[i & mask];
+            newDetails[i & newMask] = details[i & mask];
+            newXs[i & newMask] = xs[i & mask];
+            newYs[i & newMask] = ys[i & mask];
+            newBalls[i & newMask] = balls[i & mask];
+            newStrokes[i & newMask] = strokes[i & mask];
+        }
+        kinds = newKinds;
+        colors = newColors;
+        details = newDetails;
+        xs = newXs;
+        ys = newYs;
+        balls = newBalls;
+        strokes = newStrokes;
+        mask = newMask;
+    }
+
+    /**
+     * Hands the pending events to the listeners. Events the listeners publish are
+     * dispatched in a batch of their own after this one.
+     */
+    private void flush() {
+        if (dispatching) {
+            return;
+        }
+        dispatching = true;
+        try {
+            while (head != tail) {
+                batchStart = head;
+                batchSize = tail - head;
+                for (int l = 0; l < listeners.size(); l++) {
+                    listeners.get(l).onEvents(this);
+                }
+                for (int i = 0; i < batchSize; i++) {
+                    balls[(batchStart + i) & mask] = null;  // Do not keep captured balls and erased strokes alive
+                    strokes[(batchStart + i) & mask] = null;
+                }
+                head = batchStart + batchSize;
+                batches++;
+            }
+        } finally {
+            batchSize = 0;
+            dispatching = false;
+        }
+    }
+
+    /**
+     * Gets the number of events in the batch being handled.
+     * @return The number of events.
+     */
+    public int size() {
+        return batchSize;
+    }
+
+    /**
+     * Gets the kind of an event of the batch.
+     * @param i The index of the event in the batch.
+     * @return One of the kinds, e.g. {@link #CAPTURE}.
+     */
+    public int kind(int i) {
+        return kinds[(batchStart + i) & mask];
+    }
+
+    /**
+     * Gets the ball an event of the batch is about.
+     * @param i The index of the event in the batch.
+     * @return The ball, or null for a level end.
+     */
+    public Ball ball(int i) {
+        return balls[(batchStart + i) & mask];
+    }
+
+    /**
+     * Gets the stroke that was hit in a stroke hit event of the batch.
+     * @param i The index of the event in the batch.
+     * @return The stroke, or null for the other kinds.
+     */
+    public Line stroke(int i) {
+        return strokes[(batchStart + i) & mask];
+    }
+
+    /**
+     * Gets the colour of the ball of an event of the batch.
+     * @param i The index of the event in the batch.
+     * @return The colour index, or -1 for a level end.
+     */
+    public int color(int i) {
+        return colors[(batchStart + i) & mask];
+    }
+
+    /**
+     * Gets the second value of an event of the batch: the hole's colour for a capture,
+     * the previous colour for a recolour, or the level for a level end.
+     * @param i The index of the event in the batch.
+     * @return The value.
+     */
+    public int detail(int i) {
+        return details[(batchStart + i) & mask];
+    }
+
+    /**
+     * Gets the x coordinate of an event of the batch.
+     * @param i The index of the event in the batch.
+     * @return The x coordinate in pixels.
+     */
+    public float x(int i) {
+        return xs[(batchStart + i) & mask];
+    }
+
+    /**
+     * Gets the y coordinate of an event of the batch.
+     * @param i The index of the event in the batch.
+     * @return The y coordinate in pixels.
+     */
+    public float y(int i) {
+        return ys[(batchStart + i) & mask];
+    }
+}
@@ -0,0 +1,62 @@
+package inkball;
+
+import java.util.Random;
+
+
+/**
+ * The random generator of a game, whose state can be read and put back without drawing from it,
+ * so that a snapshot or a save leaves the game's random choices exactly as they would have been.
+ * <p>
+ * It is the generator of java.util.Random, with the same sequence for the same seed, but keeps
+ * its 48-bit state in a plain field. nextGaussian() keeps a second value that is not part of the
+ * state; the game does not use it. Used on the game thread only.
+ */
+public class GameRandom extends Random {
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    private long state;  // Set by Random's constructors through setSeed()
+
+    /**
+     * Creates a generator with a seed that differs on every call.
+     */
+    public GameRandom() {
+        super();
+    }
+
+    /**
+     * Creates a generator from a seed.
+     * @param seed The seed, as for java.util.Random.
+     */
+    public GameRandom(long seed) {
+        super(seed);
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        state = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    @Override
+    protected int next(int bits) {
+        state = (state * MULTIPLIER + ADDEND) & MASK;
+        return (int) (state >>> (48 - bits));
+    }
+
+    /**
+     * Gets the state of the generator, without drawing from it.
+     * @return The state, as taken by {@link #setState(long)}.
+     */
+    public long getState() {
+        return state;
+    }
+
+    /**
+     * Puts the generator back to a state read with {@link #getState()}.
+     * @param state The state.
+     */
+    public void setState(long state) {
+        this.state = state & MASK;
+    }
+}
@@ -0,0 +1,404 @@
+package inkball;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+
+
+/**
+ * Runs a headless game as the authority for any number of network clients over TCP.
+ * <p>
+ * Clients only draw the game and send input: strokes and erases. Once per tick the server
+ * applies the input received, advances the game and sends every client the new state as a delta
+ * against the last state that client acknowledged (see {@link NetState}). Deltas are encoded once
+ * per distinct base and shared by all clients on that base, so spectators and players who keep up
+ * cost one buffer copy each. A client that falls behind is skipped until its socket drains, and
+ * then catches up with a single delta.
+ * <p>
+ * Everything runs on one thread with a non-blocking selector, so the game needs no locking.
+ * Messages in both directions are framed as a 4-byte length followed by a type byte.
+ */
+public class GameServer implements Runnable {
+    // Client to server messages
+    static final byte MSG_ACK = 1;
+    static final byte MSG_STROKE = 2;
+    static final byte MSG_ERASE = 3;
+    // Server to client messages
+    static final byte MSG_STATE = 10;
+
+    static final int HISTORY = 64;              // Number of past states kept as delta bases
+    static final int MAX_MESSAGE = 64 * 1024;   // Largest message accepted from a client
+    private static final int SEND_BUFFER = 256 * 1024;  // Outgoing bytes buffered per client, grown for larger states
+
+    private final App game;
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final List<Client> clients = new ArrayList<>();
+    private final NetState[] history = new NetState[HISTORY];
+    private final Map<Integer, ByteBuffer> encodedByBase = new HashMap<>();  // Deltas encoded this tick
+    private ByteBuffer scratch = ByteBuffer.allocate(SEND_BUFFER);  // Grown to the largest state encoded
+    private volatile boolean running = false;
+    private Thread thread;
+    private int tick = 0;
+    private int nextBallId = 1;
+    private int nextLineId = 1;
+
+    // Statistics
+    public volatile long bytesSent = 0;
+    public volatile long tickNanos = 0;    // Time spent ticking, encoding and sending
+    public volatile long ticks = 0;
+    public volatile long skippedUpdates = 0;  // Updates not sent because a client's buffer was full
+
+    /**
+     * A connected client and its buffers.
+     */
+    private static class Client {
+        final SocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocate(MAX_MESSAGE + 4);
+        ByteBuffer out = ByteBuffer.allocate(SEND_BUFFER);  // Kept in read mode between writes
+        int ackedTick = -1;
+
+        Client(SocketChannel channel) {
+            this.channel = channel;
+            out.flip();
+        }
+    }
+
+    /**
+     * Creates a server for a game, listening on a port of the loopback interface only.
+     * @param game The headless game to run.
+     * @param port The port to listen on, or 0 for any free port.
+     * @throws IOException If the port cannot be opened.
+     */
+    public GameServer(App game, int port) throws IOException {
+        this(game, InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * Creates a server for a game, listening on a port of the given address.
+     * @param game The headless game to run.
+     * @param address The address to listen on, e.g. the wildcard address to accept clients
+     *                from other machines.
+     * @param port The port to listen on, or 0 for any free port.
+     * @throws IOException If the port cannot be opened.
+     */
+    public GameServer(App game, InetAddress address, int port) throws IOException {
+        this.game = game;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(address, port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Gets the port the server is listening on.
+     * @return The local port.
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Starts running the game and serving clients on a new thread.
+     */
+    public synchronized void start() {
+        if (thread == null) {
+            running = true;
+            thread = new Thread(this, "inkball-server");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops the server thread and closes every connection.
+     * @throws InterruptedException If interrupted while waiting for the thread to end.
+     */
+    public synchronized void stop() throws InterruptedException {
+        running = false;
+        if (thread != null) {
+            selector.wakeup();
+            thread.join();
+            thread = null;
+        }
+    }
+
+    /**
+     * The server loop: waits for network events until the next tick is due, then ticks.
+     */
+    @Override
+    public void run() {
+        long frameNanos = 1_000_000_000L / App.FPS;
+        long nextTick = System.nanoTime();
+        try {
+            while (running) {
+                long wait = nextTick - System.nanoTime();
+                if (wait > 0) {
+                    selector.select(Math.max(1, wait / 1_000_000));
+                } else {
+                    selector.selectNow();
+                }
+                handleEvents();
+                if (System.nanoTime() - nextTick >= 0) {
+                    try {
+                        tickAndBroadcast();
+                    } catch (RuntimeException e) {
+                        // A failed tick must not stop the server or disconnect everyone
+                        System.err.println("Game server tick " + tick + " failed: " + e);
+                    }
+                    nextTick += frameNanos;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Game server stopped: " + e);
+        } finally {
+            for (Client client : clients) {
+                closeQuietly(client.channel);
+            }
+            clients.clear();
+            closeQuietly(serverChannel);
+            closeQuietly(selector);
+        }
+    }
+
+    /**
+     * Accepts new clients, reads their input and finishes pending writes.
+     */
+    private void handleEvents() throws IOException {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            if (!key.isValid()) {
+                continue;
+            }
+            if (key.isAcceptable()) {
+                SocketChannel channel = serverChannel.accept();
+                if (channel != null) {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    Client client = new Client(channel);
+                    channel.register(selector, SelectionKey.OP_READ, client);
+                    clients.add(client);
+                }
+                continue;
+            }
+            Client client = (Client) key.attachment();
+            try {
+                if (key.isReadable()) {
+                    read(client);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    flush(client);
+                }
+            } catch (IOException | RuntimeException e) {
+                disconnect(client);  // A broken or misbehaving client must not stop the server
+            }
+        }
+    }
+
+    /**
+     * Reads whatever a client has sent and handles every complete message.
+     */
+    private void read(Client client) throws IOException {
+        if (client.channel.read(client.in) < 0) {
+            disconnect(client);
+            return;
+        }
+        client.in.flip();
+        while (client.in.remaining() >= 4) {
+            int length = client.in.getInt(client.in.position());
+            if (length <= 0 || length > MAX_MESSAGE) {
+                throw new IOException("Bad message length " + length);
+            }
+            if (client.in.remaining() < 4 + length) {
+                break;
+            }
+            client.in.getInt();
+            int end = client.in.position() + length;
+            ByteBuffer message = client.in.slice();
+            message.limit(length);
+            client.in.position(end);
+            handleMessage(client, message);
+        }
+        client.in.compact();
+    }
+
+    /**
+     * Applies one message from a client. Input is applied straight away, which is always
+     * between ticks since the game runs on this thread.
+     */
+    private void handleMessage(Client client, ByteBuffer message) throws IOException {
+        byte type = message.get();
+        switch (type) {
+            case MSG_ACK:
+                client.ackedTick = Math.max(client.ackedTick, NetState.getVarint(message));
+                break;
+            case MSG_STROKE:
+                Line stroke = NetState.getStroke(message);
+                if (stroke.size() > 1) {
+                    game.drawnLines.add(stroke);
+                }
+                break;
+            case MSG_ERASE:
+                game.eraseLinesNear(NetState.getZigzag(message), NetState.getZigzag(message));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown message type " + type);
+        }
+    }
+
+    /**
+     * Advances the game by one tick and sends the new state to every client.
+     */
+    void tickAndBroadcast() {
+        long start = System.nanoTime();
+        game.tick();
+        tick++;
+
+        // Give new balls and strokes their ids, then record the state
+        for (Ball ball : game.balls) {
+            if (ball.netId == 0) {
+                ball.netId = nextBallId++;
+            }
+        }
+        for (Line line : game.drawnLines) {
+            if (line.netId == 0) {
+                line.netId = nextLineId++;
+            }
+        }
+        NetState state = NetState.capture(game, tick);
+        history[tick % HISTORY] = state;
+
+        encodedByBase.clear();
+        for (int i = clients.size() - 1; i >= 0; i--) {
+            Client client = clients.get(i);
+            NetState base = stateAt(client.ackedTick);
+            int baseTick = base == null ? -1 : base.tick;
+            ByteBuffer encoded = encodedByBase.get(baseTick);
+            if (encoded == null) {
+                encoded = encode(state, base);
+                encodedByBase.put(baseTick, encoded);
+            }
+            send(client, encoded);
+        }
+        ticks++;
+        tickNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Gets a recorded state by its tick, if it is still held.
+     * @param tick The tick number.
+     * @return The state, or null if it is too old or was never recorded.
+     */
+    NetState stateAt(int tick) {
+        if (tick <= 0) {
+            return null;
+        }
+        NetState state = history[tick % HISTORY];
+        return state != null && state.tick == tick ? state : null;
+    }
+
+    /**
+     * Encodes a state message, framed and ready to send. A state larger than any encoded before
+     * grows the scratch buffer and is encoded again.
+     */
+    private ByteBuffer encode(NetState state, NetState base) {
+        while (true) {
+            scratch.clear();
+            scratch.putInt(0);
+            scratch.put(MSG_STATE);
+            try {
+                state.writeDelta(base, scratch);
+                break;
+            } catch (BufferOverflowException e) {
+                scratch = ByteBuffer.allocate(scratch.capacity() * 2);
+            }
+        }
+        scratch.putInt(0, scratch.position() - 4);
+        scratch.flip();
+        ByteBuffer encoded = ByteBuffer.allocate(scratch.remaining());
+        encoded.put(scratch);
+        encoded.flip();
+        return encoded;
+    }
+
+    /**
+     * Appends a message to a client's outgoing buffer and writes as much as the socket takes.
+     * If the buffer has no room, the update is skipped; the next one is a delta against the
+     * client's acknowledged state, so nothing is lost. A message larger than the whole buffer
+     * waits for the buffer to drain, which then grows to take it.
+     */
+    private void send(Client client, ByteBuffer message) {
+        try {
+            client.out.compact();
+            if (client.out.position() == 0 && client.out.capacity() < message.remaining()) {
+                client.out = ByteBuffer.allocate(Math.max(client.out.capacity() * 2, message.remaining()));
+            }
+            if (client.out.remaining() < message.remaining()) {
+                client.out.flip();
+                skippedUpdates++;
+                return;
+            }
+            client.out.put(message.duplicate());
+            client.out.flip();
+            flush(client);
+        } catch (IOException e) {
+            disconnect(client);
+        }
+    }
+
+    /**
+     * Writes buffered bytes to a client, and waits for the socket to become writable if it is full.
+     */
+    private void flush(Client client) throws IOException {
+        bytesSent += client.channel.write(client.out);
+        SelectionKey key = client.channel.keyFor(selector);
+        if (key != null && key.isValid()) {
+            key.interestOps(client.out.hasRemaining()
+                    ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+    }
+
+    private void disconnect(Client client) {
+        clients.remove(client);
+        closeQuietly(client.channel);
+    }
+
+    /**
+     * Gets the number of connected clients.
+     * @return The number of clients.
+     */
+    public int clientCount() {
+        return clients.size();
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing more can be done with a connection that fails to close
+        }
+    }
+
+    /**
+     * Runs a game server until the process is stopped. It listens on the loopback interface
+     * unless a bind address is given, e.g. 0.0.0.0 for every interface.
+     * Arguments: [port] [config path] [bind address].
+     * @param args The command line arguments.
+     * @throws IOException If the port cannot be opened.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7070;
+        String configPath = args.length > 1 ? args[1] : "config.json";
+        InetAddress address = args.length > 2 ? InetAddress.getByName(args[2]) : InetAddress.getLoopbackAddress();
+        GameServer server = new GameServer(App.createHeadless(configPath), address, port);
+        System.out.println("Serving inkball on " + address.getHostAddress() + " port " + server.getPort());
+        server.run();
+    }
+}
@@ -0,0 +1,256 @@
+package inkball;
+
+import processing.core.PVector;
+import java.util.*;
+
+
+/**
+ * A snapshot of a game's state that can be restored later, e.g. to try out a stroke and
+ * simulate ahead before going back to the present.
+ * <p>
+ * Capturing and restoring are cheap enough to do thousands of times per second:
+ * <ul>
+ *   <li>Board rows, the hole map and the entry points are shared with the game rather than copied.
+ *       The game copies a shared row or map before writing to it (copy-on-write), so restoring
+ *       only swaps references back.</li>
+ *   <li>Balls are kept alive and their physics state is written into flat arrays, so restoring
+ *       puts the same Ball objects back and overwrites their fields.</li>
+ *   <li>Strokes never change once drawn, so only references to them are kept.</li>
+ * </ul>
+ * A snapshot object can be captured into again and again; its buffers are reused.
+ * The stroke the player is drawing at the time is not part of the game state.
+ */
+public class GameSnapshot {
+    // Number of floats stored per ball in ballFloats
+    static final int BALL_FLOATS = 8;
+
+    // Board, holes, entry points and force field, shared with the game
+    char[][] boardRows;
+    ForceField forces;
+    Map<PVector, Integer> holeTypes;
+    List<PVector> entrypoints;
+
+    // Balls, kept alive, with their state in flat arrays
+    Ball[] balls = new Ball[16];
+    float[] ballFloats = new float[16 * BALL_FLOATS];
+    int[] ballColors = new int[16];
+    long[] ballAccelerationStart = new long[16];
+    boolean[] ballCaptured = new boolean[16];
+    boolean[] ballInGame = new boolean[16];
+    int ballCount;
+
+    // Strokes and the spawn queue
+    Line[] lines = new Line[16];
+    int lineCount;
+    String[] ballsToSpawn = new String[16];
+    int spawnCount;
+
+    // Scalar game state
+    int score;
+    int levelStartScore;
+    int timeLeft;
+    int currentLevel;
+    int spawnInterval;
+    float spawnIntervalLeft;
+    int lastSpawnTime;
+    float lastFrameTime;
+    long lastYellowTileMoveTime;
+    int tickCount;
+    int remainingTimeBonus;
+    float scoreIncreaseModifier;
+    float scoreDecreaseModifier;
+    int yellowTile1X, yellowTile1Y, yellowTile2X, yellowTile2Y;
+    boolean isPaused, levelEnded, postLevelInProgress, gameEnded, timeUp;
+    long randomState;  // State of the game's random generator when the snapshot was taken
+    int clock;        // The game's clock (gameMillis) when the snapshot was taken
+
+    /**
+     * Captures the state of a game into this snapshot, reusing its buffers.
+     * The state of the game's random generator is copied without drawing from it, so that taking
+     * a snapshot never changes the game, and restoring replays the same random choices.
+     * @param app The game to capture.
+     */
+    public void capture(App app) {
+        // Share the board rows; the game copies a row before it next writes to it
+        if (boardRows == null || boardRows.length != app.board.length) {
+            boardRows = new char[app.board.length][];
+        }
+        System.arraycopy(app.board, 0, boardRows, 0, app.board.length);
+        Arrays.fill(app.boardRowShared, true);
+        forces = app.forces;  // Never changed once compiled
+
+        // Share the hole map and entry points, which only change when a layout is applied
+        holeTypes = app.holeTypesMap;
+        entrypoints = app.entrypoints;
+        app.layoutShared = true;
+
+        // Balls
+        ballCount = app.balls.size();
+        ensureBallCapacity(ballCount);
+        for (int i = 0; i < ballCount; i++) {
+            Ball ball = app.balls.get(i);
+            balls[i] = ball;
+            int base = i * BALL_FLOATS;
+            ballFloats[base] = ball.position.x;
+            ballFloats[base + 1] = ball.position.y;
+            ballFloats[base + 2] = ball.velocity.x;
+            ballFloats[base + 3] = ball.velocity.y;
+            ballFloats[base + 4] = ball.scale;
+            ballFloats[base + 5] = ball.accelerationFactor;
+            ballFloats[base + 6] = ball.distanceToHole;
+            ballFloats[base + 7] = ball.radius;
+            ballColors[i] = ball.colorIndex;
+            ballAccelerationStart[i] = ball.accelerationStartTime;
+            ballCaptured[i] = ball.isCaptured;
+            ballInGame[i] = ball.inGame;
+        }
+        Arrays.fill(balls, ballCount, balls.length, null);  // Let go of balls from earlier captures
+
+        // Strokes
+        lineCount = app.drawnLines.size();
+        if (lines.length < lineCount) {
+            lines = new Line[Math.max(lineCount, lines.length * 2)];
+        }
+        for (int i = 0; i < lineCount; i++) {
+            lines[i] = app.drawnLines.get(i);
+        }
+        Arrays.fill(lines, lineCount, lines.length, null);
+
+        // Spawn queue
+        spawnCount = app.ballsToSpawn.size();
+        if (ballsToSpawn.length < spawnCount) {
+            ballsToSpawn = new String[Math.max(spawnCount, ballsToSpawn.length * 2)];
+        }
+        int index = 0;
+        for (String color : app.ballsToSpawn) {
+            ballsToSpawn[index++] = color;
+        }
+
+        // Scalars
+        score = app.score;
+        levelStartScore = app.levelStartScore;
+        timeLeft = app.timeLeft;
+        currentLevel = app.currentLevel;
+        spawnInterval = app.spawnInterval;
+        spawnIntervalLeft = app.spawnIntervalLeft;
+        lastSpawnTime = app.lastSpawnTime;
+        lastFrameTime = app.lastFrameTime;
+        lastYellowTileMoveTime = app.lastYellowTileMoveTime;
+        tickCount = app.tickCount;
+        remainingTimeBonus = app.remainingTimeBonus;
+        scoreIncreaseModifier = app.scoreIncreaseModifier;
+        scoreDecreaseModifier = app.scoreDecreaseModifier;
+        yellowTile1X = app.yellowTile1X;
+        yellowTile1Y = app.yellowTile1Y;
+        yellowTile2X = app.yellowTile2X;
+        yellowTile2Y = app.yellowTile2Y;
+        isPaused = app.isPaused;
+        levelEnded = app.levelEnded;
+        postLevelInProgress = app.postLevelInProgress;
+        gameEnded = app.gameEnded;
+        timeUp = app.timeUp;
+        clock = app.gameMillis();
+
+        randomState = app.random.getState();
+    }
+
+    /**
+     * Restores a game to the state in this snapshot. Only references and the fields of
+     * live objects are written; nothing that the game shares with the snapshot is copied.
+     * @param app The game to restore.
+     */
+    public void restore(App app) {
+        if (app.board.length != boardRows.length || app.boardWidth != boardRows[0].length) {
+            // The game has since moved to a level with a board of another size
+            app.board = new char[boardRows.length][];
+            app.boardRowShared = new boolean[boardRows.length];
+            app.boardHeight = boardRows.length;
+            app.boardWidth = boardRows[0].length;
+        }
+        // Swap back rows the game has replaced since the snapshot, and share them all again
+        for (int y = 0; y < boardRows.length; y++) {
+            if (app.board[y] != boardRows[y]) {
+                app.board[y] = boardRows[y];
+                app.boardVersion++;
+            }
+        }
+        Arrays.fill(app.boardRowShared, true);
+        app.forces = forces;
+
+        app.holeTypesMap = holeTypes;
+        app.entrypoints = entrypoints;
+        app.layoutShared = true;
+
+        // Put the same balls back and overwrite their state
+        app.balls.clear();
+        app.collisionEpoch++;  // Balls jump back, so skipped stroke pairs are tested again
+        app.timersStale = true;  // And so does the clock their boosts are timed on
+        for (int i = 0; i < ballCount; i++) {
+            Ball ball = balls[i];
+            int base = i * BALL_FLOATS;
+            ball.position.set(ballFloats[base], ballFloats[base + 1]);
+            ball.velocity.set(ballFloats[base + 2], ballFloats[base + 3]);
+            ball.scale = ballFloats[base + 4];
+            ball.accelerationFactor = ballFloats[base + 5];
+            ball.distanceToHole = ballFloats[base + 6];
+            ball.radius = ballFloats[base + 7];
+            ball.colorIndex = ballColors[i];
+            ball.accelerationStartTime = ballAccelerationStart[i];
+            ball.isCaptured = ballCaptured[i];
+            ball.inGame = ballInGame[i];
+            app.balls.add(ball);
+        }
+
+        app.drawnLines.clear();
+        for (int i = 0; i < lineCount; i++) {
+            app.drawnLines.add(lines[i]);
+        }
+
+        app.ballsToSpawn.clear();
+        for (int i = 0; i < spawnCount; i++) {
+            app.ballsToSpawn.add(ballsToSpawn[i]);
+        }
+
+        app.score = score;
+        app.levelStartScore = levelStartScore;
+        app.timeLeft = timeLeft;
+        app.currentLevel = currentLevel;
+        app.spawnInterval = spawnInterval;
+        app.spawnIntervalLeft = spawnIntervalLeft;
+        app.lastSpawnTime = lastSpawnTime;
+        app.lastFrameTime = lastFrameTime;
+        app.lastYellowTileMoveTime = lastYellowTileMoveTime;
+        app.tickCount = tickCount;
+        app.remainingTimeBonus = remainingTimeBonus;
+        app.scoreIncreaseModifier = scoreIncreaseModifier;
+        app.scoreDecreaseModifier = scoreDecreaseModifier;
+        app.yellowTile1X = yellowTile1X;
+        app.yellowTile1Y = yellowTile1Y;
+        app.yellowTile2X = yellowTile2X;
+        app.yellowTile2Y = yellowTile2Y;
+        app.isPaused = isPaused;
+        app.levelEnded = levelEnded;
+        app.postLevelInProgress = postLevelInProgress;
+        app.gameEnded = gameEnded;
+        app.timeUp = timeUp;
+
+        app.random.setState(randomState);
+    }
+
+    /**
+     * Grows the ball buffers so that they can hold the given number of balls.
+     * @param count The number of balls to hold.
+     */
+    private void ensureBallCapacity(int count) {
+        if (balls.length >= count) {
+            return;
+        }
+        int capacity = Math.max(count, balls.length * 2);
+        balls = Arrays.copyOf(balls, capacity);
+        ballFloats = Arrays.copyOf(ballFloats, capacity * BALL_FLOATS);
+        ballColors = Arrays.copyOf(ballColors, capacity);
+        ballAccelerationStart = Arrays.copyOf(ballAccelerationStart, capacity);
+        ballCaptured = Arrays.copyOf(ballCaptured, capacity);
+        ballInGame = Arrays.copyOf(ballInGame, capacity);
+    }
+}
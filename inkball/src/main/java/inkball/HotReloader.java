@@ -0,0 +1,259 @@
+package inkball;
+
+import processing.core.PApplet;
+import processing.data.JSONArray;
+import processing.data.JSONObject;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+/**
+ * Watches a game's configuration and layout files and applies edits to the running game.
+ * <p>
+ * A background thread waits on a {@link WatchService} and re-parses only the file that changed:
+ * the configuration, along with the layouts of levels whose layout or board size it changed, or a
+ * layout, which is compiled for every level that uses it. The parsed result is queued, and the
+ * game applies it at the start of its next tick, so the game's state is only ever changed on the
+ * game thread, which never reads or compiles a file for it. Only what differs is applied: new score tables, the
+ * current level's spawn interval, time limit or score modifiers, or the changed rows, holes and
+ * entry points of the current board. Balls, strokes, the score and the spawn queue are kept, and
+ * no image is loaded again. Edits to other levels are picked up when those levels are loaded,
+ * and a next level already being preloaded is compiled again.
+ * <p>
+ * A file that fails to parse, e.g. one saved halfway, is reported and skipped.
+ */
+public class HotReloader implements Runnable {
+    private static final long SETTLE_MILLIS = 50;  // Editors often write a file in several steps
+
+    private final App game;
+    private final WatchService watcher;
+    private final Path configFile;
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();  // Parsed changes for the game thread
+    private final Set<Path> watchedDirs = new HashSet<>();
+    private JSONObject config;  // The newest configuration parsed, used to find and size the layouts
+    private Thread thread;
+
+    // Statistics
+    public volatile int reloads = 0;
+
+    private HotReloader(App game) throws IOException {
+        this.game = game;
+        this.watcher = FileSystems.getDefault().newWatchService();
+        this.configFile = resolve(game.configPath);
+        this.config = game.config;
+        watchFiles();
+    }
+
+    /**
+     * Starts watching a game's files. The game applies the changes itself from then on.
+     * @param game The game to reload; its configuration must be loaded.
+     * @return The running reloader.
+     * @throws IOException If the directories cannot be watched.
+     */
+    public static HotReloader watch(App game) throws IOException {
+        HotReloader reloader = new HotReloader(game);
+        reloader.thread = new Thread(reloader, "inkball-reload");
+        reloader.thread.setDaemon(true);
+        reloader.thread.start();
+        game.reloader = reloader;
+        return reloader;
+    }
+
+    /**
+     * Stops watching. Changes already parsed are still applied.
+     * @throws IOException If the watch service cannot be closed.
+     */
+    public void close() throws IOException {
+        watcher.close();
+    }
+
+    /**
+     * Applies every change parsed since the last call. Called by the game at a tick boundary.
+     */
+    void applyPending() {
+        Runnable change;
+        while ((change = pending.poll()) != null) {
+            change.run();
+            reloads++;
+        }
+    }
+
+    /**
+     * The watcher loop: waits for changes, lets the files settle, then parses each changed file once.
+     */
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                Thread.sleep(SETTLE_MILLIS);
+                Set<Path> changed = new LinkedHashSet<>();
+                while (key != null) {
+                    Path dir = (Path) key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() != StandardWatchEventKinds.OVERFLOW) {
+                            changed.add(dir.resolve((Path) event.context()));
+                        }
+                    }
+                    key.reset();
+                    key = watcher.poll();
+                }
+                for (Path file : changed) {
+                    parse(file);
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // Closed, nothing more to watch
+        }
+    }
+
+    /**
+     * Parses a changed file, if the game uses it, and queues the change.
+     */
+    private void parse(Path file) {
+        try {
+            if (file.equals(configFile)) {
+                JSONObject parsed = PApplet.loadJSONObject(file.toFile());
+                JSONArray levels = parsed.getJSONArray("levels");  // Fails here rather than in the game if the file is incomplete
+                JSONArray previousLevels = config.getJSONArray("levels");
+                Map<Integer, LevelLayout> layouts = new HashMap<>();
+                Map<Path, String[]> read = new HashMap<>();
+                for (int i = 0; i < levels.size(); i++) {
+                    JSONObject level = levels.getJSONObject(i);
+                    if (i >= previousLevels.size() || !sameBoard(previousLevels.getJSONObject(i), level)) {
+                        layouts.put(i, compile(resolve(level.getString("layout")), level, read));
+                    }
+                }
+                config = parsed;
+                watchFiles();  // The levels may name new layout files
+                pending.add(() -> applyConfig(parsed, layouts));
+                return;
+            }
+            Map<Integer, LevelLayout> layouts = new HashMap<>();
+            Map<Path, String[]> read = new HashMap<>();
+            JSONArray levels = config.getJSONArray("levels");
+            for (int i = 0; i < levels.size(); i++) {
+                JSONObject level = levels.getJSONObject(i);
+                if (file.equals(resolve(level.getString("layout")))) {
+                    layouts.put(i, compile(file, level, read));
+                }
+            }
+            if (!layouts.isEmpty()) {
+                pending.add(() -> applyLayout(file, layouts));
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Not reloading " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Compiles a level's layout at the level's board size, reading each file once per change.
+     */
+    private static LevelLayout compile(Path file, JSONObject level, Map<Path, String[]> read) throws IOException {
+        String[] lines = read.get(file);
+        if (lines == null) {
+            lines = Files.readAllLines(file).toArray(new String[0]);
+            read.put(file, lines);
+        }
+        return LevelLayout.compile(lines, level.getInt("width", App.BOARD_WIDTH), level.getInt("height", App.BOARD_HEIGHT));
+    }
+
+    /**
+     * Applies a new configuration, changing only what differs from the one the game runs with.
+     * @param layouts The layouts compiled on the watcher for the levels whose board changed.
+     */
+    private void applyConfig(JSONObject next, Map<Integer, LevelLayout> layouts) {
+        JSONObject previous = game.config;
+        game.config = next;
+        game.totalLevels = next.getJSONArray("levels").size();
+        List<String> applied = new ArrayList<>();
+
+        if (!sameValue(previous, next, "score_increase_from_hole_capture")
+                || !sameValue(previous, next, "score_decrease_from_wrong_hole")) {
+            game.scoreIncreaseMap.clear();
+            game.scoreDecreaseMap.clear();
+            game.loadScoreRules();
+            applied.add("score tables");
+        }
+
+        int index = game.currentLevel;
+        JSONArray previousLevels = previous.getJSONArray("levels");
+        JSONArray nextLevels = next.getJSONArray("levels");
+        if (index < previousLevels.size() && index < nextLevels.size()) {
+            JSONObject was = previousLevels.getJSONObject(index);
+            JSONObject level = nextLevels.getJSONObject(index);
+            if (!sameValue(was, level, "spawn_interval")) {
+                game.spawnInterval = level.getInt("spawn_interval");
+                game.spawnIntervalLeft = Math.min(game.spawnIntervalLeft, game.spawnInterval);
+                applied.add("spawn interval");
+            }
+            if (!sameValue(was, level, "time")) {
+                game.timeLeft += level.getInt("time") - was.getInt("time");  // Time already played still counts
+                applied.add("time");
+            }
+            if (!sameValue(was, level, "score_increase_from_hole_capture_modifier")
+                    || !sameValue(was, level, "score_decrease_from_wrong_hole_modifier")) {
+                game.scoreIncreaseModifier = (float) level.getDouble("score_increase_from_hole_capture_modifier");
+                game.scoreDecreaseModifier = (float) level.getDouble("score_decrease_from_wrong_hole_modifier");
+                applied.add("score modifiers");
+            }
+            LevelLayout layout = layouts.get(index);
+            if (layout != null && !sameBoard(was, level)) {
+                game.reloadLayout(layout);
+                applied.add("layout");
+            }
+        }
+        game.refreshPreloadedLevel();  // A level preloaded from the old configuration is compiled again
+        System.out.println("Reloaded " + configFile.getFileName()
+                + (applied.isEmpty() ? ": nothing changed for the current level" : ": " + String.join(", ", applied)));
+    }
+
+    /**
+     * Applies a recompiled layout if the current level uses it.
+     */
+    private void applyLayout(Path file, Map<Integer, LevelLayout> layouts) {
+        game.refreshPreloadedLevel();
+        LevelLayout layout = layouts.get(game.currentLevel);
+        if (layout != null) {
+            int rows = game.reloadLayout(layout);
+            System.out.println("Reloaded " + file.getFileName() + ": " + rows + " rows changed");
+        }
+    }
+
+    /**
+     * Watches the directory of the configuration and of every layout it names.
+     */
+    private void watchFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        files.add(configFile);
+        JSONArray levels = config.getJSONArray("levels");
+        for (int i = 0; i < levels.size(); i++) {
+            files.add(resolve(levels.getJSONObject(i).getString("layout")));
+        }
+        for (Path file : files) {
+            Path dir = file.getParent();
+            if (dir != null && watchedDirs.add(dir)) {
+                dir.register(watcher, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+            }
+        }
+    }
+
+    private Path resolve(String path) {
+        return Paths.get(game.sketchPath(path)).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Checks if two versions of a level have the same layout file and board size.
+     */
+    private static boolean sameBoard(JSONObject a, JSONObject b) {
+        return sameValue(a, b, "layout") && sameValue(a, b, "width") && sameValue(a, b, "height");
+    }
+
+    private static boolean sameValue(JSONObject a, JSONObject b, String key) {
+        Object x = a.hasKey(key) ? a.get(key) : null;
+        Object y = b.hasKey(key) ? b.get(key) : null;
+        return x == null ? y == null : y != null && x.toString().equals(y.toString());
+    }
+}
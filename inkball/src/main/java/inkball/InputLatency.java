@@ -0,0 +1,231 @@
+package inkball;
+
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Measures how long the player's input takes to show and to matter, as three histograms:
+ * <ul>
+ *   <li>input to handler: from the moment the window received a mouse or key event to the moment
+ *       the game handled it. Processing queues events until the start of the next frame, so this
+ *       is mostly the wait for the frame.</li>
+ *   <li>input to frame: from the moment an event was received to the end of the first frame drawn
+ *       after it was handled, which is the first frame that can show its effect. The time the
+ *       display takes to put that frame on the screen is not seen here.</li>
+ *   <li>stroke to collision: from the release of the mouse that finished a stroke to the first
+ *       tick whose collision check includes the stroke. While the game is paused, strokes wait.</li>
+ * </ul>
+ * Events carry the wall-clock time the window received them in milliseconds; the time they
+ * waited since then is taken off the high-resolution clock when they are handled. Recording
+ * allocates nothing. The methods are synchronized because Processing handles input on the
+ * window's event thread while the draw loop is stopped.
+ */
+public class InputLatency {
+    static final int PENDING = 1024;  // Most handled inputs waiting for a frame
+    private static final long MAX_QUEUED_MILLIS = 10_000;  // Longer waits come from a wrong event time
+
+    /**
+     * A histogram of durations with buckets about 6% wide, from one microsecond to about 19 hours.
+     * Each power of two is split into 16 buckets, so percentiles are read to within one bucket
+     * without keeping the samples.
+     */
+    public static final class Histogram {
+        private static final int SUB_BUCKETS = 16;
+        private static final int MAX_EXPONENT = 36;  // Durations of 2^36 microseconds or more go in the last bucket
+        private final long[] counts = new long[(MAX_EXPONENT - 3) * SUB_BUCKETS];
+        private long count = 0;
+        private long totalMicros = 0;
+        private long maxMicros = 0;
+
+        /**
+         * Adds a duration.
+         * @param nanos The duration in nanoseconds; negative durations count as zero.
+         */
+        public void record(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            counts[Math.min(counts.length - 1, bucket(micros))]++;
+            count++;
+            totalMicros += micros;
+            maxMicros = Math.max(maxMicros, micros);
+        }
+
+        private static int bucket(long micros) {
+            if (micros < SUB_BUCKETS) {
+                return (int) micros;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(micros);  // At least 4
+            return (exponent - 3) * SUB_BUCKETS + (int) ((micros >>> (exponent - 4)) & (SUB_BUCKETS - 1));
+        }
+
+        private static long lowest(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_BUCKETS + 3;
+            return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - 4);
+        }
+
+        /**
+         * Gets the number of durations added.
+         * @return The count.
+         */
+        public long count() {
+            return count;
+        }
+
+        /**
+         * Gets the duration below which a given share of the durations fall.
+         * @param percent The share, from 0 to 100.
+         * @return The highest duration of the bucket holding that share, at most the longest
+         *         duration, in microseconds; 0 if nothing was added.
+         */
+        public long percentile(double percent) {
+            long rank = Math.max(1, (long) Math.ceil(percent / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(maxMicros, lowest(i + 1) - 1);
+                }
+            }
+            return maxMicros;
+        }
+
+        /**
+         * Gets the longest duration added.
+         * @return The duration in microseconds.
+         */
+        public long max() {
+            return maxMicros;
+        }
+
+        /**
+         * Gets the average duration.
+         * @return The mean in microseconds, or 0 if nothing was added.
+         */
+        public double mean() {
+            return count == 0 ? 0 : totalMicros / (double) count;
+        }
+
+        /**
+         * Removes every duration.
+         */
+        public void clear() {
+            Arrays.fill(counts, 0);
+            count = 0;
+            totalMicros = 0;
+            maxMicros = 0;
+        }
+    }
+
+    public final Histogram inputToHandler = new Histogram();
+    public final Histogram inputToFrame = new Histogram();
+    public final Histogram strokeToCollision = new Histogram();
+
+    private final long[] pending = new long[PENDING];  // Arrival times of handled inputs not yet drawn
+    private int pendingCount = 0;
+    private volatile int strokesWaiting = 0;  // Strokes finished since the last collision check
+
+    // Statistics
+    public long overflowed = 0;  // Inputs not timed to a frame because too many were waiting
+
+    /**
+     * Times an input event the game has just handled.
+     * @param eventMillis The wall-clock time the window received the event, as in
+     *                    Event.getMillis(), or 0 if it is not known and the event arrived now.
+     * @return The time the event arrived, on the System.nanoTime() clock.
+     */
+    public synchronized long inputHandled(long eventMillis) {
+        long now = System.nanoTime();
+        long queuedMillis = eventMillis > 0 ? System.currentTimeMillis() - eventMillis : 0;
+        long arrived = now - Math.max(0, Math.min(MAX_QUEUED_MILLIS, queuedMillis)) * 1_000_000;
+        inputToHandler.record(now - arrived);
+        if (pendingCount < PENDING) {
+            pending[pendingCount++] = arrived;
+        } else {
+            overflowed++;
+        }
+        return arrived;
+    }
+
+    /**
+     * Times every input handled since the last frame against this frame. Called once a whole
+     * frame has been drawn.
+     */
+    public synchronized void frameDrawn() {
+        if (pendingCount == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (int i = 0; i < pendingCount; i++) {
+            inputToFrame.record(now - pending[i]);
+        }
+        pendingCount = 0;
+    }
+
+    /**
+     * Marks a stroke as finished by an input, so that its first collision check is timed.
+     * @param stroke The stroke, added to the game's strokes.
+     * @param arrived The time the input that finished it arrived, as returned by inputHandled().
+     */
+    public synchronized void strokeFinished(Line stroke, long arrived) {
+        stroke.finishedNanos = arrived;
+        strokesWaiting++;
+    }
+
+    /**
+     * Checks if any finished stroke has not been part of a collision check yet. Cheap enough to
+     * call before every check.
+     * @return True if strokesChecked() has strokes to time.
+     */
+    public boolean hasStrokesWaiting() {
+        return strokesWaiting > 0;
+    }
+
+    /**
+     * Times the finished strokes among those about to be checked for collisions.
+     * @param strokes The strokes the collision check includes.
+     */
+    public synchronized void strokesChecked(List<Line> strokes) {
+        long now = System.nanoTime();
+        for (int i = 0; i < strokes.size(); i++) {
+            Line stroke = strokes.get(i);
+            if (stroke.finishedNanos != 0) {
+                strokeToCollision.record(now - stroke.finishedNanos);
+                stroke.finishedNanos = 0;
+            }
+        }
+        strokesWaiting = 0;  // Strokes erased before their first check are not timed
+    }
+
+    /**
+     * Removes every recorded duration and waiting input.
+     */
+    public synchronized void clear() {
+        inputToHandler.clear();
+        inputToFrame.clear();
+        strokeToCollision.clear();
+        pendingCount = 0;
+        overflowed = 0;
+    }
+
+    /**
+     * Describes the three histograms as a table in milliseconds.
+     * @return The report, one line per histogram after a header.
+     */
+    public synchronized String report() {
+        StringBuilder text = new StringBuilder(String.format("%-20s %8s %8s %8s %8s %8s %8s%n",
+                "Latency (ms)", "count", "mean", "p50", "p90", "p99", "max"));
+        row(text, "input to handler", inputToHandler);
+        row(text, "input to frame", inputToFrame);
+        row(text, "stroke to collision", strokeToCollision);
+        return text.toString();
+    }
+
+    private static void row(StringBuilder text, String name, Histogram histogram) {
+        text.append(String.format("%-20s %8d %8.2f %8.2f %8.2f %8.2f %8.2f%n", name, histogram.count(),
+                histogram.mean() / 1000, histogram.percentile(50) / 1000.0, histogram.percentile(90) / 1000.0,
+                histogram.percentile(99) / 1000.0, histogram.max() / 1000.0));
+    }
+}
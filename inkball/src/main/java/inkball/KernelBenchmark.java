@@ -0,0 +1,136 @@
+package inkball;
+
+import java.util.Random;
+
+
+/**
+ * Measures the ball kernels at 1k, 10k and 100k balls: the move and edge passes alone on packed
+ * arrays, scalar against vector, and a whole updateBalls() of a headless game with that many
+ * balls, one ball at a time against each kernel. The vector kernel is only measured when the JVM
+ * was started with "--add-modules jdk.incubator.vector", as the kernelBenchmark task does.
+ * <p>
+ * Arguments: [config path] [ball counts...].
+ */
+public class KernelBenchmark {
+    private static final int REPEATS = 7;   // Best of this many runs is reported
+    private static final int TICKS = 20;    // Ticks per run of updateBalls()
+
+    /**
+     * Runs the benchmark and prints the results.
+     * @param args The command line arguments.
+     */
+    public static void main(String[] args) {
+        String configPath = args.length > 0 ? args[0] : "config.json";
+        int[] counts = {1_000, 10_000, 100_000};
+        if (args.length > 1) {
+            counts = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                counts[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        BallKernel scalar = new BallKernel();
+        BallKernel vector = BallKernel.create();
+        if (vector.getClass() == BallKernel.class) {
+            System.out.println("The Vector API is not available; only the scalar kernel is measured");
+        }
+
+        for (int count : counts) {
+            // The move and edge passes alone
+            double scalarNanos = passes(scalar, count);
+            double vectorNanos = passes(vector, count);
+            System.out.printf("%7d balls, passes: %s %.2f ns, %s %.2f ns per ball (%.1fx)%n",
+                    count, scalar.name(), scalarNanos, vector.name(), vectorNanos, scalarNanos / vectorNanos);
+
+            // A whole update of a game
+            App game = App.createHeadless(configPath, 1);
+            Random random = new Random(count);
+            game.balls.clear();
+            for (int i = 0; i < count; i++) {
+                float x = App.CELLSIZE + random.nextFloat() * (game.boardWidth - 2) * App.CELLSIZE;
+                float y = App.TOPBAR + App.CELLSIZE + random.nextFloat() * (game.boardHeight - 2) * App.CELLSIZE;
+                game.balls.add(new Ball(game, x, y, random.nextInt(5)));
+            }
+            GameSnapshot start = game.snapshot();
+            for (BallKernel warmUp : new BallKernel[]{null, scalar, vector}) {
+                updates(game, start, warmUp);  // Compile every path before any is timed
+            }
+            double perBall = updates(game, start, null);
+            String perBallState = positions(game);
+            double kernelScalar = updates(game, start, scalar);
+            boolean scalarSame = positions(game).equals(perBallState);
+            double kernelVector = updates(game, start, vector);
+            boolean vectorSame = positions(game).equals(perBallState);
+            System.out.printf("%7d balls, updateBalls(): per ball %.1f ns, %s %.1f ns (%.2fx), %s %.1f ns (%.2fx) per ball;"
+                            + " same positions: %b, %b%n",
+                    count, perBall, scalar.name(), kernelScalar, perBall / kernelScalar,
+                    vector.name(), kernelVector, perBall / kernelVector, scalarSame, vectorSame);
+        }
+    }
+
+    /**
+     * Times integrate() and bounce() on random packed balls.
+     * @return The best time per ball in nanoseconds.
+     */
+    private static double passes(BallKernel kernel, int count) {
+        kernel.ensureCapacity(count);
+        Random random = new Random(count);
+        float maxX = App.BOARD_WIDTH * App.CELLSIZE;
+        float maxY = App.TOPBAR + App.BOARD_HEIGHT * App.CELLSIZE;
+        for (int i = 0; i < count; i++) {
+            kernel.x[i] = random.nextFloat() * maxX;
+            kernel.y[i] = App.TOPBAR + random.nextFloat() * (maxY - App.TOPBAR);
+            kernel.vx[i] = random.nextBoolean() ? 2 : -2;
+            kernel.vy[i] = random.nextBoolean() ? 2 : -2;
+            kernel.factor[i] = random.nextInt(4) == 0 ? 1.5f : 1.0f;
+            kernel.radius[i] = 12;
+        }
+        int rounds = Math.max(10, 20_000_000 / count);
+        double best = Double.MAX_VALUE;
+        for (int repeat = 0; repeat < REPEATS; repeat++) {
+            long begin = System.nanoTime();
+            for (int round = 0; round < rounds; round++) {
+                kernel.integrate(count);
+                kernel.bounce(count, maxX, App.TOPBAR, maxY);
+            }
+            best = Math.min(best, (System.nanoTime() - begin) / (double) rounds / count);
+        }
+        return best;
+    }
+
+    /**
+     * Times TICKS calls of updateBalls() from the same start, with a kernel or one ball at a time.
+     * @return The best time per ball update in nanoseconds.
+     */
+    private static double updates(App game, GameSnapshot start, BallKernel kernel) {
+        double best = Double.MAX_VALUE;
+        for (int repeat = 0; repeat < REPEATS; repeat++) {
+            game.restore(start);
+            game.vectorKernel = kernel != null;
+            game.kernel = kernel;
+            int updated = 0;
+            long begin = System.nanoTime();
+            for (int tick = 0; tick < TICKS; tick++) {
+                updated += game.balls.size();
+                game.updateBalls();
+            }
+            best = Math.min(best, (System.nanoTime() - begin) / (double) Math.max(1, updated));
+        }
+        return best;
+    }
+
+    /**
+     * Describes the exact positions and velocities of a game's balls.
+     * @return The float bits of every ball, in order.
+     */
+    private static String positions(App game) {
+        StringBuilder text = new StringBuilder();
+        for (Ball ball : game.balls) {
+            text.append(Float.floatToIntBits(ball.position.x)).append(' ')
+                .append(Float.floatToIntBits(ball.position.y)).append(' ')
+                .append(Float.floatToIntBits(ball.velocity.x)).append(' ')
+                .append(Float.floatToIntBits(ball.velocity.y)).append(' ')
+                .append(ball.colorIndex).append(';');
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,365 @@
+package inkball;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+
+/**
+ * Keeps the best scores of each level and of whole campaigns on disk, for as many runs as the
+ * player and batch simulations record.
+ * <p>
+ * Every run is appended to a log as a fixed-size record: the board (a level index, or
+ * {@link #CAMPAIGN}), the score and the time it was recorded, big-endian. In memory each board
+ * keeps only its K best runs, sorted, with the number of runs recorded; a score that cannot enter
+ * a full board is turned away after one comparison, and anything that can is placed by a binary
+ * search, so recording and reading the best scores never depend on the number of runs.
+ * <p>
+ * Since the boards hold everything the log is read for, the log is compacted into an index file
+ * of the boards every {@link #COMPACT_RECORDS} records and when the leaderboard is closed. The
+ * index names the generation of the log it was written after; the next log starts empty under the
+ * next generation and the old one is deleted. Opening reads the index and then only the records
+ * appended since it was written, so startup stays short however many runs there have been. The
+ * index is written to a temporary file and moved over the old one, so a crash leaves either the
+ * old index and its log or the new index, and a record cut short by a crash is dropped.
+ */
+public class Leaderboard {
+    public static final int CAMPAIGN = -1;      // Board of the scores of whole games
+    static final int DEFAULT_K = 10;            // Best runs kept per board
+    static final int COMPACT_RECORDS = 100_000; // Records appended before the log is compacted
+
+    static final int LOG_MAGIC = 0x494E4B4C;    // "INKL"
+    static final int INDEX_MAGIC = 0x494E4B49;  // "INKI"
+    static final short VERSION = 1;
+    static final int HEADER_BYTES = 6;          // Magic and version
+    static final int RECORD_BYTES = 16;         // Board, score and time
+    private static final String INDEX_FILE = "leaderboard.idx";
+
+    /**
+     * A recorded run.
+     */
+    public static final class Entry {
+        public final int score;
+        public final long millis;  // When the run was recorded, as System.currentTimeMillis()
+
+        Entry(int score, long millis) {
+            this.score = score;
+            this.millis = millis;
+        }
+    }
+
+    /**
+     * The best runs of one board, highest score first; equal scores keep the order they were
+     * recorded in.
+     */
+    private static final class Board {
+        final int[] scores;
+        final long[] millis;
+        int size = 0;
+        long runs = 0;  // Runs recorded, including those not kept
+
+        Board(int k) {
+            scores = new int[k];
+            millis = new long[k];
+        }
+
+        /**
+         * Adds a run if it is among the best.
+         * @return Its place from 0, or -1 if it was not kept.
+         */
+        int add(int score, long time) {
+            runs++;
+            if (size == scores.length && score <= scores[size - 1]) {
+                return -1;  // Not better than the worst kept run
+            }
+            // First place whose score is lower than this one
+            int low = 0, high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (scores[mid] >= score) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            int moved = Math.min(size, scores.length - 1) - low;
+            System.arraycopy(scores, low, scores, low + 1, moved);
+            System.arraycopy(millis, low, millis, low + 1, moved);
+            scores[low] = score;
+            millis[low] = time;
+            size = Math.min(size + 1, scores.length);
+            return low;
+        }
+    }
+
+    private final Path directory;
+    private final int k;
+    private final int compactRecords;
+    private final Map<Integer, Board> boards = new TreeMap<>();
+    private final ByteBuffer pending = ByteBuffer.allocate(64 * 1024);  // Records not yet written to the log
+    private long generation = 0;
+    private FileChannel log;
+    private int logRecords = 0;  // Records in the current log
+
+    // Statistics
+    public long replayed = 0;     // Records read from the log when opening
+    public long compactions = 0;  // Times the log was compacted into the index
+
+    private Leaderboard(Path directory, int k, int compactRecords) {
+        this.directory = directory;
+        this.k = k;
+        this.compactRecords = compactRecords;
+    }
+
+    /**
+     * Opens the leaderboard kept in a directory, keeping the default number of runs per board.
+     * @param directory The directory of the index and the log; created if needed.
+     * @return The open leaderboard.
+     * @throws IOException If the files cannot be read or written.
+     */
+    public static Leaderboard open(Path directory) throws IOException {
+        return open(directory, DEFAULT_K, COMPACT_RECORDS);
+    }
+
+    /**
+     * Opens the leaderboard kept in a directory: reads the index, then the records logged since.
+     * @param directory The directory of the index and the log; created if needed.
+     * @param k The number of best runs kept per board.
+     * @param compactRecords The number of records appended before the log is compacted.
+     * @return The open leaderboard.
+     * @throws IOException If the files cannot be read or written, or are not a leaderboard's.
+     */
+    public static Leaderboard open(Path directory, int k, int compactRecords) throws IOException {
+        Files.createDirectories(directory);
+        Leaderboard leaderboard = new Leaderboard(directory, k, compactRecords);
+        leaderboard.readIndex();
+        leaderboard.deleteOldLogs();
+        leaderboard.openLog();
+        if (leaderboard.logRecords >= compactRecords) {
+            leaderboard.compact();
+        }
+        return leaderboard;
+    }
+
+    /**
+     * Records a run and writes it to the log. The record reaches the file on flush(), when
+     * the buffer fills, or when the leaderboard is compacted or closed.
+     * @param board The level index, or {@link #CAMPAIGN} for a whole game.
+     * @param score The score of the run.
+     * @return The run's place on its board from 0, or -1 if it is not among the best.
+     * @throws IOException If the log cannot be written.
+     */
+    public synchronized int record(int board, int score) throws IOException {
+        long time = System.currentTimeMillis();
+        int place = board(board).add(score, time);
+        if (!pending.hasRemaining()) {
+            flush();
+        }
+        pending.putInt(board).putInt(score).putLong(time);
+        if (++logRecords >= compactRecords) {
+            compact();
+        }
+        return place;
+    }
+
+    /**
+     * Writes the records still buffered to the log.
+     * @throws IOException If the log cannot be written.
+     */
+    public synchronized void flush() throws IOException {
+        pending.flip();
+        while (pending.hasRemaining()) {
+            log.write(pending);
+        }
+        pending.clear();
+    }
+
+    /**
+     * Gets the best runs of a board.
+     * @param board The level index, or {@link #CAMPAIGN}.
+     * @return The runs, highest score first; empty if none was recorded.
+     */
+    public synchronized List<Entry> top(int board) {
+        Board kept = boards.get(board);
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; kept != null && i < kept.size; i++) {
+            entries.add(new Entry(kept.scores[i], kept.millis[i]));
+        }
+        return entries;
+    }
+
+    /**
+     * Gets the best score of a board.
+     * @param board The level index, or {@link #CAMPAIGN}.
+     * @return The score, or Integer.MIN_VALUE if no run was recorded.
+     */
+    public synchronized int best(int board) {
+        Board kept = boards.get(board);
+        return kept == null || kept.size == 0 ? Integer.MIN_VALUE : kept.scores[0];
+    }
+
+    /**
+     * Gets the number of runs recorded on a board, including those no longer kept.
+     * @param board The level index, or {@link #CAMPAIGN}.
+     * @return The number of runs.
+     */
+    public synchronized long runs(int board) {
+        Board kept = boards.get(board);
+        return kept == null ? 0 : kept.runs;
+    }
+
+    /**
+     * Writes the boards to a new index and starts a new, empty log.
+     * @throws IOException If the files cannot be written.
+     */
+    public synchronized void compact() throws IOException {
+        flush();
+        writeIndex(generation + 1);
+        log.close();
+        Files.deleteIfExists(logPath(generation));
+        generation++;
+        openLog();
+        compactions++;
+    }
+
+    /**
+     * Compacts the log if anything was recorded since the last compaction, and closes it.
+     * @throws IOException If the files cannot be written.
+     */
+    public synchronized void close() throws IOException {
+        if (logRecords > 0) {
+            compact();
+        }
+        log.close();
+    }
+
+    private Board board(int board) {
+        Board kept = boards.get(board);
+        if (kept == null) {
+            kept = new Board(k);
+            boards.put(board, kept);
+        }
+        return kept;
+    }
+
+    private Path logPath(long generation) {
+        return directory.resolve("scores-" + generation + ".log");
+    }
+
+    /**
+     * Reads the boards and the log generation from the index, if there is one.
+     */
+    private void readIndex() throws IOException {
+        Path path = directory.resolve(INDEX_FILE);
+        if (!Files.exists(path)) {
+            return;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path));
+        try {
+            if (in.getInt() != INDEX_MAGIC || in.getShort() != VERSION) {
+                throw new IOException("Not a leaderboard index: " + path);
+            }
+            generation = in.getLong();
+            int boardCount = in.getInt();
+            for (int b = 0; b < boardCount; b++) {
+                Board board = board(in.getInt());
+                long runs = in.getLong();
+                int size = in.getInt();
+                for (int i = 0; i < size; i++) {
+                    board.add(in.getInt(), in.getLong());
+                }
+                board.runs = runs;
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Leaderboard index " + path + " is cut short", e);
+        }
+    }
+
+    /**
+     * Writes the boards to the index, naming the generation of the log that follows it.
+     */
+    private void writeIndex(long nextGeneration) throws IOException {
+        int bytes = HEADER_BYTES + 12;
+        for (Board board : boards.values()) {
+            bytes += 16 + board.size * 12;
+        }
+        ByteBuffer out = ByteBuffer.allocate(bytes);
+        out.putInt(INDEX_MAGIC).putShort(VERSION);
+        out.putLong(nextGeneration);
+        out.putInt(boards.size());
+        for (Map.Entry<Integer, Board> entry : boards.entrySet()) {
+            Board board = entry.getValue();
+            out.putInt(entry.getKey()).putLong(board.runs).putInt(board.size);
+            for (int i = 0; i < board.size; i++) {
+                out.putInt(board.scores[i]).putLong(board.millis[i]);
+            }
+        }
+        out.flip();
+
+        Path path = directory.resolve(INDEX_FILE);
+        Path partial = directory.resolve(INDEX_FILE + ".partial");
+        try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            channel.force(false);
+        }
+        Files.move(partial, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Deletes the logs of other generations, left behind by a crash during a compaction.
+     */
+    private void deleteOldLogs() throws IOException {
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(directory, "scores-*.log")) {
+            for (Path path : logs) {
+                if (!path.equals(logPath(generation))) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens the current generation's log, replays its records into the boards, drops a record cut
+     * short at its end, and leaves it ready to append to.
+     */
+    private void openLog() throws IOException {
+        Path path = logPath(generation);
+        log = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        logRecords = 0;
+        if (log.size() < HEADER_BYTES) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(LOG_MAGIC).putShort(VERSION);
+            header.flip();
+            log.truncate(0);
+            log.write(header, 0);
+            log.position(HEADER_BYTES);
+            return;
+        }
+
+        ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+        log.read(in, 0);
+        in.flip();
+        if (in.getInt() != LOG_MAGIC || in.getShort() != VERSION) {
+            throw new IOException("Not a leaderboard log: " + path);
+        }
+        long position = HEADER_BYTES;
+        in.compact();
+        while (log.read(in, position + in.position()) > 0 || in.position() >= RECORD_BYTES) {
+            in.flip();
+            while (in.remaining() >= RECORD_BYTES) {
+                board(in.getInt()).add(in.getInt(), in.getLong());
+                position += RECORD_BYTES;
+                logRecords++;
+            }
+            in.compact();
+        }
+        replayed += logRecords;
+        log.truncate(position);  // A record cut short by a crash
+        log.position(position);
+    }
+}
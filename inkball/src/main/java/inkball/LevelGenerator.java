@@ -0,0 +1,264 @@
+package inkball;
+
+import processing.data.JSONArray;
+import processing.data.JSONObject;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+
+/**
+ * Generates random levels of any size for stress tests and scaling benchmarks.
+ * <p>
+ * Layouts are written in the same grammar the game reads: a grey wall border, grey and coloured
+ * walls ('X', '1'-'4'), entry points ('S'), 2x2 holes ('H' and a colour), accelerators ('A' and
+ * 'U' or 'D') and placed balls ('B' and a colour). Every object is placed on free cells only, so
+ * a generated layout compiles to exactly what was asked for. The same seed and parameters always
+ * give the same level.
+ */
+public class LevelGenerator {
+    private static final String[] COLORS = {"grey", "orange", "blue", "green", "yellow"};
+
+    // Parameters, with the defaults matching the scale of the shipped levels
+    public int width = App.BOARD_WIDTH;      // Board width in cells, including the border
+    public int height = App.BOARD_HEIGHT;    // Board height in cells, including the border
+    public float wallDensity = 0.08f;        // Fraction of the inner cells that are walls
+    public float colouredWallFraction = 0.2f;  // Fraction of the walls that are coloured
+    public int holes = 4;
+    public int accelerators = 2;
+    public int entryPoints = 1;
+    public int placedBalls = 1;              // Balls in play from the start
+    public int queueLength = 8;              // Balls waiting to be spawned
+    public int spawnInterval = 10;           // Seconds between spawns
+    public int time = 180;                   // Seconds to finish the level
+
+    private final Random random;
+    private char[][] cells;
+
+    /**
+     * Creates a generator with the default parameters.
+     * @param seed Seed for the generator's random choices.
+     */
+    public LevelGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Creates a generator for levels with about the given multiple of the shipped levels' cells,
+     * holes, accelerators, entry points and balls.
+     * @param scale The multiple of the shipped scale, e.g. 10, 100 or 1000.
+     * @param seed Seed for the generator's random choices.
+     * @return The generator.
+     */
+    public static LevelGenerator atScale(int scale, long seed) {
+        LevelGenerator generator = new LevelGenerator(seed);
+        double side = Math.sqrt(scale);
+        generator.width = (int) Math.round(App.BOARD_WIDTH * side);
+        generator.height = (int) Math.round(App.BOARD_HEIGHT * side);
+        generator.holes *= scale;
+        generator.accelerators *= scale;
+        generator.entryPoints *= scale;
+        generator.placedBalls *= scale;
+        generator.queueLength *= scale;
+        generator.spawnInterval = Math.max(1, generator.spawnInterval / scale);
+        return generator;
+    }
+
+    /**
+     * Generates the lines of a layout file.
+     * @return The layout, one string per row of the board.
+     * @throws IllegalArgumentException If the board is too small for the objects asked for.
+     */
+    public String[] generateLayout() {
+        if (width < 4 || height < 4) {
+            throw new IllegalArgumentException("A board needs at least 4x4 cells, not " + width + "x" + height);
+        }
+        cells = new char[height][width];
+        for (char[] row : cells) {
+            Arrays.fill(row, ' ');
+        }
+        for (int x = 0; x < width; x++) {
+            cells[0][x] = 'X';
+            cells[height - 1][x] = 'X';
+        }
+        for (int y = 0; y < height; y++) {
+            cells[y][0] = 'X';
+            cells[y][width - 1] = 'X';
+        }
+
+        // Objects that need room go first, then the walls fill what is left
+        for (int i = 0; i < holes; i++) {
+            int[] at = findFree(2, 2);
+            cells[at[1]][at[0]] = 'H';
+            cells[at[1]][at[0] + 1] = (char) ('0' + i % LevelLayout.COLOR_COUNT);
+            cells[at[1] + 1][at[0]] = '.';  // Covered by the hole; written as a space
+            cells[at[1] + 1][at[0] + 1] = '.';
+        }
+        for (int i = 0; i < accelerators; i++) {
+            int[] at = findFree(2, 1);
+            cells[at[1]][at[0]] = 'A';
+            cells[at[1]][at[0] + 1] = random.nextBoolean() ? 'U' : 'D';
+        }
+        for (int i = 0; i < entryPoints; i++) {
+            int[] at = findFree(1, 1);
+            cells[at[1]][at[0]] = 'S';
+        }
+        for (int i = 0; i < placedBalls; i++) {
+            int[] at = findFree(2, 1);
+            cells[at[1]][at[0]] = 'B';
+            cells[at[1]][at[0] + 1] = (char) ('0' + random.nextInt(LevelLayout.COLOR_COUNT));
+        }
+        int walls = Math.round((width - 2) * (height - 2) * wallDensity);
+        for (int attempt = 0; walls > 0 && attempt < 100_000 + walls * 10; attempt++) {
+            walls -= addWallSegment(walls);  // Stops short only if the board is nearly full
+        }
+
+        String[] lines = new String[height];
+        for (int y = 0; y < height; y++) {
+            lines[y] = new String(cells[y]).replace('.', ' ');
+        }
+        cells = null;
+        return lines;
+    }
+
+    /**
+     * Builds the configuration entry of a level that uses a generated layout.
+     * @param layoutFile The path the layout is written to, as the game will load it.
+     * @return The level's configuration.
+     */
+    public JSONObject levelConfig(String layoutFile) {
+        JSONObject level = new JSONObject();
+        level.setString("layout", layoutFile);
+        level.setInt("width", width);
+        level.setInt("height", height);
+        level.setInt("time", time);
+        level.setInt("spawn_interval", spawnInterval);
+        level.setDouble("score_increase_from_hole_capture_modifier", 1.0);
+        level.setDouble("score_decrease_from_wrong_hole_modifier", 1.0);
+        JSONArray balls = new JSONArray();
+        for (int i = 0; i < queueLength; i++) {
+            balls.append(COLORS[random.nextInt(COLORS.length)]);
+        }
+        level.setJSONArray("balls", balls);
+        return level;
+    }
+
+    /**
+     * Finds a random block of free inner cells, with a free cell on every side so that
+     * objects never touch and holes keep a way in.
+     * @return The top-left cell of the block as {x, y}.
+     */
+    private int[] findFree(int blockWidth, int blockHeight) {
+        for (int attempt = 0; attempt < 10_000; attempt++) {
+            int x = 1 + random.nextInt(width - 1 - blockWidth);
+            int y = 1 + random.nextInt(height - 1 - blockHeight);
+            if (isFree(x - 1, y - 1, blockWidth + 2, blockHeight + 2)) {
+                return new int[]{x, y};
+            }
+        }
+        throw new IllegalArgumentException("The " + width + "x" + height + " board has no room left for more objects");
+    }
+
+    private boolean isFree(int x, int y, int blockWidth, int blockHeight) {
+        for (int cy = Math.max(1, y); cy < Math.min(height - 1, y + blockHeight); cy++) {
+            for (int cx = Math.max(1, x); cx < Math.min(width - 1, x + blockWidth); cx++) {
+                if (cells[cy][cx] != ' ') {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a straight wall of up to four cells of one colour on free cells.
+     * @return The number of wall cells added.
+     */
+    private int addWallSegment(int limit) {
+        char wall = random.nextFloat() < colouredWallFraction ? (char) ('1' + random.nextInt(4)) : 'X';
+        boolean horizontal = random.nextBoolean();
+        int length = Math.min(limit, 1 + random.nextInt(4));
+        int x = 1 + random.nextInt(width - 2);
+        int y = 1 + random.nextInt(height - 2);
+        int added = 0;
+        for (int i = 0; i < length && x < width - 1 && y < height - 1 && cells[y][x] == ' '; i++) {
+            cells[y][x] = wall;
+            added++;
+            if (horizontal) {
+                x++;
+            } else {
+                y++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Writes one generated level per scale and a configuration that plays them in order,
+     * and one with each level alone, then plays each alone on a fresh headless game and reports how long
+     * a tick takes with float and fixed-point physics.
+     * Arguments: [output directory] [seed] [scales...].
+     * @param args The command line arguments.
+     * @throws IOException If a file cannot be written.
+     */
+    public static void main(String[] args) throws IOException {
+        File dir = new File(args.length > 0 ? args[0] : "build/stress");
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        int[] scales = {1, 10, 100, 1000};
+        if (args.length > 2) {
+            scales = new int[args.length - 2];
+            for (int i = 2; i < args.length; i++) {
+                scales[i - 2] = Integer.parseInt(args[i]);
+            }
+        }
+        dir.mkdirs();
+
+        // Score tables come from the shipped configuration
+        App loader = new App();
+        JSONObject config = loader.loadJSONObject("config.json");
+        JSONArray levels = new JSONArray();
+        File[] scaleConfigs = new File[scales.length];
+        for (int i = 0; i < scales.length; i++) {
+            int scale = scales[i];
+            LevelGenerator generator = atScale(scale, seed + scale);
+            File layout = new File(dir, "stress-" + scale + "x.txt");
+            Files.write(layout.toPath(), Arrays.asList(generator.generateLayout()), StandardCharsets.UTF_8);
+            JSONObject level = generator.levelConfig(layout.getPath());
+            levels.append(level);
+
+            // A configuration with this level alone, so it can be timed on a game that has loaded nothing else
+            JSONArray only = new JSONArray();
+            only.append(level);
+            config.setJSONArray("levels", only);
+            scaleConfigs[i] = new File(dir, "stress-" + scale + "x.json");
+            config.save(scaleConfigs[i], "indent=2");
+            System.out.printf("%5dx: %dx%d board, %d holes, %d accelerators, %d balls placed, %d queued -> %s%n",
+                    scale, generator.width, generator.height, generator.holes, generator.accelerators,
+                    generator.placedBalls, generator.queueLength, layout);
+        }
+        config.setJSONArray("levels", levels);
+        File configFile = new File(dir, "config.json");
+        config.save(configFile, "indent=2");
+        System.out.println("Configuration -> " + configFile);
+
+        // Time the levels headless, with float and with fixed-point physics, so runs at each scale can be compared.
+        // Each run gets a fresh game, as loading one level over another would leave the last level's balls and holes.
+        for (boolean fixedPoint : new boolean[]{false, true}) {
+            for (int i = 0; i < scales.length; i++) {
+                App game = App.createHeadless(scaleConfigs[i].getPath(), seed);
+                game.fixedPoint = fixedPoint;
+                int ticks = 0;
+                long start = System.nanoTime();
+                while (System.nanoTime() - start < 2_000_000_000L && !game.timeUp && !game.levelEnded) {
+                    game.tick();
+                    ticks++;
+                }
+                double micros = (System.nanoTime() - start) / 1e3 / Math.max(1, ticks);
+                System.out.printf("%5dx %s: %.1f us per tick with %d balls in play%n",
+                        scales[i], fixedPoint ? "fixed" : "float", micros, game.balls.size());
+            }
+        }
+    }
+}
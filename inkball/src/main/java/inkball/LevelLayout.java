@@ -0,0 +1,125 @@
+package inkball;
+
+import processing.core.PVector;
+import java.util.*;
+
+
+/**
+ * A level layout compiled from the lines of its layout file.
+ * Holds the board cells together with the holes, entry points and balls found while parsing,
+ * so that a layout can be parsed once and then applied to a game or rendered on its own.
+ */
+class LevelLayout {
+    public static final int COLOR_COUNT = 5;  // Number of ball, hole and wall colours
+
+    final char[][] cells;  // Board cells, indexed [y][x]
+    final Map<PVector, Integer> holeTypes = new HashMap<>();  // Hole positions (top-left cell) to their types
+    final List<PVector> entrypoints = new ArrayList<>();  // Entry points in pixel coordinates
+    final List<int[]> balls = new ArrayList<>();  // Balls placed in the layout as {x, y, colorIndex} in cells
+    ForceField forces;  // Forces of the accelerators and other force tiles, per cell
+
+    /**
+     * Creates an empty layout of the given size.
+     * @param width The width of the board in cells.
+     * @param height The height of the board in cells.
+     */
+    LevelLayout(int width, int height) {
+        cells = new char[height][width];
+        for (char[] row : cells) {
+            Arrays.fill(row, ' ');
+        }
+    }
+
+    /**
+     * Gets the width of the board in cells.
+     * @return The number of columns of the layout.
+     */
+    public int getWidth() {
+        return cells.length == 0 ? 0 : cells[0].length;
+    }
+
+    /**
+     * Gets the height of the board in cells.
+     * @return The number of rows of the layout.
+     */
+    public int getHeight() {
+        return cells.length;
+    }
+
+    /**
+     * Compiles the lines of a layout file into a layout.
+     * Each character represents a different game object (e.g., walls, holes, balls); anything
+     * outside the given board size is ignored.
+     *
+     * @param lines The lines of the layout file.
+     * @param width The width of the board in cells.
+     * @param height The height of the board in cells.
+     * @return The compiled layout.
+     */
+    public static LevelLayout compile(String[] lines, int width, int height) {
+        LevelLayout layout = new LevelLayout(width, height);
+        char[][] board = layout.cells;
+
+        for (int y = 0; y < lines.length && y < height; y++) {
+            String line = lines[y];
+
+            for (int x = 0; x < line.length() && x < width; x++) {
+                board[y][x] = line.charAt(x); // Assign characters to the board
+
+                switch (line.charAt(x)) {
+                    case 'B': // Balls with color index
+                        // Ensure there's a color index after 'B' (look ahead)
+                        if (x + 1 < line.length()) {
+                            char nextChar = line.charAt(x + 1);
+                            if (Character.isDigit(nextChar)) {
+                                int ballColorIndex = Character.getNumericValue(nextChar);
+                                if (ballColorIndex >= 0 && ballColorIndex < COLOR_COUNT) {
+                                    layout.balls.add(new int[]{x, y, ballColorIndex});
+                                }
+
+                                x++; // Skip the color number after B (so that it's not processed again)
+                            }
+                        }
+                        break;
+
+                    case 'S': // Entry points
+                        layout.entrypoints.add(new PVector(x * App.CELLSIZE, App.TOPBAR + y * App.CELLSIZE));
+                        break;
+
+                    case 'H': // Holes
+                        if (x + 1 < line.length() && y + 1 < lines.length && x + 1 < width && y + 1 < height) {
+                            char nextChar = line.charAt(x + 1); // Look at the character after 'H'
+                            if (nextChar >= '0' && nextChar <= '4') {
+                                int holeType = nextChar - '0'; // Get the hole index
+
+                                // Save hole position and type
+                                layout.holeTypes.put(new PVector(x, y), holeType);
+
+                                // Mark the 2x2 area for the hole
+                                board[y][x] = 'H';         // Top-left
+                                board[y][x + 1] = 'H';     // Top-right
+                                board[y + 1][x] = 'H';     // Bottom-left
+                                board[y + 1][x + 1] = 'H'; // Bottom-right
+
+                                x++; // Skip the next character (part of the hole)
+                            }
+                        }
+                        break;
+
+                    case 'A': // Acceleration detection
+                    case 'F': // Attractors, repulsors and rough patches
+                        if (x + 1 < line.length() && x + 1 < width) {
+                            char nextChar = line.charAt(x + 1);
+                            if (ForceField.isTile(line.charAt(x), nextChar)) {
+                                board[y][x + 1] = nextChar; // Direction or kind of the force
+                                x++; // Skip the next character
+                            }
+                        }
+                        break;
+                }
+            }
+        }
+        layout.forces = ForceField.compile(board);
+        return layout;
+    }
+}
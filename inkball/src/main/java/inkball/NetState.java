@@ -0,0 +1,461 @@
+package inkball;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.function.IntFunction;
+
+
+/**
+ * The part of a game's state that network clients need to draw one tick: the balls, the strokes,
+ * the score, the timers, the spawn queue and the level status. States are immutable once built.
+ * <p>
+ * States are sent as deltas against an older state that both sides hold (the base). All numbers
+ * are written as variable-length integers, so small values take one byte:
+ * <ul>
+ *   <li>Score, timers, status, yellow tiles and spawn queue are only written when they differ from the base.</li>
+ *   <li>Balls are written in ascending id order. A ball in the base sends only how far it has moved,
+ *       in 1/8 pixel steps, plus its colour and scale when they change. A new ball is sent in full.
+ *       Balls missing from the list have left the game.</li>
+ *   <li>Strokes never change once drawn, so only the ids of removed strokes and the points of
+ *       added strokes are written.</li>
+ * </ul>
+ * Without a base the delta holds the whole state.
+ */
+class NetState {
+    public static final int POSITION_SCALE = 8;  // Positions are sent in 1/8 pixel steps
+
+    // Groups of fields that changed since the base
+    private static final int SCORE = 1;
+    private static final int TIMERS = 2;
+    private static final int LEVEL = 4;
+    private static final int STATUS = 8;
+    private static final int YELLOW_TILES = 16;
+    private static final int QUEUE = 32;
+
+    // Bits of the status field
+    public static final int PAUSED = 1;
+    public static final int LEVEL_ENDED = 2;
+    public static final int GAME_ENDED = 4;
+    public static final int TIME_UP = 8;
+
+    private static final String[] COLOR_NAMES = {"grey", "orange", "blue", "green", "yellow"};
+    private static final NetState EMPTY = new NetState(-1);
+
+    final int tick;
+    int score;
+    int timeLeft;
+    int spawnTenths;  // Seconds until the next spawn, in tenths
+    int level;
+    int status;
+    int[] yellowTiles = new int[4];  // x1, y1, x2, y2
+    byte[] queue = new byte[0];      // Colours of the balls waiting to spawn
+
+    // Balls, in ascending id order
+    int ballCount;
+    int[] ballIds = new int[0];
+    int[] ballXs = new int[0];
+    int[] ballYs = new int[0];
+    byte[] ballColors = new byte[0];
+    byte[] ballScales = new byte[0];  // Scale from 0 to 255
+
+    // Strokes, in ascending id order
+    Line[] lines = new Line[0];
+
+    private NetState(int tick) {
+        this.tick = tick;
+        this.level = -1;
+    }
+
+    /**
+     * Builds the state of a game. Balls and strokes must already have their network ids.
+     * @param app The game.
+     * @param tick The tick number of the state.
+     * @return The state.
+     */
+    static NetState capture(App app, int tick) {
+        NetState state = new NetState(tick);
+        state.score = app.score;
+        state.timeLeft = app.timeLeft;
+        state.spawnTenths = Math.max(0, Math.round(app.spawnIntervalLeft * 10));
+        state.level = app.currentLevel;
+        state.status = (app.isPaused ? PAUSED : 0) | (app.levelEnded ? LEVEL_ENDED : 0)
+                | (app.gameEnded ? GAME_ENDED : 0) | (app.timeUp ? TIME_UP : 0);
+        state.yellowTiles[0] = app.yellowTile1X;
+        state.yellowTiles[1] = app.yellowTile1Y;
+        state.yellowTiles[2] = app.yellowTile2X;
+        state.yellowTiles[3] = app.yellowTile2Y;
+
+        state.queue = new byte[app.ballsToSpawn.size()];
+        int index = 0;
+        for (String color : app.ballsToSpawn) {
+            state.queue[index++] = (byte) app.getColorIndex(color);
+        }
+
+        int count = app.balls.size();
+        state.allocateBalls(count);
+        for (int i = 0; i < count; i++) {
+            Ball ball = app.balls.get(i);
+            state.ballIds[i] = ball.netId;
+            state.ballXs[i] = Math.round(ball.position.x * POSITION_SCALE);
+            state.ballYs[i] = Math.round(ball.position.y * POSITION_SCALE);
+            state.ballColors[i] = (byte) ball.colorIndex;
+            state.ballScales[i] = (byte) Math.round(Math.max(0, Math.min(1, ball.scale)) * 255);
+        }
+        state.sortBalls();
+
+        state.lines = app.drawnLines.toArray(new Line[0]);
+        Arrays.sort(state.lines, (a, b) -> Integer.compare(a.netId, b.netId));
+        return state;
+    }
+
+    /**
+     * Writes this state as a delta against a base state.
+     * @param base The state the receiver already holds, or null to write the whole state.
+     * @param out The buffer to write to.
+     */
+    void writeDelta(NetState base, ByteBuffer out) {
+        if (base == null) {
+            base = EMPTY;
+        }
+        putVarint(out, tick);
+        putVarint(out, base == EMPTY ? 0 : tick - base.tick);
+
+        int changed = (score != base.score ? SCORE : 0)
+                | (timeLeft != base.timeLeft || spawnTenths != base.spawnTenths ? TIMERS : 0)
+                | (level != base.level ? LEVEL : 0)
+                | (status != base.status ? STATUS : 0)
+                | (!Arrays.equals(yellowTiles, base.yellowTiles) ? YELLOW_TILES : 0)
+                | (!Arrays.equals(queue, base.queue) ? QUEUE : 0);
+        putVarint(out, changed);
+        if ((changed & SCORE) != 0) {
+            putZigzag(out, score);
+        }
+        if ((changed & TIMERS) != 0) {
+            putVarint(out, timeLeft);
+            putVarint(out, spawnTenths);
+        }
+        if ((changed & LEVEL) != 0) {
+            putVarint(out, level);
+        }
+        if ((changed & STATUS) != 0) {
+            putVarint(out, status);
+        }
+        if ((changed & YELLOW_TILES) != 0) {
+            for (int value : yellowTiles) {
+                putVarint(out, value);
+            }
+        }
+        if ((changed & QUEUE) != 0) {
+            putVarint(out, queue.length);
+            out.put(queue);
+        }
+
+        // Balls: walk both id-sorted lists together
+        putVarint(out, ballCount);
+        int previousId = 0;
+        int b = 0;
+        for (int i = 0; i < ballCount; i++) {
+            int id = ballIds[i];
+            while (b < base.ballCount && base.ballIds[b] < id) {
+                b++;
+            }
+            boolean known = b < base.ballCount && base.ballIds[b] == id;
+            boolean colorChanged = !known || base.ballColors[b] != ballColors[i];
+            boolean scaleChanged = !known || base.ballScales[b] != ballScales[i];
+            putVarint(out, (id - previousId) << 2 | (colorChanged ? 2 : 0) | (scaleChanged ? 1 : 0));
+            previousId = id;
+            if (known) {
+                putZigzag(out, ballXs[i] - base.ballXs[b]);
+                putZigzag(out, ballYs[i] - base.ballYs[b]);
+            } else {
+                putVarint(out, ballXs[i]);
+                putVarint(out, ballYs[i]);
+            }
+            if (colorChanged) {
+                out.put(ballColors[i]);
+            }
+            if (scaleChanged) {
+                out.put(ballScales[i]);
+            }
+        }
+
+        // Strokes: removed ids, then added strokes
+        int removed = 0;
+        for (Line line : base.lines) {
+            if (indexOfLine(lines, line.netId) < 0) {
+                removed++;
+            }
+        }
+        putVarint(out, removed);
+        previousId = 0;
+        for (Line line : base.lines) {
+            if (indexOfLine(lines, line.netId) < 0) {
+                putVarint(out, line.netId - previousId);
+                previousId = line.netId;
+            }
+        }
+        int added = 0;
+        for (Line line : lines) {
+            if (indexOfLine(base.lines, line.netId) < 0) {
+                added++;
+            }
+        }
+        putVarint(out, added);
+        previousId = 0;
+        for (Line line : lines) {
+            if (indexOfLine(base.lines, line.netId) < 0) {
+                putVarint(out, line.netId - previousId);
+                previousId = line.netId;
+                putStroke(out, line);
+            }
+        }
+    }
+
+    /**
+     * Reads a delta written by {@link #writeDelta(NetState, ByteBuffer)} and builds the new state.
+     * @param in The buffer to read from.
+     * @param history Looks up a state the receiver holds by its tick number, or returns null.
+     * @return The new state, or null if the delta's base is no longer held.
+     * @throws IOException If a stroke in the delta is malformed.
+     */
+    static NetState readDelta(ByteBuffer in, IntFunction<NetState> history) throws IOException {
+        int tick = getVarint(in);
+        int distance = getVarint(in);
+        NetState base = EMPTY;
+        if (distance != 0) {
+            base = history.apply(tick - distance);
+            if (base == null) {
+                return null;
+            }
+        }
+
+        NetState state = new NetState(tick);
+        int changed = getVarint(in);
+        state.score = (changed & SCORE) != 0 ? getZigzag(in) : base.score;
+        if ((changed & TIMERS) != 0) {
+            state.timeLeft = getVarint(in);
+            state.spawnTenths = getVarint(in);
+        } else {
+            state.timeLeft = base.timeLeft;
+            state.spawnTenths = base.spawnTenths;
+        }
+        state.level = (changed & LEVEL) != 0 ? getVarint(in) : base.level;
+        state.status = (changed & STATUS) != 0 ? getVarint(in) : base.status;
+        if ((changed & YELLOW_TILES) != 0) {
+            for (int i = 0; i < 4; i++) {
+                state.yellowTiles[i] = getVarint(in);
+            }
+        } else {
+            state.yellowTiles = base.yellowTiles;  // States are immutable, so arrays can be shared
+        }
+        if ((changed & QUEUE) != 0) {
+            state.queue = new byte[getVarint(in)];
+            in.get(state.queue);
+        } else {
+            state.queue = base.queue;
+        }
+
+        int count = getVarint(in);
+        state.allocateBalls(count);
+        int id = 0;
+        int b = 0;
+        for (int i = 0; i < count; i++) {
+            int header = getVarint(in);
+            id += header >>> 2;
+            while (b < base.ballCount && base.ballIds[b] < id) {
+                b++;
+            }
+            boolean known = b < base.ballCount && base.ballIds[b] == id;
+            state.ballIds[i] = id;
+            if (known) {
+                state.ballXs[i] = base.ballXs[b] + getZigzag(in);
+                state.ballYs[i] = base.ballYs[b] + getZigzag(in);
+            } else {
+                state.ballXs[i] = getVarint(in);
+                state.ballYs[i] = getVarint(in);
+            }
+            state.ballColors[i] = (header & 2) != 0 ? in.get() : base.ballColors[b];
+            state.ballScales[i] = (header & 1) != 0 ? in.get() : base.ballScales[b];
+        }
+
+        int removed = getVarint(in);
+        int[] removedIds = new int[removed];
+        id = 0;
+        for (int i = 0; i < removed; i++) {
+            id += getVarint(in);
+            removedIds[i] = id;
+        }
+        int added = getVarint(in);
+        Line[] lines = new Line[base.lines.length - removed + added];
+        int index = 0;
+        for (Line line : base.lines) {
+            if (Arrays.binarySearch(removedIds, line.netId) < 0) {
+                lines[index++] = line;
+            }
+        }
+        id = 0;
+        for (int i = 0; i < added; i++) {
+            id += getVarint(in);
+            Line line = getStroke(in);
+            line.netId = id;
+            lines[index++] = line;
+        }
+        Arrays.sort(lines, (a, c) -> Integer.compare(a.netId, c.netId));
+        state.lines = lines;
+        return state;
+    }
+
+    /**
+     * Gets the position of a ball, in pixels.
+     * @param index The index of the ball in this state.
+     * @return The x coordinate.
+     */
+    public float getBallX(int index) {
+        return ballXs[index] / (float) POSITION_SCALE;
+    }
+
+    /**
+     * Gets the position of a ball, in pixels.
+     * @param index The index of the ball in this state.
+     * @return The y coordinate.
+     */
+    public float getBallY(int index) {
+        return ballYs[index] / (float) POSITION_SCALE;
+    }
+
+    /**
+     * Gets the colour names of the balls waiting to spawn, in spawn order.
+     * @return The colour names.
+     */
+    public List<String> getQueue() {
+        List<String> colors = new ArrayList<>(queue.length);
+        for (byte color : queue) {
+            colors.add(COLOR_NAMES[Math.max(0, Math.min(COLOR_NAMES.length - 1, color))]);
+        }
+        return colors;
+    }
+
+    private void allocateBalls(int count) {
+        ballCount = count;
+        ballIds = new int[count];
+        ballXs = new int[count];
+        ballYs = new int[count];
+        ballColors = new byte[count];
+        ballScales = new byte[count];
+    }
+
+    /**
+     * Sorts the balls by id. Balls are usually already in id order, as new balls are
+     * appended to the game's list, so an insertion sort is close to a single pass.
+     */
+    private void sortBalls() {
+        for (int i = 1; i < ballCount; i++) {
+            for (int j = i; j > 0 && ballIds[j - 1] > ballIds[j]; j--) {
+                swap(ballIds, j);
+                swap(ballXs, j);
+                swap(ballYs, j);
+                byte color = ballColors[j];
+                ballColors[j] = ballColors[j - 1];
+                ballColors[j - 1] = color;
+                byte scale = ballScales[j];
+                ballScales[j] = ballScales[j - 1];
+                ballScales[j - 1] = scale;
+            }
+        }
+    }
+
+    private static void swap(int[] values, int j) {
+        int value = values[j];
+        values[j] = values[j - 1];
+        values[j - 1] = value;
+    }
+
+    private static int indexOfLine(Line[] lines, int netId) {
+        int low = 0;
+        int high = lines.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (lines[mid].netId < netId) {
+                low = mid + 1;
+            } else if (lines[mid].netId > netId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Writes the points of a stroke, delta-encoded as in {@link Line#toDeltaEncoded()}.
+     * @param out The buffer to write to.
+     * @param line The stroke.
+     */
+    static void putStroke(ByteBuffer out, Line line) {
+        short[] encoded = line.toDeltaEncoded();
+        putVarint(out, encoded.length);
+        for (short value : encoded) {
+            putZigzag(out, value);
+        }
+    }
+
+    /**
+     * Reads a stroke written by {@link #putStroke(ByteBuffer, Line)}.
+     * @param in The buffer to read from.
+     * @return The stroke.
+     * @throws IOException If the stroke claims more values than the buffer holds.
+     */
+    static Line getStroke(ByteBuffer in) throws IOException {
+        int count = getVarint(in);
+        if (count < 0 || count > in.remaining()) {
+            throw new IOException("Bad stroke length " + count);  // Every value takes at least a byte
+        }
+        short[] encoded = new short[count];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = (short) getZigzag(in);
+        }
+        return Line.fromDeltaEncoded(encoded);
+    }
+
+    /**
+     * Writes a non-negative integer in 7-bit groups, lowest first; small values take one byte.
+     */
+    static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /**
+     * Reads an integer written by {@link #putVarint(ByteBuffer, int)}.
+     */
+    static int getVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed variable-length integer");
+    }
+
+    /**
+     * Writes a signed integer so that values close to zero take one byte.
+     */
+    static void putZigzag(ByteBuffer out, int value) {
+        putVarint(out, (value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Reads an integer written by {@link #putZigzag(ByteBuffer, int)}.
+     */
+    static int getZigzag(ByteBuffer in) {
+        int value = getVarint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,45 @@
+package inkball;
+
+import processing.awt.PGraphicsJava2D;
+import processing.core.PApplet;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+
+/**
+ * A Java2D renderer that draws into an in-memory image instead of a window.
+ * The stock renderer asks the screen device for a compatible image, which fails
+ * when there is no display, so this one allocates a plain ARGB image itself.
+ */
+class OffscreenGraphics extends PGraphicsJava2D {
+
+    /**
+     * Creates an offscreen renderer of the given size.
+     * @param parent The sketch the renderer belongs to (used for paths and defaults only).
+     * @param width The width of the buffer in pixels.
+     * @param height The height of the buffer in pixels.
+     * @return The new renderer, ready for beginDraw().
+     */
+    public static OffscreenGraphics create(PApplet parent, int width, int height) {
+        OffscreenGraphics pg = new OffscreenGraphics();
+        pg.setParent(parent);
+        pg.setPrimary(false);
+        pg.setSize(width, height);
+        return pg;
+    }
+
+    /**
+     * Makes sure the backing image exists and matches the current size.
+     * @return The graphics context of the backing image.
+     */
+    @Override
+    public Graphics2D checkImage() {
+        int imageWidth = width * pixelDensity;
+        int imageHeight = height * pixelDensity;
+        if (image == null || ((BufferedImage) image).getWidth() != imageWidth
+                || ((BufferedImage) image).getHeight() != imageHeight) {
+            image = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_ARGB);
+        }
+        return (Graphics2D) image.getGraphics();
+    }
+}
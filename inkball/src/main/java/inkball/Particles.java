@@ -0,0 +1,273 @@
+package inkball;
+
+import processing.core.PConstants;
+import processing.core.PGraphics;
+
+
+/**
+ * Short-lived visual effects: a burst of the ball's colour when it falls into a hole, sparks
+ * when a coloured wall recolours a ball, and fragments of ink along a stroke that a ball erases.
+ * <p>
+ * Each effect has a pool of fixed capacity, held as parallel arrays of positions, velocities,
+ * remaining lives and colours, with the live particles packed at the front. A dead particle is
+ * replaced by the last live one, so nothing is allocated once the game is running, and each
+ * effect is drawn as one shape of points. The particles are emitted from the game's
+ * events and move on every tick that is not paused. They use their own random numbers, so the
+ * game plays the same with or without them.
+ * <p>
+ * Updating and drawing are timed together against {@link #budgetNanos}. A frame over budget
+ * halves the number of particles each effect may keep and sheds the rest; frames well under it
+ * raise the limit again. Effects emit fewer particles while the limit is lowered.
+ */
+public class Particles implements GameEvents.Listener {
+    // Effects
+    public static final int BURST = 0;  // A ball falling into a hole
+    public static final int SPARK = 1;  // A wall recolouring a ball
+    public static final int INK = 2;    // A stroke erased by a ball
+
+    static final int CAPACITY = 2048;  // Particles per effect
+    private static final int MIN_LIMIT = 64;
+    private static final int[] COUNTS = {24, 10, 48};    // Particles per effect at the full limit
+    private static final int[] LIVES = {30, 14, 45};     // Most ticks a particle of each effect lives
+    private static final float[] DRAG = {0.9f, 0.85f, 0.95f};
+    private static final float[] GRAVITY = {0, 0.15f, 0.05f};
+    private static final float[] SIZES = {3, 2, 4};      // Width of the particles in pixels
+    private static final int[] COLORS = {0xFF969696, 0xFFFF8C00, 0xFF2864FF, 0xFF28BE3C, 0xFFF0D21E};  // By colour index
+
+    /**
+     * The particles of one effect.
+     */
+    private static final class Pool {
+        final float[] x = new float[CAPACITY];
+        final float[] y = new float[CAPACITY];
+        final float[] vx = new float[CAPACITY];
+        final float[] vy = new float[CAPACITY];
+        final int[] life = new int[CAPACITY];   // Ticks left
+        final int[] color = new int[CAPACITY];  // ARGB
+        int count = 0;                          // Live particles, at the front of the arrays
+    }
+
+    private final Pool[] pools = {new Pool(), new Pool(), new Pool()};
+    private int limit = CAPACITY;  // Most particles each effect may keep, lowered when over budget
+    private int seed = 0x2545F491; // State of the particles' own random numbers
+    private long updateNanos = 0;  // Time the last update took
+
+    public boolean enabled = true;           // False to emit nothing, e.g. for headless games
+    public long budgetNanos = 1_000_000;     // Most time per frame for updating and drawing particles
+
+    // Statistics
+    public long emitted = 0;   // Particles emitted
+    public long dropped = 0;   // Particles not emitted because their effect was full
+    public long shed = 0;      // Particles removed early to stay within the budget
+
+    /**
+     * Emits the effects of a batch of game events.
+     * @param events The batch.
+     */
+    @Override
+    public void onEvents(GameEvents events) {
+        if (!enabled) {
+            return;
+        }
+        for (int i = 0; i < events.size(); i++) {
+            Ball ball = events.ball(i);
+            if (ball != null && ball.simulated) {
+                continue;  // Predicted paths have no effects
+            }
+            switch (events.kind(i)) {
+                case GameEvents.CAPTURE:
+                    emit(BURST, events.x(i), events.y(i), events.color(i));
+                    break;
+                case GameEvents.RECOLOUR:
+                    emit(SPARK, ball.position.x, ball.position.y, events.color(i));
+                    break;
+                case GameEvents.STROKE_HIT:
+                    emitAlong(events.stroke(i));
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Emits an effect's particles from a point, in every direction.
+     * @param effect The effect, e.g. {@link #BURST}.
+     * @param x The x coordinate in pixels.
+     * @param y The y coordinate in pixels.
+     * @param colorIndex The colour of the particles, as a ball colour index.
+     */
+    public void emit(int effect, float x, float y, int colorIndex) {
+        int color = COLORS[Math.max(0, Math.min(COLORS.length - 1, colorIndex))];
+        int count = scaled(effect);
+        for (int i = 0; i < count; i++) {
+            float angle = random() * PConstants.TWO_PI;
+            float speed = 1 + random() * 2;
+            add(effect, x, y, (float) Math.cos(angle) * speed, (float) Math.sin(angle) * speed, color);
+        }
+    }
+
+    /**
+     * Emits ink fragments spread along a stroke, drifting away from it.
+     * @param stroke The stroke.
+     */
+    private void emitAlong(Line stroke) {
+        if (stroke == null || stroke.pointCount == 0) {
+            return;
+        }
+        int count = scaled(INK);
+        for (int i = 0; i < count; i++) {
+            int point = (int) (random() * stroke.pointCount);
+            float x = stroke.coords[point * 2] + random() * 4 - 2;
+            float y = stroke.coords[point * 2 + 1] + random() * 4 - 2;
+            add(INK, x, y, random() - 0.5f, random() - 0.5f, 0xFF000000);
+        }
+    }
+
+    /**
+     * Gets the number of particles an effect emits at the current limit.
+     */
+    private int scaled(int effect) {
+        return Math.max(1, (int) ((long) COUNTS[effect] * limit / CAPACITY));
+    }
+
+    private void add(int effect, float x, float y, float vx, float vy, int color) {
+        Pool pool = pools[effect];
+        if (pool.count >= limit) {
+            dropped++;
+            return;
+        }
+        int i = pool.count++;
+        pool.x[i] = x;
+        pool.y[i] = y;
+        pool.vx[i] = vx;
+        pool.vy[i] = vy;
+        pool.life[i] = LIVES[effect] / 2 + (int) (random() * (LIVES[effect] / 2 + 1));
+        pool.color[i] = color;
+        emitted++;
+    }
+
+    /**
+     * Moves the particles by one tick and removes the dead ones. Called by the game's tick.
+     */
+    void update() {
+        long start = System.nanoTime();
+        for (int effect = 0; effect < pools.length; effect++) {
+            Pool pool = pools[effect];
+            float drag = DRAG[effect];
+            float gravity = GRAVITY[effect];
+            int i = 0;
+            while (i < pool.count) {
+                if (--pool.life[i] <= 0) {
+                    remove(pool, i);  // The last particle moves here and is updated next
+                    continue;
+                }
+                pool.vx[i] *= drag;
+                pool.vy[i] = pool.vy[i] * drag + gravity;
+                pool.x[i] += pool.vx[i];
+                pool.y[i] += pool.vy[i];
+                i++;
+            }
+        }
+        updateNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Draws each effect as one shape of square points, fading the particles out over their last
+     * ticks, and adjusts the limit to the time spent on particles this frame. Square points are
+     * drawn many times faster than round ones or lines by the default renderer.
+     * @param g The graphics to draw on.
+     */
+    public void draw(PGraphics g) {
+        long start = System.nanoTime();
+        g.strokeCap(PConstants.SQUARE);
+        for (int effect = 0; effect < pools.length; effect++) {
+            Pool pool = pools[effect];
+            if (pool.count == 0) {
+                continue;
+            }
+            float fade = 255f / Math.max(1, LIVES[effect] / 2);
+            g.strokeWeight(SIZES[effect]);
+            g.beginShape(PConstants.POINTS);
+            for (int i = 0; i < pool.count; i++) {
+                g.stroke(pool.color[i], Math.min(255, pool.life[i] * fade));
+                g.vertex(pool.x[i], pool.y[i]);
+            }
+            g.endShape();
+        }
+        g.strokeCap(PConstants.ROUND);  // Processing's default, which the strokes are drawn with
+        adjustLimit(updateNanos + System.nanoTime() - start);
+    }
+
+    /**
+     * Lowers the limit and sheds particles when a frame's particles cost more than the budget,
+     * and raises it slowly when they cost less than half of it.
+     * @param frameNanos The time spent on particles in the frame.
+     */
+    void adjustLimit(long frameNanos) {
+        if (frameNanos > budgetNanos && limit > MIN_LIMIT) {
+            limit = Math.max(MIN_LIMIT, limit / 2);
+            for (Pool pool : pools) {
+                if (pool.count > limit) {
+                    shed += pool.count - limit;
+                    pool.count = limit;
+                }
+            }
+        } else if (frameNanos < budgetNanos / 2 && limit < CAPACITY) {
+            limit = Math.min(CAPACITY, limit + limit / 8);
+        }
+    }
+
+    private static void remove(Pool pool, int i) {
+        int last = --pool.count;
+        pool.x[i] = pool.x[last];
+        pool.y[i] = pool.y[last];
+        pool.vx[i] = pool.vx[last];
+        pool.vy[i] = pool.vy[last];
+        pool.life[i] = pool.life[last];
+        pool.color[i] = pool.color[last];
+    }
+
+    /**
+     * Removes every particle, e.g. when a level is loaded.
+     */
+    public void clear() {
+        for (Pool pool : pools) {
+            pool.count = 0;
+        }
+    }
+
+    /**
+     * Checks if any particle is alive, so that frames must still be drawn.
+     * @return True if there are particles to move and draw.
+     */
+    public boolean isActive() {
+        return pools[BURST].count + pools[SPARK].count + pools[INK].count > 0;
+    }
+
+    /**
+     * Gets the number of live particles of an effect.
+     * @param effect The effect, e.g. {@link #BURST}.
+     * @return The number of particles.
+     */
+    public int count(int effect) {
+        return pools[effect].count;
+    }
+
+    /**
+     * Gets the number of particles each effect may keep at the moment.
+     * @return The limit, between 64 and {@link #CAPACITY}.
+     */
+    public int limit() {
+        return limit;
+    }
+
+    /**
+     * Gets a random number for the particles, without touching the game's generator.
+     * @return A number from 0 inclusive to 1 exclusive.
+     */
+    private float random() {
+        seed ^= seed << 13;  // xorshift32
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return (seed >>> 8) / (float) (1 << 24);
+    }
+}
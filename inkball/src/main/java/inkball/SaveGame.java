@@ -0,0 +1,375 @@
+package inkball;
+
+import processing.core.PVector;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * Saves a game in progress to a file and resumes it later.
+ * <p>
+ * A save is a {@link GameSnapshot} written in a versioned binary format: a magic number and a
+ * format version, then the board, holes, entry points, balls, strokes, spawn queue and the scalar
+ * game state, all in big-endian order. Files are written to a temporary file with a FileChannel
+ * and then moved over the old save, so a crash while saving never leaves a half-written save.
+ * <p>
+ * Autosaves capture the snapshot on the game's thread, which only copies references, and write it
+ * on a background thread. The snapshot shares nothing the game changes in place (board rows and
+ * the hole map are copied by the game before it writes to them), so the write sees one consistent
+ * frame while the game carries on.
+ */
+public class SaveGame {
+    static final int MAGIC = 0x494E4B42;  // "INKB"
+    static final short VERSION = 1;
+
+    private final Path path;
+    private final AtomicBoolean writing = new AtomicBoolean(false);
+    private ExecutorService writer;  // Created on the first background save
+
+    /**
+     * Creates a save slot backed by a file.
+     * @param path The file to save to and resume from.
+     */
+    public SaveGame(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Checks if there is a save to resume from.
+     * @return True if the save file exists.
+     */
+    public boolean exists() {
+        return Files.exists(path);
+    }
+
+    /**
+     * Saves the game now, on the calling thread.
+     * @param app The game to save.
+     * @throws IOException If the file cannot be written.
+     */
+    public void save(App app) throws IOException {
+        write(app.snapshot(), path);
+    }
+
+    /**
+     * Captures the game now and writes it on a background thread. If the previous background
+     * save is still being written, this one is skipped.
+     * @param app The game to save.
+     * @return True if a save was started.
+     */
+    public synchronized boolean saveInBackground(App app) {
+        if (!writing.compareAndSet(false, true)) {
+            return false;
+        }
+        if (writer == null) {
+            writer = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "inkball-autosave");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        GameSnapshot snapshot = app.snapshot();
+        writer.execute(() -> {
+            try {
+                write(snapshot, path);
+            } catch (IOException e) {
+                System.err.println("Autosave failed: " + e);
+            } finally {
+                writing.set(false);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Waits for a background save in progress to finish.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public void awaitBackgroundSave() throws InterruptedException {
+        ExecutorService current;
+        synchronized (this) {
+            current = writer;
+        }
+        if (current != null) {
+            try {
+                current.submit(() -> { }).get();  // Runs after the save in progress
+            } catch (ExecutionException e) {
+                // An empty task cannot fail
+            }
+        }
+    }
+
+    /**
+     * Resumes a saved game. Timers are moved to the game's clock, so a game saved in one run
+     * resumes with the same countdowns in the next.
+     * @param app The game to restore into. Its configuration must match the saved game's.
+     * @throws IOException If the file cannot be read or is not a valid save.
+     */
+    public void load(App app) throws IOException {
+        GameSnapshot snapshot = read(app, path);
+        app.restore(snapshot);
+
+        int shift = app.gameMillis() - snapshot.clock;
+        if (shift != 0) {
+            app.lastSpawnTime += shift;
+            app.lastYellowTileMoveTime += shift;
+            app.lastFrameTime += shift;
+            for (Ball ball : app.balls) {
+                ball.accelerationStartTime += shift;
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot to a file in the save format.
+     * @param snapshot The snapshot to write. Only its own fields are read, never the game's.
+     * @param path The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    static void write(GameSnapshot snapshot, Path path) throws IOException {
+        ByteBuffer out = ByteBuffer.allocate(sizeOf(snapshot));
+        out.putInt(MAGIC);
+        out.putShort(VERSION);
+
+        // Board
+        char[][] rows = snapshot.boardRows;
+        out.putShort((short) rows.length);
+        out.putShort((short) (rows.length > 0 ? rows[0].length : 0));
+        for (char[] row : rows) {
+            for (char cell : row) {
+                out.put((byte) cell);
+            }
+        }
+
+        // Holes and entry points
+        out.putInt(snapshot.holeTypes.size());
+        for (Map.Entry<PVector, Integer> hole : snapshot.holeTypes.entrySet()) {
+            out.putFloat(hole.getKey().x);
+            out.putFloat(hole.getKey().y);
+            out.putInt(hole.getValue());
+        }
+        out.putInt(snapshot.entrypoints.size());
+        for (PVector entrypoint : snapshot.entrypoints) {
+            out.putFloat(entrypoint.x);
+            out.putFloat(entrypoint.y);
+        }
+
+        // Balls
+        out.putInt(snapshot.ballCount);
+        for (int i = 0; i < snapshot.ballCount; i++) {
+            for (int f = 0; f < GameSnapshot.BALL_FLOATS; f++) {
+                out.putFloat(snapshot.ballFloats[i * GameSnapshot.BALL_FLOATS + f]);
+            }
+            out.putInt(snapshot.ballColors[i]);
+            out.putLong(snapshot.ballAccelerationStart[i]);
+            out.put((byte) (snapshot.ballCaptured[i] ? 1 : 0));
+            out.put((byte) (snapshot.ballInGame[i] ? 1 : 0));
+        }
+
+        // Strokes, with exact coordinates so that a resumed game plays out the same
+        out.putInt(snapshot.lineCount);
+        for (int i = 0; i < snapshot.lineCount; i++) {
+            Line line = snapshot.lines[i];
+            out.putInt(line.size());
+            for (int p = 0; p < line.size(); p++) {
+                out.putFloat(line.getX(p));
+                out.putFloat(line.getY(p));
+            }
+        }
+
+        // Spawn queue
+        out.putInt(snapshot.spawnCount);
+        for (int i = 0; i < snapshot.spawnCount; i++) {
+            byte[] color = snapshot.ballsToSpawn[i].getBytes(StandardCharsets.UTF_8);
+            out.putShort((short) color.length);
+            out.put(color);
+        }
+
+        // Scalars
+        out.putInt(snapshot.score);
+        out.putInt(snapshot.timeLeft);
+        out.putInt(snapshot.currentLevel);
+        out.putInt(snapshot.spawnInterval);
+        out.putFloat(snapshot.spawnIntervalLeft);
+        out.putInt(snapshot.lastSpawnTime);
+        out.putFloat(snapshot.lastFrameTime);
+        out.putLong(snapshot.lastYellowTileMoveTime);
+        out.putInt(snapshot.tickCount);
+        out.putInt(snapshot.remainingTimeBonus);
+        out.putFloat(snapshot.scoreIncreaseModifier);
+        out.putFloat(snapshot.scoreDecreaseModifier);
+        out.putInt(snapshot.yellowTile1X);
+        out.putInt(snapshot.yellowTile1Y);
+        out.putInt(snapshot.yellowTile2X);
+        out.putInt(snapshot.yellowTile2Y);
+        out.put((byte) ((snapshot.isPaused ? 1 : 0) | (snapshot.levelEnded ? 2 : 0)
+                | (snapshot.postLevelInProgress ? 4 : 0) | (snapshot.gameEnded ? 8 : 0) | (snapshot.timeUp ? 16 : 0)));
+        out.putLong(snapshot.randomState);
+        out.putInt(snapshot.clock);
+        out.putInt(snapshot.levelStartScore);
+        out.flip();
+
+        Path partial = path.resolveSibling(path.getFileName() + ".partial");
+        try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            channel.force(false);
+        }
+        Files.move(partial, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a save file into a new snapshot, with new Ball objects for the saved balls.
+     * @param app The game the balls will belong to.
+     * @param path The file to read.
+     * @return The snapshot, ready to restore.
+     * @throws IOException If the file cannot be read or is not a valid save.
+     */
+    static GameSnapshot read(App app, Path path) throws IOException {
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            in = ByteBuffer.allocate((int) channel.size());
+            while (in.hasRemaining() && channel.read(in) >= 0) {
+                // Keep reading until the whole file is in the buffer
+            }
+        }
+        in.flip();
+
+        try {
+            if (in.getInt() != MAGIC) {
+                throw new IOException("Not a save file: " + path);
+            }
+            short version = in.getShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported save version " + version + " in " + path);
+            }
+
+            GameSnapshot snapshot = new GameSnapshot();
+
+            int height = in.getShort();
+            int width = in.getShort();
+            snapshot.boardRows = new char[height][width];
+            for (char[] row : snapshot.boardRows) {
+                for (int x = 0; x < width; x++) {
+                    row[x] = (char) (in.get() & 0xFF);
+                }
+            }
+            snapshot.forces = ForceField.compile(snapshot.boardRows);  // Compiled from the tiles on the board
+
+            int holeCount = in.getInt();
+            snapshot.holeTypes = new HashMap<>();
+            for (int i = 0; i < holeCount; i++) {
+                PVector position = new PVector(in.getFloat(), in.getFloat());
+                snapshot.holeTypes.put(position, in.getInt());
+            }
+            int entrypointCount = in.getInt();
+            snapshot.entrypoints = new ArrayList<>();
+            for (int i = 0; i < entrypointCount; i++) {
+                snapshot.entrypoints.add(new PVector(in.getFloat(), in.getFloat()));
+            }
+
+            snapshot.ballCount = in.getInt();
+            snapshot.balls = new Ball[snapshot.ballCount];
+            snapshot.ballFloats = new float[snapshot.ballCount * GameSnapshot.BALL_FLOATS];
+            snapshot.ballColors = new int[snapshot.ballCount];
+            snapshot.ballAccelerationStart = new long[snapshot.ballCount];
+            snapshot.ballCaptured = new boolean[snapshot.ballCount];
+            snapshot.ballInGame = new boolean[snapshot.ballCount];
+            for (int i = 0; i < snapshot.ballCount; i++) {
+                for (int f = 0; f < GameSnapshot.BALL_FLOATS; f++) {
+                    snapshot.ballFloats[i * GameSnapshot.BALL_FLOATS + f] = in.getFloat();
+                }
+                snapshot.ballColors[i] = in.getInt();
+                snapshot.ballAccelerationStart[i] = in.getLong();
+                snapshot.ballCaptured[i] = in.get() != 0;
+                snapshot.ballInGame[i] = in.get() != 0;
+                snapshot.balls[i] = new Ball(app, 0, 0, snapshot.ballColors[i]);  // State is set on restore
+            }
+
+            snapshot.lineCount = in.getInt();
+            snapshot.lines = new Line[snapshot.lineCount];
+            for (int i = 0; i < snapshot.lineCount; i++) {
+                Line line = new Line();
+                int points = in.getInt();
+                for (int p = 0; p < points; p++) {
+                    line.addPoint(in.getFloat(), in.getFloat());
+                }
+                snapshot.lines[i] = line;
+            }
+
+            snapshot.spawnCount = in.getInt();
+            snapshot.ballsToSpawn = new String[snapshot.spawnCount];
+            for (int i = 0; i < snapshot.spawnCount; i++) {
+                byte[] color = new byte[in.getShort()];
+                in.get(color);
+                snapshot.ballsToSpawn[i] = new String(color, StandardCharsets.UTF_8);
+            }
+
+            snapshot.score = in.getInt();
+            snapshot.timeLeft = in.getInt();
+            snapshot.currentLevel = in.getInt();
+            snapshot.spawnInterval = in.getInt();
+            snapshot.spawnIntervalLeft = in.getFloat();
+            snapshot.lastSpawnTime = in.getInt();
+            snapshot.lastFrameTime = in.getFloat();
+            snapshot.lastYellowTileMoveTime = in.getLong();
+            snapshot.tickCount = in.getInt();
+            snapshot.remainingTimeBonus = in.getInt();
+            snapshot.scoreIncreaseModifier = in.getFloat();
+            snapshot.scoreDecreaseModifier = in.getFloat();
+            snapshot.yellowTile1X = in.getInt();
+            snapshot.yellowTile1Y = in.getInt();
+            snapshot.yellowTile2X = in.getInt();
+            snapshot.yellowTile2Y = in.getInt();
+            byte flags = in.get();
+            snapshot.isPaused = (flags & 1) != 0;
+            snapshot.levelEnded = (flags & 2) != 0;
+            snapshot.postLevelInProgress = (flags & 4) != 0;
+            snapshot.gameEnded = (flags & 8) != 0;
+            snapshot.timeUp = (flags & 16) != 0;
+            snapshot.randomState = in.getLong();
+            snapshot.clock = in.getInt();
+            snapshot.levelStartScore = in.getInt();
+
+            if (snapshot.currentLevel < 0 || snapshot.currentLevel >= app.totalLevels
+                    || height != app.getLevelHeight(snapshot.currentLevel)
+                    || width != app.getLevelWidth(snapshot.currentLevel)) {
+                throw new IOException("Save " + path + " does not match the loaded configuration");
+            }
+            return snapshot;
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            throw new IOException("Save file is truncated or corrupt: " + path, e);
+        }
+    }
+
+    /**
+     * Works out how many bytes a snapshot takes in the save format.
+     */
+    private static int sizeOf(GameSnapshot snapshot) {
+        int size = 6 + 4;  // Header and board size
+        for (char[] row : snapshot.boardRows) {
+            size += row.length;
+        }
+        size += 4 + snapshot.holeTypes.size() * 12;
+        size += 4 + snapshot.entrypoints.size() * 8;
+        size += 4 + snapshot.ballCount * (GameSnapshot.BALL_FLOATS * 4 + 4 + 8 + 2);
+        size += 4;
+        for (int i = 0; i < snapshot.lineCount; i++) {
+            size += 4 + snapshot.lines[i].size() * 8;
+        }
+        size += 4;
+        for (int i = 0; i < snapshot.spawnCount; i++) {
+            size += 2 + snapshot.ballsToSpawn[i].getBytes(StandardCharsets.UTF_8).length;
+        }
+        return size + 128;  // Scalars
+    }
+}
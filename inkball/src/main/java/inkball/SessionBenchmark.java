@@ -0,0 +1,94 @@
+package inkball;
+
+/**
+ * Measures how many headless sessions one process can host: the heap used per session, the
+ * number of sessions one core can keep ticking at the game's frame rate, and how a SessionHost
+ * copes with that many sessions in real time.
+ * <p>
+ * Arguments: [sessions] [seconds] [config path].
+ */
+public class SessionBenchmark {
+
+    /**
+     * Runs the benchmark and prints the results.
+     * @param args The command line arguments.
+     * @throws InterruptedException If interrupted while waiting for the worker threads.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int sessionCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        String configPath = args.length > 2 ? args[2] : "config.json";
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        // Memory per session
+        long heapBefore = usedHeap();
+        App[] sessions = new App[sessionCount];
+        for (int i = 0; i < sessionCount; i++) {
+            sessions[i] = App.createHeadless(configPath, i);
+        }
+        long heapAfter = usedHeap();
+        System.out.printf("%d sessions use %.1f MB of heap, %.1f KB per session%n",
+                sessionCount, (heapAfter - heapBefore) / 1e6, (heapAfter - heapBefore) / 1024.0 / sessionCount);
+
+        // Restart finished sessions from their first frame, so every tick measured is a live one
+        GameSnapshot[] starts = new GameSnapshot[sessionCount];
+        for (int i = 0; i < sessionCount; i++) {
+            starts[i] = sessions[i].snapshot();
+        }
+
+        // Raw throughput: every core ticks its share of the sessions as fast as it can
+        long[] ticks = new long[cores];
+        Thread[] workers = new Thread[cores];
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        for (int w = 0; w < cores; w++) {
+            int worker = w;
+            workers[w] = new Thread(() -> {
+                while (System.nanoTime() < deadline) {
+                    for (int i = worker; i < sessionCount; i += cores) {
+                        App session = sessions[i];
+                        if (session.timeUp || session.gameEnded) {
+                            session.restore(starts[i]);
+                        }
+                        session.tick();
+                        ticks[worker]++;
+                    }
+                }
+            });
+            workers[w].start();
+        }
+        long totalTicks = 0;
+        for (int w = 0; w < cores; w++) {
+            workers[w].join();
+            totalTicks += ticks[w];
+        }
+        double ticksPerCore = totalTicks / (double) seconds / cores;
+        System.out.printf("%.0f ticks/s per core on %d cores: about %.0f sessions per core at %d FPS%n",
+                ticksPerCore, cores, ticksPerCore / App.FPS, App.FPS);
+
+        // Real time: the same sessions on a SessionHost with one shard per core
+        SessionHost host = new SessionHost(cores);
+        for (int i = 0; i < sessionCount; i++) {
+            sessions[i].restore(starts[i]);
+            host.add(sessions[i]);
+        }
+        host.start();
+        Thread.sleep(seconds * 1000L);
+        host.stop();
+        double expected = (double) sessionCount * App.FPS * seconds;
+        System.out.printf("SessionHost ran %d of %.0f expected ticks (%.1f%%), %d overrunning frames, %.1f%% busy%n",
+                host.totalTicks(), expected, 100.0 * host.totalTicks() / expected, host.overruns(),
+                100.0 * host.busyNanos() / (seconds * 1e9 * cores));
+    }
+
+    /**
+     * Measures the heap in use after a full garbage collection.
+     * @return The used heap in bytes.
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
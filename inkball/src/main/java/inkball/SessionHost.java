@@ -0,0 +1,190 @@
+package inkball;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+
+/**
+ * Hosts many independent headless games (sessions) in one process and ticks them on a shared scheduler.
+ * <p>
+ * Sessions are spread over a fixed number of shards. Each shard is run by one scheduler thread that
+ * ticks all of its sessions once per frame, so a session is only ever touched by its shard's thread
+ * and needs no locking. Work for a session from other threads, such as player input, is queued with
+ * {@link #submit(App, Consumer)} and runs on the shard's thread at the next tick boundary.
+ */
+public class SessionHost {
+    private static final long FRAME_NANOS = 1_000_000_000L / App.FPS;
+
+    private final Shard[] shards;
+    private final Map<App, Shard> shardOf = new ConcurrentHashMap<>();
+    private final AtomicInteger nextShard = new AtomicInteger();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * The sessions ticked by one scheduler thread.
+     */
+    private static class Shard {
+        final List<App> sessions = new ArrayList<>();  // Only touched by the shard's thread
+        final ConcurrentLinkedQueue<Runnable> pending = new ConcurrentLinkedQueue<>();
+        volatile long ticks = 0;     // Session ticks run so far
+        volatile long busyNanos = 0; // Time spent ticking
+        volatile long overruns = 0;  // Frames that took longer than the frame interval
+
+        /**
+         * Runs queued work, then ticks every session once.
+         */
+        void tickAll() {
+            long start = System.nanoTime();
+            for (Runnable task = pending.poll(); task != null; task = pending.poll()) {
+                task.run();
+            }
+            for (int i = sessions.size() - 1; i >= 0; i--) {
+                App session = sessions.get(i);
+                try {
+                    session.tick();
+                } catch (RuntimeException e) {
+                    // A broken session must not stop the rest of the shard
+                    System.err.println("Closing session after error: " + e);
+                    sessions.remove(i);
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            ticks += sessions.size();
+            busyNanos += elapsed;
+            if (elapsed > FRAME_NANOS) {
+                overruns++;
+            }
+        }
+    }
+
+    /**
+     * Creates a host with the given number of shards (scheduler threads).
+     * @param shardCount The number of shards; usually the number of cores.
+     */
+    public SessionHost(int shardCount) {
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    /**
+     * Creates a headless session and adds it to the next shard in turn.
+     * @param configPath Path to the configuration file.
+     * @param seed Seed for the session's random generator.
+     * @return The new session.
+     */
+    public App open(String configPath, long seed) {
+        App session = App.createHeadless(configPath, seed);
+        add(session);
+        return session;
+    }
+
+    /**
+     * Adds an existing headless session to the host. It is ticked from the next frame on.
+     * @param session The session to add.
+     */
+    public void add(App session) {
+        Shard shard = shards[Math.floorMod(nextShard.getAndIncrement(), shards.length)];
+        shardOf.put(session, shard);
+        shard.pending.add(() -> shard.sessions.add(session));
+    }
+
+    /**
+     * Removes a session from the host. It is no longer ticked from the next frame on.
+     * @param session The session to remove.
+     */
+    public void close(App session) {
+        Shard shard = shardOf.remove(session);
+        if (shard != null) {
+            shard.pending.add(() -> shard.sessions.remove(session));
+        }
+    }
+
+    /**
+     * Queues work for a session, to be run on the session's thread before its next tick.
+     * @param session The session to act on.
+     * @param action The work to run.
+     */
+    public void submit(App session, Consumer<App> action) {
+        Shard shard = shardOf.get(session);
+        if (shard != null) {
+            shard.pending.add(() -> action.accept(session));
+        }
+    }
+
+    /**
+     * Starts ticking every shard at the game's frame rate.
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newScheduledThreadPool(shards.length, runnable -> {
+            Thread thread = new Thread(runnable, "inkball-session-shard");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (Shard shard : shards) {
+            scheduler.scheduleAtFixedRate(shard::tickAll, 0, FRAME_NANOS, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Stops ticking and waits for the frame in progress to finish.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler.awaitTermination(1, TimeUnit.SECONDS);
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Gets the number of sessions hosted.
+     * @return The number of open sessions.
+     */
+    public int sessionCount() {
+        return shardOf.size();
+    }
+
+    /**
+     * Gets the number of session ticks run so far across all shards.
+     * @return The total number of ticks.
+     */
+    public long totalTicks() {
+        long total = 0;
+        for (Shard shard : shards) {
+            total += shard.ticks;
+        }
+        return total;
+    }
+
+    /**
+     * Gets the time spent ticking sessions so far across all shards.
+     * @return The total busy time in nanoseconds.
+     */
+    public long busyNanos() {
+        long total = 0;
+        for (Shard shard : shards) {
+            total += shard.busyNanos;
+        }
+        return total;
+    }
+
+    /**
+     * Gets the number of shard frames that took longer than one frame interval.
+     * @return The number of overrunning frames.
+     */
+    public long overruns() {
+        long total = 0;
+        for (Shard shard : shards) {
+            total += shard.overruns;
+        }
+        return total;
+    }
+}
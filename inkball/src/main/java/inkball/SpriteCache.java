@@ -0,0 +1,96 @@
+package inkball;
+
+import processing.core.PApplet;
+import processing.core.PGraphics;
+import processing.core.PImage;
+
+
+/**
+ * The game's sprites, resampled once when the images are loaded to every size they are drawn at,
+ * so that drawing them is a plain copy of pixels instead of a resample every frame.
+ * <p>
+ * A ball shrinks continuously as it falls into a hole, so its sizes are quantised to whole pixels
+ * of diameter: one sprite per colour for every diameter from 1 up to a full-sized ball. The holes
+ * are pre-sized to 2x2 cells, the accelerators to one cell, in each of their eight directions, and
+ * the balls of the spawn queue to the size shown in the top bar. The cache never changes once
+ * built, so games that share images share it too.
+ */
+class SpriteCache {
+    static final int BALL_DIAMETER = 24;  // Diameter of a full-sized ball in pixels
+    static final int QUEUE_BALL_SIZE = 32;  // Size of the balls shown in the spawn queue
+    static final String DIRECTIONS = "UDLRQEZC";  // Accelerator directions, in the order of accelerators[]
+
+    final PImage[][] balls;       // [colour][diameter in pixels]; index 0 is unused
+    final PImage[] queueBalls;    // [colour]
+    final PImage[] holes;         // [colour]
+    final PImage[] accelerators;  // [index in DIRECTIONS]
+
+    private SpriteCache(int colors) {
+        balls = new PImage[colors][BALL_DIAMETER + 1];
+        queueBalls = new PImage[colors];
+        holes = new PImage[colors];
+        accelerators = new PImage[DIRECTIONS.length()];
+    }
+
+    /**
+     * Resamples the loaded images of an app into a cache.
+     * @param app An app whose images have been loaded.
+     * @return The cache.
+     */
+    static SpriteCache build(App app) {
+        SpriteCache cache = new SpriteCache(app.ballImages.length);
+        for (int color = 0; color < app.ballImages.length; color++) {
+            for (int diameter = 1; diameter <= BALL_DIAMETER; diameter++) {
+                cache.balls[color][diameter] = resized(app.ballImages[color], diameter, diameter);
+            }
+            cache.queueBalls[color] = resized(app.ballImages[color], QUEUE_BALL_SIZE, QUEUE_BALL_SIZE);
+        }
+        for (int color = 0; color < app.holeImages.length; color++) {
+            cache.holes[color] = resized(app.holeImages[color], App.CELLSIZE * 2, App.CELLSIZE * 2);
+        }
+
+        // Turned accelerators are drawn once into a cell-sized buffer and kept as images
+        cache.accelerators[0] = resized(app.upAccelerationImage, App.CELLSIZE, App.CELLSIZE);
+        cache.accelerators[1] = resized(app.downAccelerationImage, App.CELLSIZE, App.CELLSIZE);
+        PGraphics pg = OffscreenGraphics.create(app, App.CELLSIZE, App.CELLSIZE);
+        for (int i = 2; i < DIRECTIONS.length(); i++) {
+            char direction = DIRECTIONS.charAt(i);
+            pg.beginDraw();
+            pg.clear();
+            pg.translate(App.CELLSIZE / 2f, App.CELLSIZE / 2f);
+            pg.rotate(PApplet.atan2(ForceField.directionX(direction), -ForceField.directionY(direction)));
+            pg.image(cache.accelerators[0], -App.CELLSIZE / 2f, -App.CELLSIZE / 2f);
+            pg.endDraw();
+            cache.accelerators[i] = pg.get();
+        }
+        pg.dispose();
+        return cache;
+    }
+
+    /**
+     * Gets the sprite of a ball at a size.
+     * @param colorIndex The colour of the ball.
+     * @param diameter The diameter to draw the ball at, in pixels.
+     * @return The sprite closest to the size, or null if the ball is too small to be seen.
+     */
+    PImage ball(int colorIndex, float diameter) {
+        int pixels = Math.min(BALL_DIAMETER, Math.round(diameter));
+        return pixels <= 0 ? null : balls[colorIndex][pixels];
+    }
+
+    /**
+     * Gets the sprite of an accelerator.
+     * @param direction The direction character of the accelerator.
+     * @return The sprite, or null if the character is not a direction.
+     */
+    PImage accelerator(char direction) {
+        int index = DIRECTIONS.indexOf(direction);
+        return index < 0 ? null : accelerators[index];
+    }
+
+    private static PImage resized(PImage image, int width, int height) {
+        PImage copy = image.copy();
+        copy.resize(width, height);
+        return copy;
+    }
+}
@@ -0,0 +1,323 @@
+package inkball;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Writes gameplay records to compressed files for analysis, without slowing the game down.
+ * <p>
+ * Two kinds of record are written, one JSON object per line:
+ * <ul>
+ *   <li>"ball", when a ball falls into a hole: its colour, the cell it entered the board at, the
+ *       ticks it was spawned and captured on and the time in between, how often it bounced and
+ *       was recoloured by a wall, and the hole's colour and whether it matched.</li>
+ *   <li>"level", when the end of a level has been played out: the score with the time bonus,
+ *       the ticks the level took, and the balls spawned, captured, matched and requeued, strokes
+ *       hit and recolours.</li>
+ * </ul>
+ * The game thread listens to the game's events and fills preallocated slots of a bounded
+ * single-producer, single-consumer ring, then publishes them with an ordered write; it never
+ * locks, allocates or waits. A background thread takes the records in batches, formats them and
+ * appends them to a gzip file, flushed after every batch and rolled every {@link #ROLL_RECORDS}.
+ * When the writer falls behind and the ring is full, records are dropped and counted rather
+ * than holding the game up.
+ */
+public class Telemetry implements Runnable {
+    static final int CAPACITY = 4096;       // Slots in the ring; a power of two
+    static final int BATCH = 512;           // Most records formatted and written at once
+    static final int ROLL_RECORDS = 100_000;  // Records per file
+    private static final long IDLE_NANOS = 2_000_000;  // How long the writer sleeps when there is nothing to write
+
+    private static final int BALL = 0;
+    private static final int LEVEL = 1;
+
+    /**
+     * A slot of the ring, reused for every record that passes through it.
+     */
+    private static final class Record {
+        int type;
+        int level;
+        int color, holeColor;           // Ball
+        int entryX, entryY;             // Ball: cell it entered at
+        int spawnTick, captureTick;     // Ball
+        int bounces, recolours;         // Ball; recolours also for levels
+        int score, ticks;               // Level
+        int spawned, captured, matched, strokeHits;  // Level; matched also for balls, as 0 or 1
+    }
+
+    private final App game;
+    private final File directory;
+    private final Record[] slots = new Record[CAPACITY];
+    private final AtomicLong head = new AtomicLong();  // Next record to write; advanced by the writer
+    private final AtomicLong tail = new AtomicLong();  // Next free slot; advanced by the game thread
+    private final GameEvents.Listener listener = this::onEvents;
+    private final long startMillis = System.currentTimeMillis();
+    private Thread writer;
+    private Thread shutdownHook;
+    private volatile boolean closed = false;
+
+    // The current level, counted on the game thread
+    private int levelStartTick;
+    private int levelSpawned, levelCaptured, levelMatched, levelStrokeHits, levelRecolours;
+
+    // The writer's file
+    private Writer out;
+    private int part = 0;
+    private int recordsInFile = 0;
+
+    // Statistics
+    public volatile long recorded = 0;   // Records handed to the writer
+    public volatile long dropped = 0;    // Records dropped because the ring was full
+    public volatile long highWater = 0;  // Most records ever waiting in the ring
+    public volatile long written = 0;    // Records written to a file
+    public volatile long batches = 0;    // Batches written
+    public volatile long writeNanos = 0; // Time the writer spent formatting, compressing and writing
+
+    private Telemetry(App game, File directory) {
+        this.game = game;
+        this.directory = directory;
+        for (int i = 0; i < CAPACITY; i++) {
+            slots[i] = new Record();
+        }
+        this.levelStartTick = game.tickCount;
+    }
+
+    /**
+     * Starts writing a game's records. Files are named telemetry-[start time]-[part].jsonl.gz.
+     * The files are closed when close() is called or the program exits.
+     * @param game The game to record.
+     * @param directory The directory to write the files to; created if needed.
+     * @return The running telemetry.
+     */
+    public static Telemetry start(App game, File directory) {
+        directory.mkdirs();
+        Telemetry telemetry = new Telemetry(game, directory);
+        telemetry.writer = new Thread(telemetry, "inkball-telemetry");
+        telemetry.writer.setDaemon(true);
+        telemetry.writer.start();
+        telemetry.shutdownHook = new Thread(telemetry::drainAndStop, "inkball-telemetry-exit");
+        Runtime.getRuntime().addShutdownHook(telemetry.shutdownHook);
+        game.events.subscribe(telemetry.listener);
+        game.telemetry = telemetry;
+        return telemetry;
+    }
+
+    /**
+     * Stops recording, writes the records still waiting and closes the file.
+     */
+    public void close() {
+        game.events.unsubscribe(listener);
+        if (game.telemetry == this) {
+            game.telemetry = null;
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // Already shutting down; the hook is running
+        }
+        drainAndStop();
+    }
+
+    /**
+     * Gets the number of records waiting to be written.
+     * @return The number of records in the ring.
+     */
+    public int queued() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * Counts the game's events and records each capture. Runs on the game thread.
+     */
+    private void onEvents(GameEvents events) {
+        for (int i = 0; i < events.size(); i++) {
+            switch (events.kind(i)) {
+                case GameEvents.SPAWN:
+                    levelSpawned++;
+                    break;
+                case GameEvents.RECOLOUR:
+                    levelRecolours++;
+                    break;
+                case GameEvents.STROKE_HIT:
+                    levelStrokeHits++;
+                    break;
+                case GameEvents.CAPTURE:
+                    Ball ball = events.ball(i);
+                    boolean matched = App.colorsMatch(events.color(i), events.detail(i));
+                    levelCaptured++;
+                    levelMatched += matched ? 1 : 0;
+                    Record record = claim();
+                    if (record != null) {
+                        record.type = BALL;
+                        record.level = game.currentLevel;
+                        record.color = events.color(i);
+                        record.holeColor = events.detail(i);
+                        record.matched = matched ? 1 : 0;
+                        record.entryX = (int) (ball.spawnX / App.CELLSIZE);
+                        record.entryY = (int) ((ball.spawnY - App.TOPBAR) / App.CELLSIZE);
+                        record.spawnTick = ball.spawnTick;
+                        record.captureTick = game.tickCount;
+                        record.bounces = ball.bounces;
+                        record.recolours = ball.recolours;
+                        publish();
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Records the summary of the level that was just played out and starts counting the next.
+     * Called by the game once the time bonus has been added.
+     */
+    void levelFinished() {
+        Record record = claim();
+        if (record != null) {
+            record.type = LEVEL;
+            record.level = game.currentLevel;
+            record.score = game.score;
+            record.ticks = game.tickCount - levelStartTick;
+            record.spawned = levelSpawned;
+            record.captured = levelCaptured;
+            record.matched = levelMatched;
+            record.strokeHits = levelStrokeHits;
+            record.recolours = levelRecolours;
+            publish();
+        }
+        levelStartTick = game.tickCount;
+        levelSpawned = levelCaptured = levelMatched = levelStrokeHits = levelRecolours = 0;
+    }
+
+    /**
+     * Gets the next free slot, or counts a drop if the writer has fallen a whole ring behind.
+     * @return The slot to fill, or null.
+     */
+    private Record claim() {
+        long t = tail.get();
+        long waiting = t - head.get();
+        if (waiting >= CAPACITY || closed) {
+            dropped++;
+            return null;
+        }
+        if (waiting + 1 > highWater) {
+            highWater = waiting + 1;
+        }
+        return slots[(int) (t & (CAPACITY - 1))];
+    }
+
+    /**
+     * Hands the slot filled since claim() to the writer.
+     */
+    private void publish() {
+        tail.lazySet(tail.get() + 1);  // Ordered after the writes to the slot
+        recorded++;
+    }
+
+    /**
+     * The writer loop: takes batches of records until closed and the ring is empty.
+     */
+    @Override
+    public void run() {
+        StringBuilder text = new StringBuilder(BATCH * 200);
+        try {
+            while (true) {
+                boolean closing = closed;  // Read first, so that records published before closing are written
+                if (writeBatch(text) == 0) {
+                    if (closing) {
+                        break;
+                    }
+                    LockSupport.parkNanos(IDLE_NANOS);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Telemetry stopped writing to " + directory + ": " + e);
+        } finally {
+            try {
+                if (out != null) {
+                    out.close();
+                }
+            } catch (IOException e) {
+                System.err.println("Could not close the telemetry file: " + e);
+            }
+        }
+    }
+
+    /**
+     * Formats up to a batch of records, frees their slots, then writes and flushes them.
+     * @return The number of records written.
+     */
+    private int writeBatch(StringBuilder text) throws IOException {
+        long h = head.get();
+        int count = (int) Math.min(tail.get() - h, BATCH);
+        if (count == 0) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        text.setLength(0);
+        for (int i = 0; i < count; i++) {
+            format(slots[(int) ((h + i) & (CAPACITY - 1))], text);
+        }
+        head.lazySet(h + count);  // The slots are free again before the slow part
+
+        if (out == null || recordsInFile >= ROLL_RECORDS) {
+            if (out != null) {
+                out.close();
+            }
+            File file = new File(directory, "telemetry-" + startMillis + "-" + part++ + ".jsonl.gz");
+            out = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file), 64 * 1024, true),
+                    StandardCharsets.UTF_8);
+            recordsInFile = 0;
+        }
+        out.append(text);
+        out.flush();  // A sync flush, so the file can be read while the game runs
+        recordsInFile += count;
+        written += count;
+        batches++;
+        writeNanos += System.nanoTime() - start;
+        return count;
+    }
+
+    private static void format(Record r, StringBuilder text) {
+        if (r.type == BALL) {
+            text.append("{\"type\":\"ball\",\"level\":").append(r.level)
+                .append(",\"color\":\"").append(App.COLOR_NAMES[r.color])
+                .append("\",\"entry\":[").append(r.entryX).append(',').append(r.entryY)
+                .append("],\"spawn_tick\":").append(r.spawnTick)
+                .append(",\"capture_tick\":").append(r.captureTick)
+                .append(",\"time_to_capture_ms\":").append((r.captureTick - r.spawnTick) * 1000L / App.FPS)
+                .append(",\"bounces\":").append(r.bounces)
+                .append(",\"recolours\":").append(r.recolours)
+                .append(",\"hole\":\"").append(App.COLOR_NAMES[r.holeColor])
+                .append("\",\"matched\":").append(r.matched == 1)
+                .append("}\n");
+        } else {
+            text.append("{\"type\":\"level\",\"level\":").append(r.level)
+                .append(",\"score\":").append(r.score)
+                .append(",\"ticks\":").append(r.ticks)
+                .append(",\"spawned\":").append(r.spawned)
+                .append(",\"captured\":").append(r.captured)
+                .append(",\"matched\":").append(r.matched)
+                .append(",\"requeued\":").append(r.captured - r.matched)
+                .append(",\"stroke_hits\":").append(r.strokeHits)
+                .append(",\"recolours\":").append(r.recolours)
+                .append("}\n");
+        }
+    }
+
+    /**
+     * Lets the writer finish what is queued and waits for it to close the file.
+     */
+    private void drainAndStop() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
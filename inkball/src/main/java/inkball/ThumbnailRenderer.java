@@ -0,0 +1,182 @@
+package inkball;
+
+import processing.core.PApplet;
+import processing.data.JSONArray;
+import processing.data.JSONObject;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/**
+ * Renders preview thumbnails of level layouts without opening a window.
+ * Each layout is compiled and drawn with the same tile logic as the game board into an
+ * offscreen buffer, on a pool of worker threads. The PNGs are cached on disk under the
+ * hash of the layout's content, so editing one level only re-renders that thumbnail.
+ */
+public class ThumbnailRenderer {
+    private final App assets;  // Supplies the board images and resolves layout paths
+    private final File cacheDir;  // Directory holding the cached PNGs
+    private final ExecutorService pool;  // Worker threads that render the thumbnails
+
+    /**
+     * Creates a renderer that draws with the images of the given app.
+     * @param assets An app whose images have been loaded with {@link App#loadImages()}.
+     * @param cacheDir The directory to cache thumbnails in; created if missing.
+     * @param threads The number of worker threads.
+     */
+    public ThumbnailRenderer(App assets, File cacheDir, int threads) {
+        this.assets = assets;
+        this.cacheDir = cacheDir;
+        this.pool = Executors.newFixedThreadPool(threads);
+        cacheDir.mkdirs();
+    }
+
+    /**
+     * Renders a thumbnail for every distinct layout referenced by the levels of a config.
+     * Layouts whose thumbnail is already cached are not drawn again.
+     *
+     * @param config The game configuration.
+     * @param scale The size of the thumbnail relative to the board (1.0 = full size).
+     * @return The thumbnail file of each layout, keyed by layout path in config order.
+     * @throws IOException If a layout could not be rendered or written.
+     */
+    public Map<String, File> renderAll(JSONObject config, float scale) throws IOException {
+        Map<String, Future<File>> pending = new LinkedHashMap<>();
+        JSONArray levels = config.getJSONArray("levels");
+        for (int i = 0; i < levels.size(); i++) {
+            JSONObject level = levels.getJSONObject(i);
+            String layoutFile = level.getString("layout");
+            int width = level.getInt("width", App.BOARD_WIDTH);
+            int height = level.getInt("height", App.BOARD_HEIGHT);
+            if (!pending.containsKey(layoutFile)) {
+                pending.put(layoutFile, pool.submit(() -> renderLayout(layoutFile, width, height, scale)));
+            }
+        }
+
+        Map<String, File> thumbnails = new LinkedHashMap<>();
+        for (Map.Entry<String, Future<File>> entry : pending.entrySet()) {
+            try {
+                thumbnails.put(entry.getKey(), entry.getValue().get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while rendering " + entry.getKey(), e);
+            } catch (ExecutionException e) {
+                throw new IOException("Could not render " + entry.getKey(), e.getCause());
+            }
+        }
+        return thumbnails;
+    }
+
+    /**
+     * Renders the thumbnail of one layout on a board of the default size.
+     *
+     * @param layoutFile The path of the layout file.
+     * @param scale The size of the thumbnail relative to the board.
+     * @return The thumbnail file.
+     * @throws IOException If the layout could not be read or the thumbnail could not be written.
+     */
+    public File renderLayout(String layoutFile, float scale) throws IOException {
+        return renderLayout(layoutFile, App.BOARD_WIDTH, App.BOARD_HEIGHT, scale);
+    }
+
+    /**
+     * Renders the thumbnail of one layout, or returns the cached one if its content has not changed.
+     *
+     * @param layoutFile The path of the layout file.
+     * @param boardWidth The width of the level's board in cells.
+     * @param boardHeight The height of the level's board in cells.
+     * @param scale The size of the thumbnail relative to the board.
+     * @return The thumbnail file.
+     * @throws IOException If the layout could not be read or the thumbnail could not be written.
+     */
+    public File renderLayout(String layoutFile, int boardWidth, int boardHeight, float scale) throws IOException {
+        byte[] content = assets.loadBytes(layoutFile);
+        if (content == null) {
+            throw new IOException("Layout not found: " + layoutFile);
+        }
+
+        File thumbnail = new File(cacheDir, contentHash(content) + "-" + boardWidth + "x" + boardHeight
+                + "-" + PApplet.nf(scale, 1, 2) + ".png");
+        if (thumbnail.exists()) {
+            return thumbnail;  // Unchanged since it was last rendered
+        }
+
+        String[] lines = PApplet.loadStrings(new ByteArrayInputStream(content));
+        LevelLayout layout = LevelLayout.compile(lines, boardWidth, boardHeight);
+
+        int width = Math.max(1, Math.round(layout.getWidth() * App.CELLSIZE * scale));
+        int height = Math.max(1, Math.round(layout.getHeight() * App.CELLSIZE * scale));
+        OffscreenGraphics pg = OffscreenGraphics.create(assets, width, height);
+        pg.beginDraw();
+        pg.background(200);
+        pg.scale(scale);
+        pg.translate(0, -App.TOPBAR);  // The board is drawn below the top bar; thumbnails leave it out
+        assets.drawBoard(pg, layout.cells, layout.holeTypes);
+        pg.endDraw();
+
+        // Write next to the final file and move it into place, so readers never see a partial PNG
+        File partial = new File(cacheDir, thumbnail.getName() + "." + Thread.currentThread().getId() + ".png");
+        if (!pg.save(partial.getAbsolutePath())) {
+            throw new IOException("Could not write " + partial);
+        }
+        Files.move(partial.toPath(), thumbnail.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return thumbnail;
+    }
+
+    /**
+     * Calculates the hex SHA-256 hash of a layout's content.
+     * @param content The bytes of the layout file.
+     * @return The hash as a lowercase hex string.
+     */
+    static String contentHash(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Stops the worker threads once queued thumbnails have been rendered.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Renders thumbnails for every level of a config from the command line.
+     * Arguments: [config path] [scale] [cache directory] [threads].
+     * @param args The command line arguments.
+     */
+    public static void main(String[] args) {
+        String configPath = args.length > 0 ? args[0] : "config.json";
+        float scale = args.length > 1 ? Float.parseFloat(args[1]) : 0.25f;
+        File cacheDir = new File(args.length > 2 ? args[2] : "build/thumbnails");
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        App assets = new App();
+        assets.loadImages();
+        ThumbnailRenderer renderer = new ThumbnailRenderer(assets, cacheDir, threads);
+        try {
+            for (Map.Entry<String, File> entry : renderer.renderAll(assets.loadJSONObject(configPath), scale).entrySet()) {
+                System.out.println(entry.getKey() + " -> " + entry.getValue());
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        } finally {
+            renderer.shutdown();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package inkball;
+
+import java.util.Arrays;
+
+
+/**
+ * A hashed timer wheel: tasks that fire at a game time, with constant-time scheduling and
+ * expiry, so that the game does not compare every ball's timers against the clock on every tick.
+ * <p>
+ * The wheel has {@link #SLOTS} slots of {@link #RESOLUTION_MILLIS} milliseconds each, one turn
+ * of the wheel covering a little over four seconds. A task is linked into the slot of its
+ * deadline; advancing the wheel to a time walks only the slots that time has passed since the
+ * last advance, and fires the tasks in them whose deadline has come. A task due more than a turn
+ * ahead stays in its slot until the turn it is due in. The entries are kept in parallel arrays,
+ * linked by index, and reused, so scheduling allocates nothing once the pool has grown to the
+ * number of timers in flight.
+ * <p>
+ * A task cannot be cancelled. A task whose timer has been replaced, such as a ball whose boost
+ * was renewed, checks when it fires whether it is still due.
+ */
+public class TimerWheel {
+    static final int SLOTS = 1024;             // A power of two
+    static final int RESOLUTION_MILLIS = 4;    // Time covered by a slot
+
+    /**
+     * Something that happens at a game time.
+     */
+    public interface Task {
+        /**
+         * Called once the deadline the task was scheduled for has come.
+         * @param now The game time the wheel was advanced to.
+         */
+        void expire(long now);
+    }
+
+    private final int[] heads = new int[SLOTS];  // First entry of each slot, or -1
+    private Task[] tasks = new Task[256];
+    private long[] deadlines = new long[256];
+    private int[] next = new int[256];           // Next entry in the same slot or the free list, or -1
+    private int used = 0;                        // Entries ever handed out
+    private int free = -1;                       // First reusable entry
+    private int size = 0;                        // Tasks waiting
+    private long cursor = Long.MIN_VALUE;        // Slot time of the last advance, or none yet
+
+    // Statistics
+    public long scheduled = 0;  // Tasks scheduled
+    public long fired = 0;      // Tasks fired
+    public long visited = 0;    // Entries looked at by advance() that were not due yet
+
+    /**
+     * Creates an empty wheel.
+     */
+    public TimerWheel() {
+        Arrays.fill(heads, -1);
+    }
+
+    /**
+     * Schedules a task.
+     * @param task The task.
+     * @param deadline The game time in milliseconds from which it fires; a time already past
+     *                 fires at the next advance.
+     */
+    public void schedule(Task task, long deadline) {
+        int entry = free;
+        if (entry >= 0) {
+            free = next[entry];
+        } else {
+            if (used == tasks.length) {
+                tasks = Arrays.copyOf(tasks, used * 2);
+                deadlines = Arrays.copyOf(deadlines, used * 2);
+                next = Arrays.copyOf(next, used * 2);
+            }
+            entry = used++;
+        }
+        // Never behind the last advance, whose slot is walked again by the next one
+        long slotTime = Math.max(Math.floorDiv(deadline, RESOLUTION_MILLIS), cursor);
+        int slot = (int) (slotTime & (SLOTS - 1));
+        tasks[entry] = task;
+        deadlines[entry] = deadline;
+        next[entry] = heads[slot];
+        heads[slot] = entry;
+        size++;
+        scheduled++;
+    }
+
+    /**
+     * Fires every task whose deadline is at or before a time, in no particular order. Tasks may
+     * schedule new tasks when they fire.
+     * @param now The game time in milliseconds.
+     */
+    public void advance(long now) {
+        long last = Math.floorDiv(now, RESOLUTION_MILLIS);
+        long first = Math.max(cursor, last - SLOTS + 1);  // At most one turn, even after a long gap
+
+        // Unlink the due entries into a list of their own, then fire them
+        int due = -1;
+        for (long time = first; time <= last && size > 0; time++) {
+            int slot = (int) (time & (SLOTS - 1));
+            int previous = -1;
+            int entry = heads[slot];
+            while (entry >= 0) {
+                int following = next[entry];
+                if (deadlines[entry] <= now) {
+                    if (previous < 0) {
+                        heads[slot] = following;
+                    } else {
+                        next[previous] = following;
+                    }
+                    next[entry] = due;
+                    due = entry;
+                    size--;
+                } else {
+                    previous = entry;
+                    visited++;
+                }
+                entry = following;
+            }
+        }
+        cursor = Math.max(cursor, last);
+
+        while (due >= 0) {
+            int entry = due;
+            due = next[entry];
+            Task task = tasks[entry];
+            tasks[entry] = null;
+            next[entry] = free;
+            free = entry;
+            fired++;
+            task.expire(now);
+        }
+    }
+
+    /**
+     * Removes every task, e.g. when the game's clock is put back. The next advance walks a
+     * whole turn of the wheel.
+     */
+    public void clear() {
+        Arrays.fill(heads, -1);
+        Arrays.fill(tasks, 0, used, null);
+        used = 0;
+        free = -1;
+        size = 0;
+        cursor = Long.MIN_VALUE;
+    }
+
+    /**
+     * Gets the number of tasks waiting to fire.
+     * @return The number of tasks.
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,241 @@
+package inkball;
+
+import processing.core.PGraphics;
+import java.util.*;
+
+
+/**
+ * Predicts the path of every ball for the next few ticks, including bounces off walls, strokes
+ * and accelerators, for the trajectory overlay.
+ * <p>
+ * Each ball's path is simulated once with a copy of the ball that never scores, then kept in a
+ * ring buffer and reused across frames. When the real ball arrives exactly where the path said it
+ * would, the path slides forward by one step, which costs a single simulated tick. The whole path
+ * is simulated again only when the ball leaves it, when a stroke is added or removed near it, when
+ * a board cell changes (a wall is recoloured), or when the ball reaches a hole.
+ */
+class TrajectoryPredictor {
+    private final App app;
+    private final int ticksAhead;  // Number of ticks each path covers
+    private final Map<Ball, Path> paths = new IdentityHashMap<>();
+
+    // Strokes and board version seen on the previous update, used to find what changed
+    private final Set<Line> knownLines = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final List<Line> changedLines = new ArrayList<>();
+    private int knownBoardVersion = -1;
+    private int updateCount = 0;
+
+    // Statistics: how many whole paths and how many single steps were simulated
+    public long fullPredictions = 0;
+    public long incrementalSteps = 0;
+
+    /**
+     * The predicted path of one ball, held as a ring buffer of positions and velocities.
+     */
+    private static class Path {
+        final Ball ghost;  // Simulated copy of the ball, at the end of the path
+        final List<Line> consumed = new ArrayList<>();  // Strokes the copy has hit (a hit removes the stroke)
+        final float[] xs, ys, vxs, vys;
+        int start = 0;   // Index of the ball's current position in the ring
+        int length = 0;  // Number of positions in the path
+        boolean valid = false;
+        int lastSeen;    // Update in which the ball was last in the game
+
+        Path(Ball ball, int capacity) {
+            ghost = new Ball(ball);
+            xs = new float[capacity];
+            ys = new float[capacity];
+            vxs = new float[capacity];
+            vys = new float[capacity];
+        }
+
+        /**
+         * Appends the ghost's current position and velocity to the end of the path.
+         */
+        void append() {
+            int index = (start + length) % xs.length;
+            xs[index] = ghost.position.x;
+            ys[index] = ghost.position.y;
+            vxs[index] = ghost.velocity.x;
+            vys[index] = ghost.velocity.y;
+            length++;
+        }
+
+        /**
+         * Checks if any part of the path lies within the given distance of a rectangle.
+         */
+        boolean passesNear(float minX, float minY, float maxX, float maxY, float margin) {
+            for (int i = 0; i < length; i++) {
+                int index = (start + i) % xs.length;
+                if (xs[index] >= minX - margin && xs[index] <= maxX + margin
+                        && ys[index] >= minY - margin && ys[index] <= maxY + margin) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Creates a predictor for a game.
+     * @param app The game whose balls are predicted.
+     * @param ticksAhead How many ticks ahead each path reaches.
+     */
+    TrajectoryPredictor(App app, int ticksAhead) {
+        this.app = app;
+        this.ticksAhead = ticksAhead;
+    }
+
+    /**
+     * Brings every ball's path up to date with the current frame.
+     */
+    public void update() {
+        invalidateChanged();
+        updateCount++;
+
+        for (Ball ball : app.balls) {
+            Path path = paths.get(ball);
+            if (path == null) {
+                path = new Path(ball, ticksAhead + 1);
+                paths.put(ball, path);
+            }
+            path.lastSeen = updateCount;
+
+            if (path.valid && path.length > 1 && matchesNextStep(path, ball)) {
+                // The ball followed the path: drop the old position and extend the end by one step
+                path.start = (path.start + 1) % path.xs.length;
+                path.length--;
+                if (!path.ghost.isCaptured) {
+                    step(path, path.length - 1);
+                    path.append();
+                    incrementalSteps++;
+                }
+            } else if (!path.valid || path.length == 0 || !matchesCurrent(path, ball)) {
+                predict(path, ball);
+            }
+        }
+
+        // Forget balls that have left the game
+        paths.values().removeIf(path -> path.lastSeen != updateCount);
+    }
+
+    /**
+     * Draws every predicted path as a trail of dots.
+     * @param g The graphics to draw onto.
+     */
+    public void draw(PGraphics g) {
+        g.stroke(0, 110);
+        g.strokeWeight(3);
+        for (Path path : paths.values()) {
+            for (int i = 1; i < path.length; i += 3) {
+                int index = (path.start + i) % path.xs.length;
+                g.point(path.xs[index], path.ys[index]);
+            }
+        }
+    }
+
+    /**
+     * Invalidates the paths that pass near strokes added or removed since the last update,
+     * and all paths if the board has changed.
+     */
+    private void invalidateChanged() {
+        if (knownBoardVersion != app.boardVersion) {
+            knownBoardVersion = app.boardVersion;
+            for (Path path : paths.values()) {
+                path.valid = false;
+            }
+        }
+
+        // Find added and removed strokes
+        changedLines.clear();
+        for (Line line : app.drawnLines) {
+            if (!knownLines.contains(line)) {
+                changedLines.add(line);
+            }
+        }
+        if (knownLines.size() + changedLines.size() != app.drawnLines.size()) {
+            Set<Line> current = Collections.newSetFromMap(new IdentityHashMap<>());
+            current.addAll(app.drawnLines);
+            for (Line line : knownLines) {
+                if (!current.contains(line)) {
+                    changedLines.add(line);
+                }
+            }
+        }
+        if (changedLines.isEmpty()) {
+            return;
+        }
+        knownLines.clear();
+        knownLines.addAll(app.drawnLines);
+
+        for (Path path : paths.values()) {
+            if (!path.valid) {
+                continue;
+            }
+            for (Line line : changedLines) {
+                float margin = line.contactReach(path.ghost.radius) + 2 * Math.abs(path.ghost.velocity.x)
+                        + 2 * Math.abs(path.ghost.velocity.y);
+                if (path.passesNear(line.minX, line.minY, line.maxX, line.maxY, margin)) {
+                    path.valid = false;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Simulates a ball's whole path from its current state.
+     */
+    private void predict(Path path, Ball ball) {
+        path.ghost.copyStateFrom(ball);
+        path.consumed.clear();
+        path.start = 0;
+        path.length = 0;
+        path.append();
+        for (int i = 0; i < ticksAhead && !path.ghost.isCaptured; i++) {
+            step(path, i);
+            path.append();
+        }
+        path.valid = true;
+        fullPredictions++;
+    }
+
+    /**
+     * Advances the simulated copy by one tick, the same way the game moves a ball:
+     * an update followed by stroke collisions, skipping strokes the copy has already hit.
+     * @param ticksFromNow How many ticks ahead of the game the copy currently is.
+     */
+    private void step(Path path, int ticksFromNow) {
+        Ball ghost = path.ghost;
+        ghost.clockOffset = (int) ((long) (ticksFromNow + 1) * 1000 / App.FPS);
+        ghost.update();
+        if (ghost.isCaptured) {
+            return;  // Reached a hole; the path ends here
+        }
+        for (int i = app.drawnLines.size() - 1; i >= 0; i--) {
+            Line line = app.drawnLines.get(i);
+            if (!path.consumed.contains(line) && ghost.collideWithStroke(line)) {
+                path.consumed.add(line);
+            }
+        }
+    }
+
+    /**
+     * Checks if the ball is where the path's second position says it would be after one tick.
+     */
+    private boolean matchesNextStep(Path path, Ball ball) {
+        return matches(path, (path.start + 1) % path.xs.length, ball);
+    }
+
+    /**
+     * Checks if the ball is still at the first position of the path.
+     */
+    private boolean matchesCurrent(Path path, Ball ball) {
+        return matches(path, path.start, ball);
+    }
+
+    private boolean matches(Path path, int index, Ball ball) {
+        return path.xs[index] == ball.position.x && path.ys[index] == ball.position.y
+                && path.vxs[index] == ball.velocity.x && path.vys[index] == ball.velocity.y;
+    }
+}
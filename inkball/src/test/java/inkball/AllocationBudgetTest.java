@@ -0,0 +1,236 @@
+package inkball;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import processing.core.PVector;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Drives the engine for thousands of ticks under scripted scenarios and fails when a tick of one
+ * of the hot paths allocates more than its budget. Allocation is measured on the game thread with
+ * the JVM's per-thread allocation counter.
+ * <p>
+ * Run with "gradle allocationTest"; the task is part of "gradle check" and, unlike the other
+ * tests, fails the build.
+ */
+@Tag("allocation")
+public class AllocationBudgetTest {
+
+    // Budgets in bytes per tick (per call for spawns and captures)
+    static final long UPDATE_BUDGET = 0;       // The game's timers, then Ball.update() for every ball
+    static final long COLLISION_BUDGET = 0;    // checkBallLineCollisions()
+    static final long SPAWN_BUDGET = 256;      // spawnBall(): the new Ball and its two vectors
+    static final long CAPTURE_BUDGET = 64;     // A ball falling into a hole, including a requeue on a wrong colour
+
+    static final int TICKS = 5000;
+    static final int WARMUP_TICKS = 2000;
+
+    // A level with walls, coloured walls, holes of every colour and up and down accelerators
+    static final String[] LAYOUT = {
+        "XXXXXXXXXXXXXXXXXX",
+        "X  AU    H1    ADX",
+        "X               2X",
+        "X   1       S    X",
+        "X      AD        X",
+        "XH0          XX  X",
+        "X   S     AU     X",
+        "X        3       X",
+        "X   H2      H3   X",
+        "X                X",
+        "X  AD     S   AU X",
+        "X    4           X",
+        "X         H4     X",
+        "X  XX            X",
+        "X      S    AD   X",
+        "XAU      2       X",
+        "X            H0  X",
+        "XXXXXXXXXXXXXXXXXX",
+    };
+
+    private static com.sun.management.ThreadMXBean threads;
+    private static long overhead;  // Bytes the counter itself reports between two back-to-back reads
+
+    private App game;
+    private Random random;
+
+    @BeforeAll
+    public static void setupCounter() {
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assertTrue(threads.isThreadAllocatedMemorySupported(), "This JVM cannot count allocations per thread");
+        threads.setThreadAllocatedMemoryEnabled(true);
+        overhead = Long.MAX_VALUE;
+        for (int i = 0; i < 1000; i++) {
+            long start = allocated();
+            overhead = Math.min(overhead, allocated() - start);
+        }
+    }
+
+    @BeforeEach
+    public void setup() {
+        game = App.createHeadless("config.json", 42);
+        game.balls.clear();
+        game.applyLayout(LevelLayout.compile(LAYOUT, App.BOARD_WIDTH, App.BOARD_HEIGHT));
+        game.balls.clear();
+        random = new Random(42);
+    }
+
+    private static long allocated() {
+        return threads.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Adds balls of every colour at random open cells.
+     */
+    private void addBalls(int count) {
+        while (game.balls.size() < count) {
+            int x = 1 + random.nextInt(App.BOARD_WIDTH - 2);
+            int y = 1 + random.nextInt(App.BOARD_HEIGHT - 2);
+            if (game.board[y][x] == ' ') {
+                float cx = x * App.CELLSIZE + App.CELLSIZE / 2f;
+                float cy = App.TOPBAR + y * App.CELLSIZE + App.CELLSIZE / 2f;
+                game.balls.add(new Ball(game, cx, cy, random.nextInt(5)));
+            }
+        }
+    }
+
+    /**
+     * Draws a long wavy stroke across the board.
+     */
+    private Line longStroke(float y, int points) {
+        Line line = new Line();
+        for (int i = 0; i < points; i++) {
+            float x = 40 + i * (App.WIDTH - 80f) / points;
+            line.addPoint(new PVector(x, y + 20 * (float) Math.sin(i * 0.2)));
+        }
+        return line;
+    }
+
+    /**
+     * Keeps the scenario going: balls that fell into a hole are replaced and strokes that were
+     * hit are redrawn, outside the measured part of the tick.
+     */
+    private void refill(int ballCount, int strokeCount) {
+        game.balls.removeIf(ball -> ball.isCaptured);
+        addBalls(ballCount);
+        while (game.drawnLines.size() < strokeCount) {
+            game.drawnLines.add(longStroke(App.TOPBAR + 60 + random.nextInt(App.BOARD_HEIGHT * App.CELLSIZE - 120), 200));
+        }
+    }
+
+    // Test if moving many balls past walls, accelerators and holes allocates nothing
+    @Test
+    public void testBallUpdateStaysWithinBudget() {
+        long worst = 0;
+        for (int tick = 0; tick < WARMUP_TICKS + TICKS; tick++) {
+            refill(60, 0);
+            game.tickCount++;  // The clock moves on, so that speed boosts run out
+            long start = allocated();
+            game.expireTimers();
+            for (int i = 0; i < game.balls.size(); i++) {
+                game.balls.get(i).update();
+            }
+            long bytes = allocated() - start - overhead;
+
+            // Balls that fell into a hole this tick are held to the capture budget instead
+            int captured = 0;
+            for (int i = 0; i < game.balls.size(); i++) {
+                captured += game.balls.get(i).isCaptured ? 1 : 0;
+            }
+            long budget = UPDATE_BUDGET + captured * CAPTURE_BUDGET;
+            if (tick >= WARMUP_TICKS) {
+                worst = Math.max(worst, bytes - captured * CAPTURE_BUDGET);
+            }
+            assertTrue(bytes <= budget || tick < WARMUP_TICKS,
+                    "Ball.update() allocated " + bytes + " bytes in tick " + tick + ", budget " + budget);
+        }
+        System.out.println("Ball.update(): worst tick allocated " + worst + " bytes");
+    }
+
+    // Test if checking many balls against long strokes allocates nothing
+    @Test
+    public void testLineCollisionsStayWithinBudget() {
+        long worst = 0;
+        for (int tick = 0; tick < WARMUP_TICKS + TICKS; tick++) {
+            refill(40, 8);
+            for (int i = 0; i < game.balls.size(); i++) {
+                game.balls.get(i).update();
+            }
+            long start = allocated();
+            game.checkBallLineCollisions();
+            long bytes = allocated() - start - overhead;
+            if (tick >= WARMUP_TICKS) {
+                worst = Math.max(worst, bytes);
+            }
+            assertTrue(bytes <= COLLISION_BUDGET || tick < WARMUP_TICKS,
+                    "checkBallLineCollisions() allocated " + bytes + " bytes in tick " + tick + ", budget " + COLLISION_BUDGET);
+        }
+        System.out.println("checkBallLineCollisions(): worst tick allocated " + worst + " bytes");
+    }
+
+    // Test if spawning a ball allocates no more than the ball itself
+    @Test
+    public void testSpawnStaysWithinBudget() {
+        long worst = 0;
+        for (int i = 0; i < WARMUP_TICKS + TICKS; i++) {
+            if (game.ballsToSpawn.isEmpty()) {
+                for (int c = 0; c < 64; c++) {
+                    game.ballsToSpawn.add(game.balls.isEmpty() ? "grey" : "blue");
+                }
+            }
+            if (game.balls.size() > 100) {
+                game.balls.clear();
+            }
+            long start = allocated();
+            game.spawnBall();
+            long bytes = allocated() - start - overhead;
+            if (i >= WARMUP_TICKS) {
+                worst = Math.max(worst, bytes);
+            }
+            assertTrue(bytes <= SPAWN_BUDGET || i < WARMUP_TICKS,
+                    "spawnBall() allocated " + bytes + " bytes, budget " + SPAWN_BUDGET);
+        }
+        System.out.println("spawnBall(): worst spawn allocated " + worst + " bytes");
+    }
+
+    // Test if a ball being pulled into a hole and captured stays within budget, for right and wrong colours
+    @Test
+    public void testCaptureStaysWithinBudget() {
+        float[] holes = game.holeCenters();
+        long worst = 0;
+        int captures = 0;
+        for (int i = 0; i < WARMUP_TICKS + TICKS; i++) {
+            // Drop a ball right next to a hole, heading into it
+            int h = random.nextInt(holes.length / App.HOLE_FLOATS) * App.HOLE_FLOATS;
+            Ball ball = new Ball(game, holes[h] - 10, holes[h + 1] - 10, random.nextInt(5));
+            ball.setVelocity(new PVector(2, 2));
+            game.balls.clear();
+            game.balls.add(ball);
+            if (game.ballsToSpawn.size() > 100) {
+                game.ballsToSpawn.clear();
+            }
+
+            long start = allocated();
+            for (int t = 0; t < 20 && !ball.isCaptured; t++) {
+                ball.update();
+            }
+            long bytes = allocated() - start - overhead;
+            if (!ball.isCaptured) {
+                continue;
+            }
+            captures++;
+            if (i >= WARMUP_TICKS) {
+                worst = Math.max(worst, bytes);
+            }
+            assertTrue(bytes <= CAPTURE_BUDGET || i < WARMUP_TICKS,
+                    "Capturing a ball allocated " + bytes + " bytes, budget " + CAPTURE_BUDGET);
+        }
+        assertTrue(captures > TICKS / 2, "The scenario should capture balls, but captured only " + captures);
+        System.out.println("Capture: worst capture allocated " + worst + " bytes over " + captures + " captures");
+    }
+}
@@ -1,31 +1,53 @@
 package inkball;
 import inkball.Ball;
 
+import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import processing.core.PVector;
+import org.junit.jupiter.api.io.TempDir;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import processing.core.PApplet;
+import processing.core.PVector;
+import processing.data.JSONObject;
+import processing.event.MouseEvent;
 import java.util.Map;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Queue;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 public class AppTest {
 
+    static GameAssets assets;  // Loaded once and shared by every test, which may run in parallel
     App app;
 
+    @BeforeAll
+    public static void loadAssets() {
+        assets = GameAssets.load("config.json", true);
+    }
+
     @BeforeEach
     public void setup() {
-        // Initialize the Processing sketch using runSketch
-        app = new App();
-        String[] args = {"App"};
-        PApplet.runSketch(args, app);
-
-        // Wait for setup() to complete
-        app.setup();  // Call the setup method explicitly for your test environment
+        // A headless game with its own state and an offscreen renderer, built from the shared assets
+        app = App.createHeadless(assets, 42);
     }
 
     //LEVEL//
@@ -87,6 +109,82 @@ public class AppTest {
         }
     }
 
+    // Test if a generated stress level compiles to a board of its size with every object asked for
+    @Test
+    public void testGeneratedLevelLoads() {
+        LevelGenerator generator = LevelGenerator.atScale(10, 7);
+        LevelLayout layout = LevelLayout.compile(generator.generateLayout(), generator.width, generator.height);
+        app.balls.clear();
+        app.applyLayout(layout);
+
+        assertEquals(generator.height, app.board.length, "The board should take the generated height.");
+        assertEquals(generator.width, app.board[0].length, "The board should take the generated width.");
+        assertEquals(generator.holes, layout.holeTypes.size(), "Every generated hole should be found.");
+        assertEquals(generator.entryPoints, layout.entrypoints.size(), "Every generated entry point should be found.");
+        assertEquals(generator.placedBalls, app.balls.size(), "Every generated ball should be placed.");
+        assertTrue(app.isWall(generator.width - 1, generator.height - 1), "The board should have a wall border.");
+
+        // Balls move across the whole board, not just the default 18x18
+        for (int i = 0; i < 300; i++) {
+            app.updateGame();
+        }
+        for (Ball ball : app.balls) {
+            assertTrue(ball.position.x <= generator.width * App.CELLSIZE, "Balls should stay on the board.");
+        }
+    }
+
+    // Test if resetting a level larger than the default board keeps its whole layout and size
+    @Test
+    public void testResetKeepsLevelSize(@TempDir Path directory) throws IOException {
+        LevelGenerator generator = LevelGenerator.atScale(10, 7);
+        Path layoutFile = directory.resolve("stress.txt");
+        Files.write(layoutFile, Arrays.asList(generator.generateLayout()));
+        JSONObject config = PApplet.loadJSONObject(new File("config.json"));
+        config.getJSONArray("levels").setJSONObject(0, generator.levelConfig(layoutFile.toString()));
+        Path configFile = directory.resolve("config.json");
+        config.save(configFile.toFile(), "compact");
+
+        App game = App.createHeadless(configFile.toString(), 1);
+        char[][] loaded = new char[game.board.length][];
+        for (int y = 0; y < loaded.length; y++) {
+            loaded[y] = game.board[y].clone();
+        }
+        game.resetLevel();
+        assertEquals(generator.width, game.boardWidth, "The reset board should keep the level's width");
+        assertEquals(generator.height, game.boardHeight, "The reset board should keep the level's height");
+        assertEquals(loaded.length, game.board.length, "The reset board should keep every row");
+        for (int y = 0; y < loaded.length; y++) {
+            assertArrayEquals(loaded[y], game.board[y], "The reset board should match the loaded level");
+        }
+        assertEquals(generator.width - 1, game.yellowTile2X, "The yellow tiles should start in the board's corners");
+    }
+
+    // Test if the next level is compiled in the background when a level ends, and loads the same as without it
+    @Test
+    public void testNextLevelPreloaded() {
+        App expected = App.createHeadless(assets, 42);
+        expected.loadLevel(1);
+
+        app.endLevel();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!app.isPreloadDone() && System.currentTimeMillis() < deadline) {
+            Thread.onSpinWait();  // Played out by the post-level animation in a real game
+        }
+        app.timeLeft = 0;
+        app.handlePostLevelLogic();
+        assertEquals(1, app.getCurrentLevel(), "The game should move on to the next level");
+        assertEquals(1, app.preloadsUsed, "The next level should start from the preloaded layout");
+        for (int y = 0; y < expected.board.length; y++) {
+            assertArrayEquals(expected.board[y], app.board[y], "The preloaded board should match a synchronous load");
+        }
+        assertEquals(expected.getEntryPoints(), app.getEntryPoints(), "The preloaded entry points should match");
+
+        // A preload for another level is not used
+        app.preloadLevel(2);
+        app.loadLevel(0);
+        assertEquals(1, app.preloadsUsed, "A level that was not preloaded should load as usual");
+    }
+
     //Config
 
     // Test if the configuration file is loaded correctly
@@ -255,6 +353,36 @@ public class AppTest {
         assertEquals(new PVector(1, 1), newVelocity, "Ball velocity should reflect upwards after collision.");
     }
 
+    // Test if skipping ball and stroke pairs until they could touch gives the same game as testing every pair
+    @Test
+    public void testStrokePairCullingChangesNothing() {
+        App culled = App.createHeadless(assets, 11);
+        App every = App.createHeadless(assets, 11);
+        for (App game : new App[]{culled, every}) {
+            Random random = new Random(4);
+            for (int i = 0; i < 30; i++) {
+                game.balls.add(new Ball(game, 40 + random.nextInt(500), 100 + random.nextInt(500), random.nextInt(5)));
+            }
+            for (int i = 0; i < 20; i++) {
+                Line line = new Line();
+                float x = 40 + random.nextInt(480);
+                float y = 100 + random.nextInt(480);
+                for (int p = 0; p < 6; p++) {
+                    line.addPoint(x + p * 8, y + random.nextInt(12));
+                }
+                game.drawnLines.add(line);
+            }
+        }
+        for (int i = 0; i < 900; i++) {
+            every.collisionEpoch++;  // Forgets every skipped pair, so each pair is tested on each tick
+            culled.tick();
+            every.tick();
+        }
+        assertTrue(culled.strokePairsSkipped > culled.strokePairsTested, "Most pairs should have been skipped");
+        assertTrue(every.drawnLines.size() < 20, "Some strokes should have been hit");
+        assertEquals(describe(every), describe(culled), "Skipping pairs should not change what happens");
+    }
+
     // Walls
 
     // Test if a ball reflects off the top wall and changes its color after collision
@@ -277,6 +405,64 @@ public class AppTest {
         assertEquals(1, ball.colorIndex, "Ball color should change to orange after collision");
     }
 
+    // Force tiles
+
+    // Test if accelerators turn a ball in any direction, once per entry, and attractors pull balls in
+    @Test
+    public void testForceTiles() {
+        String[] lines = {
+            "XXXXXXXXXXXXXXXXXX",
+            "X                X",
+            "X  AR        AC  X",
+            "X                X",
+            "X                X",
+            "X        FI      X",
+            "X                X",
+            "X                X",
+            "X                X",
+            "X                X",
+            "X                X",
+            "X                X",
+            "X                X",
+            "X                X",
+            "X                X",
+            "X                X",
+            "X                X",
+            "XXXXXXXXXXXXXXXXXA",
+        };
+        app.balls.clear();
+        app.applyLayout(LevelLayout.compile(lines, App.BOARD_WIDTH, App.BOARD_HEIGHT));
+
+        // Entering the right accelerator from above turns the ball right and speeds it up
+        Ball ball = new Ball(app, 3 * 32 + 16, App.TOPBAR + 2 * 32 - 1, 0);
+        ball.setVelocity(new PVector(0, 2));
+        ball.update();
+        assertEquals(2, ball.getVelocity().x, 0.001, "The ball should be turned right");
+        assertEquals(0, ball.getVelocity().y, 0.001, "The ball should be turned right");
+        assertEquals(1.5f, ball.accelerationFactor, "The ball should be sped up");
+        long boostedAt = ball.accelerationStartTime;
+        app.tick();
+        ball.update();
+        assertEquals(boostedAt, ball.accelerationStartTime, "Staying on the tile should not restart the boost");
+
+        // Diagonal accelerator
+        Ball diagonal = new Ball(app, 13 * 32 + 16, App.TOPBAR + 2 * 32 - 1, 0);
+        diagonal.setVelocity(new PVector(0, 2));
+        diagonal.update();
+        assertEquals(diagonal.getVelocity().x, diagonal.getVelocity().y, 0.001, "The ball should be turned down-right");
+        assertEquals(2, diagonal.getVelocity().mag(), 0.001, "The ball should keep its speed");
+
+        // A ball left of the attractor is pulled right, towards it
+        Ball pulled = new Ball(app, 7 * 32 + 16, App.TOPBAR + 5 * 32 + 16, 0);
+        pulled.setVelocity(new PVector(0, 0.001f));
+        pulled.update();
+        assertTrue(pulled.getVelocity().x > 0, "The attractor should pull the ball towards it");
+
+        // An 'A' in the last column is not a tile, and a ball next to it is fine
+        Ball edge = new Ball(app, 17 * 32 + 16, App.TOPBAR + 17 * 32 + 16, 0);
+        assertDoesNotThrow(edge::update, "A ball at the right edge should not read past the board");
+    }
+
     //Holes
 
     // Test if an orange ball is correctly captured by an orange hole
@@ -294,6 +480,739 @@ public class AppTest {
     }
 
 
+    // Timers
+
+    // Test if the timer wheel fires every task once, at the first advance that reaches its deadline, also a turn or more ahead and after a clear
+    @Test
+    public void testTimerWheelFiresOnTime() {
+        TimerWheel wheel = new TimerWheel();
+        Random random = new Random(5);
+        long[] deadlines = new long[5000];
+        long[] firedAt = new long[deadlines.length];
+        long now = 0;
+        for (int i = 0; i < deadlines.length; i++) {
+            deadlines[i] = now + random.nextInt(3 * TimerWheel.SLOTS * TimerWheel.RESOLUTION_MILLIS) - 100;  // Some already past
+            int task = i;
+            wheel.schedule(t -> {
+                assertEquals(0, firedAt[task], "A task should fire once");
+                firedAt[task] = t;
+            }, deadlines[i]);
+        }
+        long previous = Long.MIN_VALUE;
+        while (wheel.size() > 0) {
+            now += 1 + random.nextInt(random.nextInt(20) == 0 ? 6000 : 40);  // Mostly frames, sometimes a long gap
+            wheel.advance(now);
+            for (int i = 0; i < deadlines.length; i++) {
+                if (deadlines[i] > now) {
+                    assertEquals(0, firedAt[i], "A task should not fire early");
+                } else if (deadlines[i] > previous) {
+                    assertEquals(now, firedAt[i], "A task should fire at the first advance past its deadline");
+                }
+            }
+            previous = now;
+        }
+        assertEquals(deadlines.length, wheel.fired, "Every task should fire");
+
+        // After a clear the clock may go back
+        wheel.clear();
+        long[] late = new long[1];
+        wheel.schedule(t -> late[0] = t, 50);
+        wheel.advance(40);
+        assertEquals(0, late[0], "The task should wait for its deadline after the clock went back");
+        wheel.advance(50);
+        assertEquals(50, late[0], "The task should fire at its deadline after the clock went back");
+    }
+
+    // Test if speed boosts end on the first tick after they have lasted their duration, as when every ball checked its own, also after a restore
+    @Test
+    public void testBoostsEndOnTime() {
+        Random random = new Random(11);
+        for (int i = 0; i < 150; i++) {
+            app.balls.add(new Ball(app, 40 + random.nextInt(500), 100 + random.nextInt(500), random.nextInt(5)));
+        }
+        GameSnapshot saved = null;
+        int ended = 0;
+        for (int tick = 0; tick < 600; tick++) {
+            // Boost a few balls, as accelerators do
+            for (int i = 0; i < 3 && !app.balls.isEmpty(); i++) {
+                app.balls.get(random.nextInt(app.balls.size())).applyAcceleration(random.nextBoolean() ? 1 : -1, 0);
+            }
+            if (tick == 200) {
+                saved = app.snapshot();
+            }
+            if (tick == 400) {
+                app.restore(saved);  // The clock goes back; boosts are timed again
+            }
+            app.tick();
+            long now = app.gameMillis();
+            for (Ball ball : app.balls) {
+                boolean ranOut = now - ball.accelerationStartTime > ball.accelerationDuration;
+                if (ball.accelerationStartTime > 0 && !ball.isCaptured) {
+                    assertEquals(ranOut ? 1.0f : 1.5f, ball.accelerationFactor, "A boost should end on the first tick after it ran out, in tick " + tick);
+                    ended += ranOut ? 1 : 0;
+                }
+            }
+        }
+        assertTrue(ended > 100, "Boosts should have run out");
+        assertTrue(app.timers.fired > 0, "The timer wheel should have ended the boosts");
+    }
+
+    // Events
+
+    // Test if a tick's stroke hits reach listeners in one batch after the game has applied them, and captures outside a tick at once
+    @Test
+    public void testEventsDispatchedInOneBatchPerTick() {
+        app.balls.clear();
+        Line stroke = new Line();
+        stroke.addPoint(100, 200);
+        stroke.addPoint(300, 200);
+        app.drawnLines.add(stroke);
+
+        // Two balls reach the same stroke in the same tick
+        Ball first = new Ball(app, 150, 180, 0);
+        first.setVelocity(new PVector(0, 2));
+        Ball second = new Ball(app, 250, 180, 0);
+        second.setVelocity(new PVector(0, 2));
+        app.balls.add(first);
+        app.balls.add(second);
+
+        List<Integer> kinds = new ArrayList<>();
+        List<Integer> batchSizes = new ArrayList<>();
+        app.events.subscribe(events -> {
+            batchSizes.add(events.size());
+            for (int i = 0; i < events.size(); i++) {
+                kinds.add(events.kind(i));
+                if (events.kind(i) == GameEvents.STROKE_HIT) {
+                    assertSame(stroke, events.stroke(i), "The event should name the stroke that was hit");
+                    assertFalse(app.drawnLines.contains(stroke), "The game should erase the stroke before other listeners run");
+                }
+            }
+        });
+        for (int i = 0; i < 20; i++) {
+            app.tick();
+        }
+        assertEquals(List.of(GameEvents.STROKE_HIT), kinds, "A stroke should be hit once, even by two balls in the same tick");
+        assertEquals(List.of(1), batchSizes, "Ticks without events should not dispatch anything");
+
+        // Outside a tick the event is dispatched straight away, with the score already changed
+        int score = app.getScore();
+        first.colorIndex = 0;
+        first.checkColorMatch(15, 1);
+        assertEquals(GameEvents.CAPTURE, (int) kinds.get(kinds.size() - 1), "The capture should be dispatched at once");
+        assertTrue(app.getScore() > score, "A grey ball should score in any hole");
+    }
+
+
+    // Test if a step publishing more events than the ring holds keeps them all until its end,
+    // without erasing strokes while the collisions are checked
+    @Test
+    public void testEventsHeldBeyondCapacity() {
+        app.balls.clear();
+        Line stroke = new Line();
+        stroke.addPoint(100, 200);
+        stroke.addPoint(300, 200);
+        app.drawnLines.add(stroke);
+        for (int i = 0; i < 3; i++) {
+            Ball ball = new Ball(app, 140 + i * 40, 195, 0);
+            ball.setVelocity(new PVector(0, 2));
+            app.balls.add(ball);
+        }
+
+        List<Integer> batchSizes = new ArrayList<>();
+        app.events.subscribe(events -> batchSizes.add(events.size()));
+        app.events.hold();
+        for (int i = 0; i < GameEvents.CAPACITY + 100; i++) {
+            app.events.publish(GameEvents.SPAWN, null, null, 1, 0, i, 0);
+        }
+        app.checkBallLineCollisions();
+        assertTrue(app.drawnLines.contains(stroke), "The stroke should stay until the end of the step");
+        assertTrue(batchSizes.isEmpty(), "Nothing should be dispatched during the step");
+        app.events.dispatch();
+
+        assertEquals(List.of(GameEvents.CAPACITY + 101), batchSizes, "The stroke should be hit once, in the step's batch");
+        assertFalse(app.drawnLines.contains(stroke), "The stroke should be erased when the step's events are handled");
+    }
+
+    // Particles
+
+    // Test if captures, recolours and erased strokes emit particles that die out, within capacity and the budget
+    @Test
+    public void testParticlesEmitAndShed() {
+        Particles particles = app.particles;
+        particles.enabled = true;
+        App plain = App.createHeadless(assets, 42);  // The same game without effects
+        for (App game : new App[]{app, plain}) {
+            Ball ball = new Ball(game, 5 * App.CELLSIZE + 16, App.TOPBAR + 8 * App.CELLSIZE + 16, 2);
+            ball.checkColorMatch(15, 1);  // Outside a tick, so dispatched at once
+            Line line = new Line();
+            line.addPoint(100, 300);
+            line.addPoint(200, 320);
+            game.events.publish(GameEvents.STROKE_HIT, ball, line, 2, 0, 150, 310);
+        }
+        assertTrue(particles.count(Particles.BURST) > 0, "A capture should emit a burst");
+        assertTrue(particles.count(Particles.INK) > 0, "An erased stroke should leave ink");
+
+        // Every particle dies within its lifetime, and the game plays the same as without them
+        for (int i = 0; i < 60; i++) {
+            app.tick();
+            plain.tick();
+        }
+        assertEquals(0, particles.count(Particles.BURST) + particles.count(Particles.INK), "Particles should die out");
+        assertEquals(describe(plain), describe(app), "Particles should not change the game");
+        assertEquals(plain.random.nextInt(), app.random.nextInt(), "Particles should not draw from the game's generator");
+
+        // A full effect drops what does not fit, and a frame over budget sheds particles
+        for (int i = 0; i < 500; i++) {
+            particles.emit(Particles.SPARK, 300, 300, 1);
+        }
+        assertEquals(Particles.CAPACITY, particles.count(Particles.SPARK), "An effect should stop at its capacity");
+        assertTrue(particles.dropped > 0, "Particles that do not fit should be counted");
+        particles.adjustLimit(particles.budgetNanos + 1);
+        assertEquals(Particles.CAPACITY / 2, particles.count(Particles.SPARK), "Going over budget should shed half");
+        assertEquals(Particles.CAPACITY / 2, particles.shed);
+        particles.draw(app.g);  // One batched shape per effect
+    }
+
+    // Telemetry
+
+    // Test if captures and played-out levels are written as compressed records, none lost and none twice
+    @Test
+    public void testTelemetryWritesRecords(@TempDir Path directory) throws IOException {
+        Telemetry telemetry = Telemetry.start(app, directory.toFile());
+        for (int i = 0; i < 10; i++) {
+            Ball ball = new Ball(app, 5 * App.CELLSIZE + 16, App.TOPBAR + 8 * App.CELLSIZE + 16, 2);
+            ball.bounces = 3;
+            ball.checkColorMatch(15, 1);  // A grey hole, which every colour matches
+        }
+
+        // Play out the end of the level
+        app.endLevel();
+        app.timeLeft = 0;
+        app.handlePostLevelLogic();
+        telemetry.close();
+        assertEquals(11, telemetry.recorded, "Ten captures and one level should be recorded");
+        assertEquals(telemetry.recorded, telemetry.written + telemetry.dropped, "Every record should be written or counted as dropped");
+        assertEquals(0, telemetry.dropped, "Nothing should be dropped at this rate");
+
+        StringBuilder text = new StringBuilder();
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                assertTrue(file.getFileName().toString().endsWith(".jsonl.gz"), "Records should be written to gzip files");
+                try (var in = new java.util.zip.GZIPInputStream(Files.newInputStream(file))) {
+                    text.append(new String(in.readAllBytes(), java.nio.charset.StandardCharsets.UTF_8));
+                }
+            }
+        }
+        String[] lines = text.toString().split("\n");
+        assertEquals(11, lines.length, "Each record should be one line");
+        JSONObject ball = JSONObject.parse(lines[0]);
+        assertEquals("blue", ball.getString("color"));
+        assertEquals(3, ball.getInt("bounces"));
+        assertEquals(5, ball.getJSONArray("entry").getInt(0), "The entry cell should be recorded");
+        assertTrue(ball.getBoolean("matched"));
+        JSONObject level = JSONObject.parse(lines[10]);
+        assertEquals("level", level.getString("type"));
+        assertEquals(10, level.getInt("captured"));
+        assertEquals(0, level.getInt("requeued"));
+    }
+
+
+    // Flight recorder
+
+    // Test if the flight recorder events stay off until a recording enables them, and the recording sees this game's ticks, frames and level loads
+    @Test
+    public void testFlightRecorderEvents(@TempDir Path directory) throws IOException {
+        app.draw();
+        assertFalse(FlightEvents.ticks || FlightEvents.frames || FlightEvents.levelLoads, "The events should be off without a recording");
+
+        Path file = directory.resolve("game.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("inkball.Tick");
+            recording.enable("inkball.Frame");
+            recording.enable("inkball.LevelLoad");
+            recording.start();
+            assertTrue(FlightEvents.ticks && FlightEvents.frames && FlightEvents.levelLoads, "Starting a recording should turn its events on");
+            assertFalse(FlightEvents.spawns, "Events the recording does not enable should stay off");
+            for (int i = 0; i < 20; i++) {
+                app.draw();
+            }
+            app.loadLevel(1);
+            recording.stop();
+            recording.dump(file);
+        }
+        assertFalse(FlightEvents.ticks || FlightEvents.frames || FlightEvents.levelLoads, "Stopping the recording should turn the events off again");
+
+        // Other tests run at the same time, so only this thread's events are counted
+        int ticks = 0, frames = 0, loads = 0;
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            if (event.getThread() == null || event.getThread().getJavaThreadId() != Thread.currentThread().getId()) {
+                continue;
+            }
+            switch (event.getEventType().getName()) {
+                case "inkball.Tick":
+                    ticks++;
+                    assertTrue(event.getDuration("collisions").toNanos() <= event.getDuration().toNanos(), "A phase should fit in its tick");
+                    break;
+                case "inkball.Frame":
+                    frames++;
+                    break;
+                case "inkball.LevelLoad":
+                    loads++;
+                    assertEquals("level2.txt", event.getString("layout"), "The level load should name its layout");
+                    break;
+            }
+        }
+        assertEquals(20, ticks, "Every tick should be recorded");
+        assertEquals(20, frames, "Every frame should be recorded");
+        assertEquals(1, loads, "The level load should be recorded");
+    }
+
+    // Leaderboard
+
+    // Test if the leaderboard keeps the best runs of each board across compactions and reopening, and a finished level is recorded
+    @Test
+    public void testLeaderboardKeepsBestRuns(@TempDir Path directory) throws IOException {
+        Leaderboard leaderboard = Leaderboard.open(directory, 5, 1000);
+        Random random = new Random(7);
+        List<List<Integer>> expected = new ArrayList<>();
+        for (int board = 0; board < 3; board++) {
+            expected.add(new ArrayList<>());
+        }
+        for (int i = 0; i < 2500; i++) {
+            int board = random.nextInt(3);
+            int score = random.nextInt(100_000) - 1000;
+            leaderboard.record(board - 1, score);  // Boards -1 (the campaign), 0 and 1
+            expected.get(board).add(score);
+        }
+        assertEquals(2, leaderboard.compactions, "The log should be compacted every 1000 records");
+        for (List<Integer> scores : expected) {
+            scores.sort(Collections.reverseOrder());
+        }
+
+        // Crash without closing: the index and the records flushed since are read back
+        leaderboard.flush();
+        Leaderboard reopened = Leaderboard.open(directory, 5, 1000);
+        assertEquals(500, reopened.replayed, "Only the records since the last compaction should be read");
+        for (int board = 0; board < 3; board++) {
+            List<Leaderboard.Entry> top = reopened.top(board - 1);
+            assertEquals(5, top.size(), "Each board should keep its five best runs");
+            for (int i = 0; i < 5; i++) {
+                assertEquals(expected.get(board).get(i), top.get(i).score, "The best runs should be kept in order");
+            }
+            assertEquals(expected.get(board).size(), reopened.runs(board - 1), "Every run should be counted");
+        }
+
+        // A record cut short at the end of the log is dropped, and closing leaves only the index to read
+        try (OutputStream log = Files.newOutputStream(directory.resolve("scores-2.log"), StandardOpenOption.APPEND)) {
+            log.write(new byte[7]);
+        }
+        reopened = Leaderboard.open(directory, 5, 1000);
+        assertEquals(500, reopened.replayed, "A record cut short should not be read");
+        reopened.close();
+        reopened = Leaderboard.open(directory, 5, 1000);
+        assertEquals(0, reopened.replayed, "Closing should compact the log into the index");
+        assertEquals(expected.get(0).get(0), reopened.best(Leaderboard.CAMPAIGN), "The best game should survive compaction");
+
+        // Playing out the end of a level records the points scored in it
+        reopened.close();
+        Leaderboard games = Leaderboard.open(directory.resolve("game"));
+        app.leaderboard = games;
+        app.levelStartScore = 20;
+        app.score = 120;
+        app.endLevel();
+        app.timeLeft = 0;
+        app.handlePostLevelLogic();
+        assertEquals(1, games.runs(0), "The finished level should be recorded");
+        assertEquals(100, games.best(0), "The points scored in the level should be recorded");
+        assertEquals(120, app.levelStartScore, "The next level should start from the score so far");
+        games.close();
+
+        // Games of another configuration keep boards of their own
+        Path layoutFile = directory.resolve("level.txt");
+        List<String> lines = Files.readAllLines(Paths.get("level1.txt"));
+        lines.set(3, "X      XXXX      X");  // An edited first level
+        Files.write(layoutFile, lines);
+        JSONObject config = PApplet.loadJSONObject(new File("config.json"));
+        config.getJSONArray("levels").getJSONObject(0).setString("layout", layoutFile.toString());
+        Path configFile = directory.resolve("config.json");
+        config.save(configFile.toFile(), "compact");
+        assertEquals(app.leaderboardKey(), App.createHeadless(assets, 1).leaderboardKey(), "The same configuration should share its boards");
+        assertNotEquals(app.leaderboardKey(), App.createHeadless(configFile.toString(), 1).leaderboardKey(),
+                "Another configuration should have boards of its own");
+    }
+
+    // Test if a finished game records its last level and the whole game once, however long its end screen stays up
+    @Test
+    public void testEndedGameRecordedOnce(@TempDir Path directory) throws IOException {
+        App game = App.createHeadless(assets, 1);
+        game.leaderboard = Leaderboard.open(directory.resolve("scores"));
+        Telemetry telemetry = Telemetry.start(game, directory.resolve("telemetry").toFile());
+        int last = game.totalLevels - 1;
+        game.currentLevel = last;
+        game.loadLevel(last);
+        game.balls.clear();
+        game.ballsToSpawn.clear();
+        game.timeLeft = 0;
+        game.isPaused = true;  // Paused, so that the clock does not stop the game when it runs out
+        for (int i = 0; i < 5 && !game.gameEnded; i++) {
+            game.tick();
+        }
+        assertTrue(game.gameEnded, "The game should end after its last level");
+        long recorded = telemetry.recorded;
+
+        for (int i = 0; i < 40; i++) {  // The end screen, still paused
+            game.tick();
+        }
+        telemetry.close();
+        assertEquals(1, game.leaderboard.runs(Leaderboard.CAMPAIGN), "The game should be recorded once");
+        assertEquals(1, game.leaderboard.runs(last), "The last level should be recorded once");
+        assertEquals(recorded, telemetry.recorded, "The last level should be summarised once");
+        game.leaderboard.close();
+    }
+
+    // Snapshots
+
+    // Test if restoring a snapshot puts the balls, strokes, score and board back as they were
+    @Test
+    public void testSnapshotRestore() {
+        app.loadLevel(0);
+        app.spawnBall();
+        Ball ball = app.getBalls().get(0);
+        PVector position = ball.getPosition().copy();
+        int ballCount = app.getBalls().size();
+
+        GameSnapshot snapshot = app.snapshot();
+
+        Line line = new Line();
+        line.addPoint(new PVector(100, 100));
+        line.addPoint(new PVector(200, 100));
+        app.drawnLines.add(line);
+        app.score = 500;
+        app.setCell(0, 0, '4');
+        for (int i = 0; i < 30; i++) {
+            app.tick();
+        }
+
+        app.restore(snapshot);
+        assertEquals(0, app.getScore(), "Score should be restored");
+        assertEquals(0, app.drawnLines.size(), "Strokes added after the snapshot should be gone");
+        assertEquals(ballCount, app.getBalls().size(), "Ball count should be restored");
+        assertEquals(position, app.getBalls().get(0).getPosition(), "Ball position should be restored");
+        assertTrue(app.isWall(0, 0) && app.board[0][0] == 'X', "Board cells changed after the snapshot should be restored");
+    }
+
+    // Test if taking snapshots leaves the game's random choices as they would have been without them
+    @Test
+    public void testSnapshotsDoNotChangeTheGame() {
+        App watched = App.createHeadless(assets, 7);
+        App plain = App.createHeadless(assets, 7);
+        for (int i = 0; i < 300; i++) {
+            if (i % 10 == 0) {
+                watched.snapshot();  // As the autosave and the auto-player's lookahead do
+            }
+            watched.tick();
+            plain.tick();
+        }
+        assertEquals(describe(plain), describe(watched), "Snapshots should not change the game");
+        assertEquals(plain.random.nextLong(), watched.random.nextLong(), "Snapshots should not draw from the game's generator");
+
+        // A restored game makes the same random choices again
+        GameSnapshot snapshot = watched.snapshot();
+        long next = watched.random.nextLong();
+        watched.restore(snapshot);
+        assertEquals(next, watched.random.nextLong(), "Restoring should replay the same random choices");
+    }
+
+    // Test if a saved game resumes with the same state and plays out the same way
+    @Test
+    public void testSaveAndResume(@TempDir Path directory) throws IOException {
+        App game = App.createHeadless("config.json", 3);
+        for (int i = 0; i < 90; i++) {
+            game.tick();
+        }
+        Line line = new Line();
+        line.addPoint(new PVector(120, 300));
+        line.addPoint(new PVector(220, 320));
+        game.drawnLines.add(line);
+
+        SaveGame save = new SaveGame(directory.resolve("save.bin"));
+        save.save(game);
+        int savedScore = game.getScore();
+        int savedLines = game.drawnLines.size();
+        for (int i = 0; i < 300; i++) {
+            game.tick();
+        }
+
+        App resumed = App.createHeadless("config.json", 4);
+        save.load(resumed);
+        assertEquals(savedScore, resumed.getScore(), "The score should be saved");
+        assertEquals(savedLines, resumed.drawnLines.size(), "The strokes should be saved");
+        for (int i = 0; i < 300; i++) {
+            resumed.tick();
+        }
+        assertEquals(game.getScore(), resumed.getScore(), "The resumed game should reach the same score");
+        assertEquals(game.getTimeLeft(), resumed.getTimeLeft(), "The resumed game should have the same time left");
+        assertEquals(game.getBalls().size(), resumed.getBalls().size(), "The resumed game should have the same balls");
+        for (int i = 0; i < game.getBalls().size(); i++) {
+            assertEquals(game.getBalls().get(i).getPosition(), resumed.getBalls().get(i).getPosition(),
+                    "The resumed balls should follow the same paths");
+        }
+    }
+
+    // Test if fixed-point physics replays bit for bit, keeps balls on its grid, and resumes exactly from a save
+    @Test
+    public void testFixedPointPhysicsIsExact(@TempDir Path directory) throws IOException {
+        App game = App.createHeadless(assets, 5);
+        App replay = App.createHeadless(assets, 5);
+        game.fixedPoint = true;
+        replay.fixedPoint = true;
+        for (App app : new App[]{game, replay}) {
+            Line line = new Line();
+            line.addPoint(new PVector(120, 300));
+            line.addPoint(new PVector(220, 320));
+            line.addPoint(new PVector(300, 260));
+            app.drawnLines.add(line);
+        }
+
+        SaveGame save = new SaveGame(directory.resolve("fixed.bin"));
+        for (int i = 0; i < 1200; i++) {
+            game.tick();
+            replay.tick();
+            if (i == 400) {
+                save.save(game);
+                replay.snapshot();  // Snapshots reseed the random generator, so both games take one
+            }
+        }
+        assertTrue(game.events.published > 3, "Balls should have spawned, bounced and been captured");
+        assertEquals(describe(game), describe(replay), "Two runs should be identical bit for bit");
+        for (Ball ball : game.getBalls()) {
+            assertEquals(ball.position.x, FixedPhysics.toPosition(ball.position.x) / (float) FixedPhysics.POSITION_ONE,
+                    "Positions should stay on the fixed-point grid");
+            assertEquals(ball.velocity.y, FixedPhysics.toVelocity(ball.velocity.y) / (float) FixedPhysics.VELOCITY_ONE,
+                    "Velocities should stay on the fixed-point grid");
+        }
+
+        // The float vectors hold the fixed-point state exactly, so a save resumes without drift
+        App resumed = App.createHeadless(assets, 6);
+        resumed.fixedPoint = true;
+        save.load(resumed);
+        for (int i = 401; i < 1200; i++) {
+            resumed.tick();
+        }
+        assertEquals(describe(game), describe(resumed), "A resumed game should carry on bit for bit");
+    }
+
+    // Test if moving the balls with the ball kernel gives exactly the same game as updating them one by one
+    @Test
+    public void testBallKernelMatchesBallUpdate() {
+        App game = App.createHeadless(assets, 9);
+        App kernel = App.createHeadless(assets, 9);
+        App scalar = App.createHeadless(assets, 9);
+        kernel.vectorKernel = true;
+        scalar.vectorKernel = true;
+        scalar.kernel = new BallKernel();  // The scalar fallback, whatever kernel this JVM picks
+        for (App app : new App[]{game, kernel, scalar}) {
+            Random random = new Random(3);
+            for (int i = 0; i < 45; i++) {  // Enough balls to fill several vectors
+                app.balls.add(new Ball(app, 40 + random.nextInt(500), 100 + random.nextInt(500), random.nextInt(5)));
+            }
+        }
+        for (int i = 0; i < 1500; i++) {
+            game.tick();
+            kernel.tick();
+            scalar.tick();
+        }
+        assertTrue(kernel.kernel != null && game.events.published > 3, "The kernel should have moved, recoloured and captured balls");
+        assertEquals(describe(game), describe(kernel), "The kernel should move balls bit for bit like Ball.update()");
+        assertEquals(describe(game), describe(scalar), "The scalar kernel should match Ball.update() too");
+    }
+
+    /**
+     * Describes the exact state of a game's balls, score and strokes.
+     */
+    private static String describe(App app) {
+        StringBuilder text = new StringBuilder("score " + app.getScore() + ", strokes " + app.drawnLines.size());
+        for (Ball ball : app.getBalls()) {
+            text.append(String.format("%n%08x %08x %08x %08x %d", Float.floatToIntBits(ball.position.x),
+                    Float.floatToIntBits(ball.position.y), Float.floatToIntBits(ball.velocity.x),
+                    Float.floatToIntBits(ball.velocity.y), ball.colorIndex));
+        }
+        return text.toString();
+    }
+
+
+    // Hot reload
+
+    // Test if edits to the configuration and the current layout reach a running game at a tick boundary
+    @Test
+    public void testHotReloadAppliesEdits(@TempDir Path directory) throws Exception {
+        Path layoutFile = directory.resolve("level.txt");
+        Files.copy(Paths.get("level1.txt"), layoutFile);
+        JSONObject config = PApplet.loadJSONObject(new File("config.json"));
+        config.getJSONArray("levels").getJSONObject(0).setString("layout", layoutFile.toString());
+        Path configFile = directory.resolve("config.json");
+        config.save(configFile.toFile(), "compact");
+
+        App game = App.createHeadless(configFile.toString(), 5);
+        Ball ball = game.getBalls().get(0);
+        HotReloader reloader = HotReloader.watch(game);
+        try {
+            config.getJSONArray("levels").getJSONObject(0).setInt("spawn_interval", 3);
+            config.getJSONObject("score_increase_from_hole_capture").setInt("grey", 999);
+            config.save(configFile.toFile(), "compact");
+            List<String> lines = Files.readAllLines(layoutFile);
+            lines.set(3, "X      XXXX      X");
+            Files.write(layoutFile, lines);
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while (reloader.reloads < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+                game.tick();
+            }
+            assertEquals(3, game.spawnInterval, "The new spawn interval should be applied");
+            assertEquals(999, game.getScoreIncreaseMap().get("grey"), "The new score table should be applied");
+            assertTrue(game.isWall(7, 3), "The edited row of the layout should be on the board");
+
+            // Pointing the level at another layout compiles it on the watcher and applies it
+            Path otherLayout = directory.resolve("other.txt");
+            Files.copy(Paths.get("level2.txt"), otherLayout);
+            config.getJSONArray("levels").getJSONObject(0).setString("layout", otherLayout.toString());
+            config.save(configFile.toFile(), "compact");
+            while (reloader.reloads < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+                game.tick();
+            }
+        } finally {
+            reloader.close();
+        }
+
+        LevelLayout other = LevelLayout.compile(Files.readAllLines(Paths.get("level2.txt")).toArray(new String[0]),
+                App.BOARD_WIDTH, App.BOARD_HEIGHT);
+        for (int y = 0; y < other.cells.length; y++) {
+            assertArrayEquals(other.cells[y], game.board[y], "The level's new layout should be on the board");
+        }
+        assertTrue(game.getBalls().contains(ball), "Balls in play should be kept");
+    }
+
+    // Networking
+
+    // Test if a client over loopback mirrors the server's game and its strokes reach the server
+    @Test
+    public void testServerStreamsStateToClient() throws Exception {
+        GameServer server = new GameServer(App.createHeadless("config.json", 1), 0);
+        server.start();
+        GameClient client = GameClient.connect("localhost", server.getPort());
+        try {
+            // Drawn over the top wall, where no ball can reach it
+            Line stroke = new Line();
+            stroke.addPoint(new PVector(100, App.TOPBAR + 16));
+            stroke.addPoint(new PVector(200, App.TOPBAR + 16));
+            client.sendStroke(stroke);
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while ((client.getState() == null || client.getState().tick < 30 || client.getState().lines.length == 0)
+                    && System.currentTimeMillis() < deadline) {
+                client.poll();
+                Thread.sleep(5);
+            }
+        } finally {
+            server.stop();
+            client.close();
+        }
+
+        NetState received = client.getState();
+        assertNotNull(received, "The client should have received a state");
+        assertEquals(1, received.lines.length, "The stroke sent by the client should be in the game");
+        NetState sent = server.stateAt(received.tick);
+        assertNotNull(sent, "The server should still hold the state the client received");
+        assertEquals(sent.score, received.score, "Score should match the server");
+        assertEquals(sent.timeLeft, received.timeLeft, "Timer should match the server");
+        assertArrayEquals(sent.ballIds, received.ballIds, "Balls should match the server");
+        assertArrayEquals(sent.ballXs, received.ballXs, "Ball positions should match the server");
+        assertArrayEquals(sent.ballYs, received.ballYs, "Ball positions should match the server");
+        assertTrue(client.bytesReceived < received.tick * 64, "Deltas should stay small");
+    }
+
+    // Test if a client claiming a stroke longer than its message is disconnected, and the server keeps ticking
+    @Test
+    public void testServerRejectsOversizedStroke() throws Exception {
+        GameServer server = new GameServer(App.createHeadless("config.json", 1), 0);
+        server.start();
+        SocketChannel attacker = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()));
+        GameClient player = GameClient.connect("localhost", server.getPort());
+        try {
+            // A stroke of 2^31 - 1 values in a 6-byte message
+            ByteBuffer message = ByteBuffer.allocate(10);
+            message.putInt(6).put(GameServer.MSG_STROKE).put(new byte[]{-1, -1, -1, -1, 7});
+            message.flip();
+            attacker.write(message);
+            ByteBuffer reply = ByteBuffer.allocate(1 << 16);
+            int read = 0;
+            while (read >= 0) {
+                reply.clear();
+                read = attacker.read(reply);  // Blocks until the server closes the connection
+            }
+
+            long ticks = server.ticks;
+            long deadline = System.currentTimeMillis() + 5000;
+            while (server.ticks < ticks + 10 && System.currentTimeMillis() < deadline) {
+                player.poll();
+                Thread.sleep(5);
+            }
+            assertTrue(server.ticks >= ticks + 10, "The server should keep ticking");
+            assertEquals(1, server.clientCount(), "Only the misbehaving client should be disconnected");
+        } finally {
+            server.stop();
+            attacker.close();
+            player.close();
+        }
+    }
+
+    // Test if a state larger than the server's buffers reaches a new client, and strokes too long
+    // for one message arrive in pieces
+    @Test
+    public void testServerSendsLargeStates() throws Exception {
+        GameServer server = new GameServer(App.createHeadless("config.json", 1), 0);
+        server.start();
+        GameClient player = GameClient.connect("localhost", server.getPort());
+        GameClient spectator = null;
+        try {
+            // Zigzags along the top wall, about 4 bytes a point
+            int points = (GameClient.MAX_STROKE_POINTS - 1) * 3 + 1;
+            for (int s = 0; s < 3; s++) {
+                Line stroke = new Line();
+                for (int i = 0; i < points; i++) {
+                    stroke.addPoint(i % 2 == 0 ? 100 : 9000, App.TOPBAR + 16);
+                }
+                player.sendStroke(stroke);
+            }
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while ((player.getState() == null || player.getState().lines.length < 9)
+                    && System.currentTimeMillis() < deadline) {
+                player.poll();
+                Thread.sleep(5);
+            }
+            spectator = GameClient.connect("localhost", server.getPort());
+            while (spectator.getState() == null && System.currentTimeMillis() < deadline) {
+                player.poll();
+                spectator.poll();
+                Thread.sleep(5);
+            }
+        } finally {
+            server.stop();
+            player.close();
+            if (spectator != null) {
+                spectator.close();
+            }
+        }
+
+        assertEquals(9, player.getState().lines.length, "Each stroke should arrive as three pieces");
+        assertNotNull(spectator.getState(), "The new client should receive the whole state");
+        assertEquals(9, spectator.getState().lines.length, "The whole state should hold every stroke");
+        assertTrue(spectator.bytesReceived > 256 * 1024, "The state should be larger than the send buffer");
+    }
+
     // Player actions
 
     // Test if the game correctly resets all states when restarted
@@ -348,6 +1267,97 @@ public class AppTest {
         assertEquals(oldPosition, ball.getPosition(), "Ball should not move when the game is paused");
     }
 
+    // Test if a paused game draws one frame and then nothing until input, and a game without balls in play only redraws the top bar
+    @Test
+    public void testIdleRenderingDrawsOnlyChanges() {
+        app.draw();
+        app.key = ' ';
+        app.keyPressed();  // Pause
+        long frames = app.framesDrawn;
+        for (int i = 0; i < 30; i++) {
+            app.draw();
+        }
+        assertEquals(frames + 1, app.framesDrawn, "A paused game should draw one frame showing the pause");
+        assertEquals(0, app.hudFramesDrawn, "A paused game should not draw the top bar again");
+        assertTrue(app.isIdle(), "A paused game should be idle");
+
+        float countdown = app.spawnIntervalLeft;
+        app.keyPressed();  // Resume
+        assertEquals(countdown, app.spawnIntervalLeft, 0.05, "The spawn countdown should continue where it was paused");
+
+        // With no ball in play, only the countdown and timer change
+        app.balls.clear();
+        app.draw();
+        frames = app.framesDrawn;
+        for (int i = 0; i < 30; i++) {
+            app.draw();
+        }
+        assertEquals(frames, app.framesDrawn, "Nothing on the board changes, so no whole frame should be drawn");
+        assertTrue(app.hudFramesDrawn > 0, "The countdown should be redrawn in the top bar");
+    }
+
+    // Test if input is timed from its arrival to the first frame drawn after it, and a finished stroke to its first collision check
+    @Test
+    public void testInputLatencyHistograms() {
+        app.draw();
+        long received = System.currentTimeMillis() - 20;  // The events waited 20 ms for the frame
+        app.mousePressed(new MouseEvent(null, received, MouseEvent.PRESS, 0, 100, 300, PApplet.LEFT, 1));
+        app.mouseDragged(new MouseEvent(null, received, MouseEvent.DRAG, 0, 150, 300, PApplet.LEFT, 1));
+        app.mouseDragged(new MouseEvent(null, received, MouseEvent.DRAG, 0, 200, 300, PApplet.LEFT, 1));
+        app.mouseReleased(new MouseEvent(null, received, MouseEvent.RELEASE, 0, 200, 300, PApplet.LEFT, 1));
+
+        InputLatency latency = app.latency;
+        assertEquals(4, latency.inputToHandler.count(), "Every handled event should be timed");
+        assertTrue(latency.inputToHandler.percentile(50) >= 19_000, "The wait before the events were handled should be counted");
+        assertEquals(0, latency.inputToFrame.count(), "No frame has shown the input yet");
+        assertEquals(0, latency.strokeToCollision.count(), "The stroke has not been checked for collisions yet");
+
+        app.draw();
+        assertEquals(4, latency.inputToFrame.count(), "The next frame should show every event handled before it");
+        assertTrue(latency.inputToFrame.percentile(0) >= latency.inputToHandler.percentile(0),
+                "A frame cannot show an event before it was handled");
+        assertEquals(1, latency.strokeToCollision.count(), "The finished stroke should be timed to its first collision check");
+        assertTrue(latency.strokeToCollision.max() >= 19_000, "The stroke's time should start when its release arrived");
+
+        app.draw();
+        assertEquals(4, latency.inputToFrame.count(), "Input should only be timed to the first frame that shows it");
+        assertEquals(1, latency.strokeToCollision.count(), "A stroke should only be timed to its first check");
+        assertTrue(latency.report().contains("stroke to collision"), "The report should list each histogram");
+
+        // Percentiles are read to within a bucket of about 6%
+        InputLatency.Histogram histogram = new InputLatency.Histogram();
+        for (int micros = 1; micros <= 10_000; micros++) {
+            histogram.record(micros * 1000L);
+        }
+        assertEquals(5000, histogram.percentile(50), 5000 * 0.07, "The median should be within a bucket");
+        assertEquals(9900, histogram.percentile(99), 9900 * 0.07, "The 99th percentile should be within a bucket");
+        assertEquals(10_000, histogram.percentile(100), "The top percentile should be the longest duration");
+    }
+
+    // Test if the sprites are pre-sized at load time and a shrinking ball is drawn from the nearest cached size
+    @Test
+    public void testSpriteCacheSizes() {
+        SpriteCache sprites = app.sprites;
+        for (int diameter = 1; diameter <= SpriteCache.BALL_DIAMETER; diameter++) {
+            assertEquals(diameter, sprites.ball(2, diameter).width, "Each ball size should be cached at its own diameter");
+        }
+        assertSame(sprites.ball(2, 11.6f), sprites.ball(2, 12.4f), "Sizes should be quantised to whole pixels");
+        assertNull(sprites.ball(2, 0.3f), "A ball under half a pixel should not be drawn");
+        assertEquals(App.CELLSIZE * 2, sprites.holes[1].width, "Holes should be pre-sized to 2x2 cells");
+        for (char direction : SpriteCache.DIRECTIONS.toCharArray()) {
+            assertEquals(App.CELLSIZE, sprites.accelerator(direction).width, "Accelerators should be pre-sized to one cell");
+        }
+
+        // A ball half way into a hole is drawn at half its size, centred where it is
+        Ball ball = new Ball(app, 200, 200, 1);
+        ball.scale = 0.5f;
+        app.g.background(255);
+        ball.draw(app.g);
+        app.g.loadPixels();
+        assertNotEquals(0xFFFFFFFF, app.g.pixels[200 * app.g.width + 200], "The ball's centre should be drawn");
+        assertEquals(0xFFFFFFFF, app.g.pixels[200 * app.g.width + 208], "The ball should be drawn at half its size");
+    }
+
 
     // Test if a line is removed when right-clicked near the line
     @Test
@@ -453,7 +1463,7 @@ public class AppTest {
             app.draw();  
         }
         
-        assertEquals(initialTime, app.getTimeLeft(), "The timer should decrement by 1 second after 30 frames.");
+        assertEquals(initialTime - 1, app.getTimeLeft(), "The timer should decrement by 1 second after 30 frames.");
     }
 
 
@@ -0,0 +1,69 @@
+package inkball;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+
+/**
+ * The BallKernel passes in SIMD lanes, with the JDK's incubating Vector API. Moving uses a
+ * separate multiply and add rather than a fused one, and the edges are checked in the same order
+ * as the scalar loop with masked blends, so every lane gets exactly the scalar result. The balls
+ * left over after the last full vector are moved by the scalar loops.
+ * <p>
+ * Needs "--add-modules jdk.incubator.vector" to compile and run; use {@link BallKernel#create()}.
+ */
+final class VectorBallKernel extends BallKernel {
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    String name() {
+        return "vector x" + SPECIES.length();
+    }
+
+    @Override
+    void integrate(int count) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(count); i < bound; i += SPECIES.length()) {
+            FloatVector f = FloatVector.fromArray(SPECIES, factor, i);
+            FloatVector.fromArray(SPECIES, vx, i).mul(f).add(FloatVector.fromArray(SPECIES, x, i)).intoArray(x, i);
+            FloatVector.fromArray(SPECIES, vy, i).mul(f).add(FloatVector.fromArray(SPECIES, y, i)).intoArray(y, i);
+        }
+        integrate(i, count);
+    }
+
+    @Override
+    void bounce(int count, float maxX, float minY, float maxY) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(count); i < bound; i += SPECIES.length()) {
+            FloatVector r = FloatVector.fromArray(SPECIES, radius, i);
+            FloatVector px = FloatVector.fromArray(SPECIES, x, i);
+            FloatVector py = FloatVector.fromArray(SPECIES, y, i);
+            FloatVector pvx = FloatVector.fromArray(SPECIES, vx, i);
+            FloatVector pvy = FloatVector.fromArray(SPECIES, vy, i);
+
+            // Left, then right, as the second check sees the first one's result
+            VectorMask<Float> hit = px.sub(r).compare(VectorOperators.LT, 0f);
+            px = px.blend(r, hit);
+            pvx = pvx.blend(pvx.neg(), hit);
+            hit = px.add(r).compare(VectorOperators.GT, maxX);
+            px = px.blend(r.neg().add(maxX), hit);
+            pvx = pvx.blend(pvx.neg(), hit);
+
+            // Top, then bottom
+            hit = py.sub(r).compare(VectorOperators.LT, minY);
+            py = py.blend(r.add(minY), hit);
+            pvy = pvy.blend(pvy.neg(), hit);
+            hit = py.add(r).compare(VectorOperators.GT, maxY);
+            py = py.blend(r.neg().add(maxY), hit);
+            pvy = pvy.blend(pvy.neg(), hit);
+
+            px.intoArray(x, i);
+            py.intoArray(y, i);
+            pvx.intoArray(vx, i);
+            pvy.intoArray(vy, i);
+        }
+        bounce(i, count, maxX, minY, maxY);
+    }
+}